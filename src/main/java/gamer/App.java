@@ -3,19 +3,29 @@ package gamer;
 import gamer.benchmark.BenchmarkSuite;
 import gamer.chess.BenchmarkChess;
 import gamer.chess.Chess;
+import gamer.chess.ChessCaptureGenerator;
 import gamer.chess.ChessFeatureExtractor;
 import gamer.chess.ChessMove;
 import gamer.chess.ChessSimpleEvaluator;
 import gamer.chess.ChessState;
+import gamer.chess.MvvLvaHeuristic;
 import gamer.def.Game;
 import gamer.def.Move;
 import gamer.def.State;
 import gamer.g2048.Benchmark2048;
 import gamer.g2048.G2048;
+import gamer.g2048.G2048Evaluator;
+import gamer.g2048.G2048Move;
+import gamer.g2048.G2048State;
+import gamer.go.BenchmarkGo;
 import gamer.gomoku.BenchmarkGomoku;
 import gamer.gomoku.Gomoku;
+import gamer.gomoku.GomokuEvaluator;
+import gamer.gomoku.GomokuState;
 import gamer.mcts.BenchmarkMcts;
 import gamer.mcts.MonteCarloPlayer;
+import gamer.minimax.BenchmarkMinimax;
+import gamer.minimax.ExpectimaxPlayer;
 import gamer.minimax.LinearRegressionEvaluator;
 import gamer.minimax.MinimaxPlayer;
 import gamer.players.BenchmarkUct;
@@ -83,7 +93,7 @@ class App {
 
   private static <G extends Game<P, M>, P extends State<P, M>, M extends
       Move> void runGame(
-      G game, long moveTime) {
+      G game, long moveTime, int ttSizeMb) {
     int cores = Runtime.getRuntime().availableProcessors();
     P startPosition = game.newGame();
 
@@ -105,15 +115,24 @@ class App {
 //      player2.setSelector(game.getMoveSelector("random"));
       MinimaxPlayer<P, M> player2 = new MinimaxPlayer<>();
       player2.setTimeout(moveTime * 1000);
+      player2.setTranspositionTableSize(ttSizeMb);
       if (startPosition instanceof ChessState) {
         @SuppressWarnings("unchecked")
         MonteCarloPlayer<ChessState, ?> chessPlayer1 =
             (MonteCarloPlayer<ChessState, ?>) player1;
         chessPlayer1.setEvaluator(ChessSimpleEvaluator.getInstance());
         @SuppressWarnings("unchecked")
-        MinimaxPlayer<ChessState, ?> chessPlayer2 =
-            (MinimaxPlayer<ChessState, ?>) player2;
+        MinimaxPlayer<ChessState, ChessMove> chessPlayer2 =
+            (MinimaxPlayer<ChessState, ChessMove>) player2;
         chessPlayer2.setEvaluator(ChessSimpleEvaluator.getInstance());
+        chessPlayer2.setMoveHeuristic(MvvLvaHeuristic.getInstance());
+        chessPlayer2.setQuiescenceGenerator(ChessCaptureGenerator.getInstance());
+        chessPlayer2.setDeltaPruning(ChessSimpleEvaluator.getInstance(), 0.02);
+      } else if (startPosition instanceof GomokuState) {
+        @SuppressWarnings("unchecked")
+        MinimaxPlayer<GomokuState, ?> gomokuPlayer2 =
+            (MinimaxPlayer<GomokuState, ?>) player2;
+        gomokuPlayer2.setEvaluator(GomokuEvaluator.getInstance());
       }
       match = new Match<>(startPosition, player1, player2);
     }
@@ -123,24 +142,39 @@ class App {
     System.out.println(match);
   }
 
+  private static void runGame2048(long moveTime) {
+    ExpectimaxPlayer<G2048State, G2048Move> player = new ExpectimaxPlayer<>();
+    player.setTimeout(moveTime * 1000);
+    player.setMaxWorkers(Runtime.getRuntime().availableProcessors());
+    player.setEvaluator(G2048Evaluator.getInstance());
+    player.setDepthFunction(G2048Evaluator::getSearchDepth);
+    player.setMinProbability(1e-4);
+
+    Match<G2048State, G2048Move> match =
+        new Match<>(G2048.getInstance().newGame(), player);
+    System.out.println(match);
+    GameRunner.playSingleGame(match, true);
+    System.out.println(match);
+  }
+
   private static void runSingleGame(CommandLine cl) {
     String gameStr = cl.getOptionValue("game", "gomoku");
     long moveTime = Integer.parseInt(cl.getOptionValue("move_time", "15"));
+    int ttSizeMb = Integer.parseInt(cl.getOptionValue("tt_size", "16"));
 
     switch (gameStr) {
       case "gomoku":
         Gomoku gomoku = Gomoku.getInstance(19);
-        runGame(gomoku, moveTime);
+        runGame(gomoku, moveTime, ttSizeMb);
         break;
 
       case "chess":
         Chess chess = Chess.getInstance();
-        runGame(chess, moveTime);
+        runGame(chess, moveTime, ttSizeMb);
         break;
 
       case "2048":
-        G2048 g2048 = G2048.getInstance();
-        runGame(g2048, moveTime);
+        runGame2048(moveTime);
         break;
 
       default:
@@ -160,9 +194,11 @@ class App {
     suite.add(BenchmarkSuite.class);
     suite.add(Benchmark2048.class);
     suite.add(BenchmarkChess.class);
+    suite.add(BenchmarkGo.class);
     suite.add(BenchmarkGomoku.class);
     suite.add(BenchmarkUct.class);
     suite.add(BenchmarkMcts.class);
+    suite.add(BenchmarkMinimax.class);
 
     suite.run();
   }
@@ -177,6 +213,14 @@ class App {
     mode.addOption(new Option("g", "single_game", false, "Run single game"));
     mode.addOption(new Option("t", "tournament", false, "Run tournament"));
     mode.addOption(new Option("b", "benchmark", false, "Run benchmarks"));
+    mode.addOption(new Option(
+        "mcts_scaling", "Print MCTS samples per second for each " +
+                        "parallelization strategy and number of threads"));
+    mode.addOption(new Option(
+        "mcts_allocations", "Print bytes allocated per MCTS sample"));
+    mode.addOption(new Option(
+        "gomoku_selectors", "Compare gomoku playout selectors and play a " +
+                            "tournament between them"));
     mode.setRequired(true);
     options.addOptionGroup(mode);
 
@@ -185,7 +229,14 @@ class App {
                       "(Default: 30)");
     options.addOption("game", true, "Game to be played. (Default: gomoku)");
     options.addOption("move_time", true,
-                      "Time per move in seconds. (Default: 15)");
+                      "Time per move in seconds. (Default: 15, 2 for " +
+                      "-mcts_scaling, 1 for -gomoku_selectors)");
+    options.addOption("rounds", true,
+                      "Rounds of the -gomoku_selectors tournament. " +
+                      "(Default: 5)");
+    options.addOption("tt_size", true,
+                      "Transposition table size in MB for minimax, 0 to " +
+                      "disable. (Default: 16)");
     options.addOption("filter", true,
                       "Only run benchmarks with this substring in the name. " +
                       "(Default: '')");
@@ -226,6 +277,15 @@ class App {
       train();
     } else if (cl.hasOption("benchmark")) {
       runBenchmarks(cl);
+    } else if (cl.hasOption("mcts_scaling")) {
+      BenchmarkMcts.printScalingReport(
+          1000 * Integer.parseInt(cl.getOptionValue("move_time", "2")));
+    } else if (cl.hasOption("mcts_allocations")) {
+      BenchmarkMcts.printAllocationReport();
+    } else if (cl.hasOption("gomoku_selectors")) {
+      BenchmarkMcts.printSelectorReport(
+          1000 * Integer.parseInt(cl.getOptionValue("move_time", "1")),
+          Integer.parseInt(cl.getOptionValue("rounds", "5")));
     } else if (cl.hasOption("single_game")) {
       runSingleGame(cl);
     } else if (cl.hasOption("tournament")) {
@@ -42,9 +42,9 @@ public class BenchmarkChess {
 
     long total = 0;
     for (ChessMove move : state.getMoves()) {
-      ChessState newState = state.clone();
-      newState.play(move);
-      total += perft(newState, depth - 1);
+      long undo = state.playWithUndo(move);
+      total += perft(state, depth - 1);
+      state.unplay(move, undo);
     }
 
     return total;
@@ -0,0 +1,224 @@
+package gamer.chess;
+
+/**
+ * Precomputed attack tables for the bitboard move generation.
+ *
+ * Bit i of a bitboard corresponds to square i in the {@link Board}
+ * numbering: a1 = 0, a2 = 1, ..., a8 = 7, b1 = 8, ..., h8 = 63. In other
+ * words, moving one row up adds 1 to the square, moving one column right
+ * adds 8.
+ *
+ * Rook and bishop attacks are looked up with magic bitboards. Since the
+ * square numbering differs from the one used by most chess engines, the
+ * magic numbers are found at class initialization by a deterministic random
+ * search, which takes a few tens of milliseconds.
+ */
+public final class Bitboards {
+  static final long ROW_1 = 0x0101010101010101L;
+  static final long ROW_2 = ROW_1 << 1;
+  static final long ROW_7 = ROW_1 << 6;
+  static final long ROW_8 = ROW_1 << 7;
+
+  public static final long[] KNIGHT_ATTACKS = new long[64];
+  public static final long[] KING_ATTACKS = new long[64];
+  public static final long[] WHITE_PAWN_ATTACKS = new long[64];
+  public static final long[] BLACK_PAWN_ATTACKS = new long[64];
+
+  /** Squares strictly between two squares on a common line, or 0. */
+  static final long[][] BETWEEN = new long[64][64];
+  /** Full line through two squares (including the edges), or 0. */
+  static final long[][] LINE = new long[64][64];
+
+  private static final int[] ROOK_DELTA_COL = {0, 1, 0, -1};
+  private static final int[] ROOK_DELTA_ROW = {1, 0, -1, 0};
+  private static final int[] BISHOP_DELTA_COL = {1, 1, -1, -1};
+  private static final int[] BISHOP_DELTA_ROW = {1, -1, -1, 1};
+  private static final int[] KNIGHT_DELTA_COL = {1, 2, 2, 1, -1, -2, -2, -1};
+  private static final int[] KNIGHT_DELTA_ROW = {2, 1, -1, -2, -2, -1, 1, 2};
+  private static final int[] KING_DELTA_COL = {0, 1, 1, 1, 0, -1, -1, -1};
+  private static final int[] KING_DELTA_ROW = {1, 1, 0, -1, -1, -1, 0, 1};
+
+  private static final Magic[] ROOK_MAGICS = new Magic[64];
+  private static final Magic[] BISHOP_MAGICS = new Magic[64];
+
+  static {
+    for (int square = 0; square < 64; square++) {
+      KNIGHT_ATTACKS[square] =
+          spotAttacks(square, KNIGHT_DELTA_COL, KNIGHT_DELTA_ROW);
+      KING_ATTACKS[square] =
+          spotAttacks(square, KING_DELTA_COL, KING_DELTA_ROW);
+      WHITE_PAWN_ATTACKS[square] =
+          spotAttacks(square, new int[]{-1, 1}, new int[]{1, 1});
+      BLACK_PAWN_ATTACKS[square] =
+          spotAttacks(square, new int[]{-1, 1}, new int[]{-1, -1});
+    }
+
+    long seed = 0x2545F4914F6CDD1DL;
+    for (int square = 0; square < 64; square++) {
+      ROOK_MAGICS[square] =
+          new Magic(square, ROOK_DELTA_COL, ROOK_DELTA_ROW, seed);
+      BISHOP_MAGICS[square] =
+          new Magic(square, BISHOP_DELTA_COL, BISHOP_DELTA_ROW, seed);
+      seed = ROOK_MAGICS[square].seed ^ BISHOP_MAGICS[square].seed;
+    }
+
+    for (int from = 0; from < 64; from++) {
+      for (int to = 0; to < 64; to++) {
+        if (from == to)
+          continue;
+        long fromBit = 1L << from;
+        long toBit = 1L << to;
+        if ((rookAttacks(from, 0) & toBit) != 0) {
+          BETWEEN[from][to] = rookAttacks(from, toBit) & rookAttacks(to, fromBit);
+          LINE[from][to] =
+              (rookAttacks(from, 0) & rookAttacks(to, 0)) | fromBit | toBit;
+        } else if ((bishopAttacks(from, 0) & toBit) != 0) {
+          BETWEEN[from][to] =
+              bishopAttacks(from, toBit) & bishopAttacks(to, fromBit);
+          LINE[from][to] =
+              (bishopAttacks(from, 0) & bishopAttacks(to, 0)) | fromBit | toBit;
+        }
+      }
+    }
+  }
+
+  private Bitboards() {}
+
+  public static long bit(int square) {
+    return 1L << square;
+  }
+
+  public static long rookAttacks(int square, long occupied) {
+    return ROOK_MAGICS[square].attacks(occupied);
+  }
+
+  public static long bishopAttacks(int square, long occupied) {
+    return BISHOP_MAGICS[square].attacks(occupied);
+  }
+
+  public static long queenAttacks(int square, long occupied) {
+    return rookAttacks(square, occupied) | bishopAttacks(square, occupied);
+  }
+
+  private static boolean onBoard(int col, int row) {
+    return col >= 1 && col <= 8 && row >= 1 && row <= 8;
+  }
+
+  private static long spotAttacks(int square, int[] colDelta, int[] rowDelta) {
+    long attacks = 0;
+    for (int i = 0; i < colDelta.length; i++) {
+      int col = Board.i2col(square) + colDelta[i];
+      int row = Board.i2row(square) + rowDelta[i];
+      if (onBoard(col, row)) {
+        attacks |= bit(Board.cr2i(col, row));
+      }
+    }
+    return attacks;
+  }
+
+  private static long slidingAttacks(
+      int square, long occupied, int[] colDelta, int[] rowDelta) {
+    long attacks = 0;
+    for (int i = 0; i < colDelta.length; i++) {
+      int col = Board.i2col(square);
+      int row = Board.i2row(square);
+      while (true) {
+        col += colDelta[i];
+        row += rowDelta[i];
+        if (!onBoard(col, row))
+          break;
+        long b = bit(Board.cr2i(col, row));
+        attacks |= b;
+        if ((occupied & b) != 0)
+          break;
+      }
+    }
+    return attacks;
+  }
+
+  /** Squares whose occupancy affects the slider attacks from the square. */
+  private static long relevantMask(
+      int square, int[] colDelta, int[] rowDelta) {
+    long mask = 0;
+    for (int i = 0; i < colDelta.length; i++) {
+      int col = Board.i2col(square) + colDelta[i];
+      int row = Board.i2row(square) + rowDelta[i];
+      while (onBoard(col + colDelta[i], row + rowDelta[i])) {
+        mask |= bit(Board.cr2i(col, row));
+        col += colDelta[i];
+        row += rowDelta[i];
+      }
+    }
+    return mask;
+  }
+
+  private static final class Magic {
+    final long mask;
+    final int shift;
+    long magic;
+    long[] attacks;
+    long seed;
+
+    Magic(int square, int[] colDelta, int[] rowDelta, long seed) {
+      mask = relevantMask(square, colDelta, rowDelta);
+      int bits = Long.bitCount(mask);
+      shift = 64 - bits;
+
+      int size = 1 << bits;
+      long[] occupancies = new long[size];
+      long[] reference = new long[size];
+      // Enumerate all subsets of the mask (Carry-Rippler trick).
+      long subset = 0;
+      for (int i = 0; i < size; i++) {
+        occupancies[i] = subset;
+        reference[i] = slidingAttacks(square, subset, colDelta, rowDelta);
+        subset = (subset - mask) & mask;
+      }
+
+      attacks = new long[size];
+      int[] epoch = new int[size];
+      int attempt = 0;
+      while (true) {
+        attempt++;
+        long candidate;
+        do {
+          seed = xorshift(seed);
+          long r1 = seed;
+          seed = xorshift(seed);
+          long r2 = seed;
+          seed = xorshift(seed);
+          candidate = r1 & r2 & seed;
+        } while (Long.bitCount((mask * candidate) >>> 56) < 6);
+
+        boolean ok = true;
+        for (int i = 0; i < size; i++) {
+          int idx = (int) ((occupancies[i] * candidate) >>> shift);
+          if (epoch[idx] < attempt) {
+            epoch[idx] = attempt;
+            attacks[idx] = reference[i];
+          } else if (attacks[idx] != reference[i]) {
+            ok = false;
+            break;
+          }
+        }
+
+        if (ok) {
+          magic = candidate;
+          this.seed = seed;
+          return;
+        }
+      }
+    }
+
+    long attacks(long occupied) {
+      return attacks[(int) (((occupied & mask) * magic) >>> shift)];
+    }
+
+    private static long xorshift(long x) {
+      x ^= x << 13;
+      x ^= x >>> 7;
+      x ^= x << 17;
+      return x;
+    }
+  }
+}
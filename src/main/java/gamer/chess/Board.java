@@ -1,9 +1,30 @@
 package gamer.chess;
 
+import gamer.util.Zobrist;
+
 public final class Board implements Cloneable {
+  /** Zobrist keys indexed by piece * 64 + square, zero for empty squares. */
+  private static final long[] PIECE_KEYS = generatePieceKeys();
+
   byte[] board = new byte[64];
+  /** Bitboards indexed by piece (with color). pieces[EMPTY] = empty squares. */
+  long[] pieces = new long[Pieces.MAX + 1];
+  /** Occupied squares: [0] for white, [1] for black. */
+  long[] colors = new long[2];
+  /** Zobrist hash of the pieces on the board. */
+  private long hash = 0;
 
-  Board() {}
+  Board() {
+    pieces[Pieces.EMPTY] = -1L;
+  }
+
+  private static long[] generatePieceKeys() {
+    long[] keys = Zobrist.generateKeys((Pieces.MAX + 1) * 64, 0x43484553531L);
+    for (int square = 0; square < 64; square++) {
+      keys[Pieces.EMPTY * 64 + square] = 0;
+    }
+    return keys;
+  }
 
   static int a2i(String a) {
     assert a.length() == 2;
@@ -34,6 +55,8 @@ public final class Board implements Cloneable {
     try {
       Board result = (Board) super.clone();
       result.board = board.clone();
+      result.pieces = pieces.clone();
+      result.colors = colors.clone();
       return result;
     } catch (CloneNotSupportedException e) {
       throw new AssertionError(e);
@@ -60,13 +83,38 @@ public final class Board implements Cloneable {
     return getPiece(Board.cr2i(col, row));
   }
 
+  long bitboard(byte piece) {
+    return pieces[piece];
+  }
+
+  long getHash() {
+    return hash;
+  }
+
+  long occupied() {
+    return ~pieces[Pieces.EMPTY];
+  }
+
+  long occupied(boolean player) {
+    return colors[player ? 0 : 1];
+  }
+
   void set(int square, byte value) {
+    byte old = board[square];
+    long bit = 1L << square;
+    pieces[old] &= ~bit;
+    if (old != Pieces.EMPTY)
+      colors[old >> 3] &= ~bit;
     board[square] = value;
+    hash ^= PIECE_KEYS[old * 64 + square] ^ PIECE_KEYS[value * 64 + square];
+    pieces[value] |= bit;
+    if (value != Pieces.EMPTY)
+      colors[value >> 3] |= bit;
   }
 
   void move(int from, int to) {
-    board[to] = board[from];
-    board[from] = Pieces.EMPTY;
+    set(to, board[from]);
+    set(from, Pieces.EMPTY);
   }
 
   public boolean isEmpty(int square) {
@@ -0,0 +1,28 @@
+package gamer.chess;
+
+import gamer.def.MoveGenerator;
+
+import java.util.List;
+
+/** Captures and promotions, or all moves in check. Used by quiescence search. */
+public final class ChessCaptureGenerator
+    implements MoveGenerator<ChessState, ChessMove> {
+  private static final ChessCaptureGenerator INSTANCE =
+      new ChessCaptureGenerator();
+
+  public static ChessCaptureGenerator getInstance() {
+    return INSTANCE;
+  }
+
+  private ChessCaptureGenerator() {}
+
+  @Override
+  public List<ChessMove> generate(ChessState state) {
+    return state.getCaptures();
+  }
+
+  @Override
+  public boolean isForced(ChessState state) {
+    return state.isCheck();
+  }
+}
@@ -10,8 +10,8 @@ import static gamer.chess.Pieces.*;
 
 public final class ChessMove implements Move {
   private static final int POSSIBLE_PROMOTIONS = 4;
-  private static final List<ChessMove> moves = generateSimpleMoves();
-  private static final List<ChessMove> promotions = generatePromotions();
+  private static final ChessMove[] moves = generateSimpleMoves();
+  private static final ChessMove[] promotions = generatePromotions();
 
   public final int from;
   public final int to;
@@ -28,7 +28,7 @@ public final class ChessMove implements Move {
   }
 
   static ChessMove of(int from, int to) {
-    return moves.get(from * 64 + to);
+    return moves[from * 64 + to];
   }
 
   static ChessMove of(String from, String to) {
@@ -37,11 +37,11 @@ public final class ChessMove implements Move {
 
   static ChessMove of(int from, int to, byte promote) {
     int color = i2row(to) == 8 ? 0 : 1;
-    return promotions.get((promote - 2) * 2 * 8 * 8 + color * 8 * 8 +
-                          (i2col(from) - 1) * 8 + i2col(to) - 1);
+    return promotions[(promote - 2) * 2 * 8 * 8 + color * 8 * 8 +
+                      (i2col(from) - 1) * 8 + i2col(to) - 1];
   }
 
-  private static List<ChessMove> generateSimpleMoves() {
+  private static ChessMove[] generateSimpleMoves() {
     List<ChessMove> moves = new ArrayList<>(64 * 64);
     for (int from = 0; from < 64; from++) {
       for (int to = 0; to < 64; to++) {
@@ -53,10 +53,10 @@ public final class ChessMove implements Move {
       }
     }
 
-    return moves;
+    return moves.toArray(new ChessMove[0]);
   }
 
-  private static List<ChessMove> generatePromotions() {
+  private static ChessMove[] generatePromotions() {
     List<ChessMove> promotions = new ArrayList<>(POSSIBLE_PROMOTIONS * 2 * 8 * 8);
     for (byte promote = 0; promote < POSSIBLE_PROMOTIONS; promote++) {
       for (int color = 0; color < 2; color++) {
@@ -74,7 +74,13 @@ public final class ChessMove implements Move {
           }
       }
     }
-    return promotions;
+    return promotions.toArray(new ChessMove[0]);
+  }
+
+  /** Moves are interned, so equals() is identity, but the hash is stable. */
+  @Override
+  public int hashCode() {
+    return (promote << 12) | (from << 6) | to;
   }
 
   @Override
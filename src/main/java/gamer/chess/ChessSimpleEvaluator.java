@@ -1,8 +1,10 @@
 package gamer.chess;
 
 import gamer.def.Evaluator;
+import gamer.def.MoveGainEvaluator;
 
-public class ChessSimpleEvaluator implements Evaluator<ChessState> {
+public class ChessSimpleEvaluator
+    implements Evaluator<ChessState>, MoveGainEvaluator<ChessState, ChessMove> {
   private static final double PIECE_SCORE[] = {
       0, 0.01, 0.05, 0.03, 0.03, 0.09, 0, 0,
       0, -0.01, -0.05, -0.03, -0.03, -0.09, 0, 0};
@@ -18,12 +20,41 @@ public class ChessSimpleEvaluator implements Evaluator<ChessState> {
     if (state.isTerminal()) {
       return state.getPayoff(0);
     }
+
+    return material(state) * Math.pow(0.99, state.getMovesSinceCapture());
+  }
+
+  /**
+   * Value of the captured piece plus the promotion. Captures and pawn moves
+   * also reset the discount for the moves without capture, which can add at
+   * most the discounted part of the current material.
+   */
+  @Override
+  public double maxGain(ChessState state, ChessMove move) {
+    byte victim = Pieces.piece(state.get(move.to));
+    if (move.to == state.getEnPassant() &&
+        Pieces.piece(state.get(move.from)) == Pieces.PAWN) {
+      victim = Pieces.PAWN;
+    }
+    double gain = PIECE_SCORE[victim];
+    if (move.promote != Pieces.EMPTY) {
+      gain += PIECE_SCORE[Pieces.piece(move.promote)] -
+              PIECE_SCORE[Pieces.PAWN];
+    }
+
+    int movesSinceCapture = state.getMovesSinceCapture();
+    if (movesSinceCapture > 0) {
+      gain += Math.abs(material(state)) *
+              (1 - Math.pow(0.99, movesSinceCapture));
+    }
+    return gain;
+  }
+
+  private static double material(ChessState state) {
     double score = 0;
     for (byte piece : state.getBoard().board) {
       score += PIECE_SCORE[piece];
     }
-
-    score *= Math.pow(0.99, state.getMovesSinceCapture());
     return score;
   }
 }
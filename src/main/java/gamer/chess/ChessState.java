@@ -1,13 +1,29 @@
 package gamer.chess;
 
 import gamer.def.GameException;
+import gamer.def.HashableState;
 import gamer.def.State;
 import gamer.def.TerminalPositionException;
+import gamer.util.Zobrist;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-
-import static gamer.chess.Board.i2col;
+import java.util.RandomAccess;
+
+import static gamer.chess.Bitboards.BETWEEN;
+import static gamer.chess.Bitboards.BLACK_PAWN_ATTACKS;
+import static gamer.chess.Bitboards.KING_ATTACKS;
+import static gamer.chess.Bitboards.KNIGHT_ATTACKS;
+import static gamer.chess.Bitboards.LINE;
+import static gamer.chess.Bitboards.ROW_1;
+import static gamer.chess.Bitboards.ROW_8;
+import static gamer.chess.Bitboards.WHITE_PAWN_ATTACKS;
+import static gamer.chess.Bitboards.bishopAttacks;
+import static gamer.chess.Bitboards.bit;
+import static gamer.chess.Bitboards.queenAttacks;
+import static gamer.chess.Bitboards.rookAttacks;
 import static gamer.chess.Board.i2row;
 import static gamer.chess.Pieces.BISHOP;
 import static gamer.chess.Pieces.BLACK;
@@ -22,7 +38,8 @@ import static gamer.chess.Pieces.black;
 import static gamer.chess.Pieces.white;
 
 @SuppressWarnings("PointlessBitwiseExpression")
-public final class ChessState implements State<ChessState, ChessMove> {
+public final class ChessState
+    implements State<ChessState, ChessMove>, HashableState {
   static byte WHITE_SHORT_CASTLING = 1;
   static byte WHITE_LONG_CASTLING = 2;
   static byte BLACK_SHORT_CASTLING = 4;
@@ -30,16 +47,36 @@ public final class ChessState implements State<ChessState, ChessMove> {
 
   static int MOVES_WITHOUT_CAPTURE = 100;
 
-  private static final int[] ROOK_DELTA_COL = {0, 1, 0, -1};
-  private static final int[] ROOK_DELTA_ROW = {1, 0, -1, 0};
-  private static final int[] KNIGHT_DELTA_COL = {1, 2, 2, 1, -1, -2, -2, -1};
-  private static final int[] KNIGHT_DELTA_ROW = {2, 1, -1, -2, -2, -1, 1, 2};
-  private static final int[] BISHOP_DELTA_COL = {1, 1, -1, -1};
-  private static final int[] BISHOP_DELTA_ROW = {1, -1, -1, 1};
-  private static final int[] QUEEN_DELTA_COL = {0, 1, 1, 1, 0, -1, -1, -1};
-  private static final int[] QUEEN_DELTA_ROW = {1, 1, 0, -1, -1, -1, 0, 1};
-  private static final int[] KING_DELTA_COL = {0, 1, 1, 1, 0, -1, -1, -1};
-  private static final int[] KING_DELTA_ROW = {1, 1, 0, -1, -1, -1, 0, 1};
+  /** Enough for any legal chess position. */
+  private static final int MAX_MOVES = 256;
+  private static final ThreadLocal<ChessMove[]> MOVES_BUFFER =
+      ThreadLocal.withInitial(() -> new ChessMove[MAX_MOVES]);
+
+  private static final long[] STATE_KEYS =
+      Zobrist.generateKeys(1 + 16 + 8, 0x434153544C45L);
+  private static final long BLACK_TO_MOVE_KEY = STATE_KEYS[0];
+  /** Indexed by the castlings bit mask. */
+  private static final int CASTLING_KEYS = 1;
+  /** Indexed by the column of the en passant square. */
+  private static final int EN_PASSANT_KEYS = CASTLING_KEYS + 16;
+
+  private static final int A1 = Board.a2i("a1");
+  private static final int B1 = Board.a2i("b1");
+  private static final int C1 = Board.a2i("c1");
+  private static final int D1 = Board.a2i("d1");
+  private static final int E1 = Board.a2i("e1");
+  private static final int F1 = Board.a2i("f1");
+  private static final int G1 = Board.a2i("g1");
+  private static final int H1 = Board.a2i("h1");
+  private static final int A8 = Board.a2i("a8");
+  private static final int B8 = Board.a2i("b8");
+  private static final int C8 = Board.a2i("c8");
+  private static final int D8 = Board.a2i("d8");
+  private static final int E8 = Board.a2i("e8");
+  private static final int F8 = Board.a2i("f8");
+  private static final int G8 = Board.a2i("g8");
+  private static final int H8 = Board.a2i("h8");
+
   private Board board;
   private boolean player = true;
   private byte castlings = (byte) (WHITE_LONG_CASTLING | WHITE_SHORT_CASTLING |
@@ -48,11 +85,27 @@ public final class ChessState implements State<ChessState, ChessMove> {
   private int enPassant = -1;
   private int movesSinceCapture = 0;
   private int movesCount = 0;
+  /**
+   * Generated moves. Outside of playWithUndo() the list is never modified, so
+   * clones can share it. After playWithUndo() the moves are generated into
+   * the buffer of the current depth, which is reused for the next position
+   * at the same depth.
+   */
   private List<ChessMove> moves = null;
-  private int undoSquare1, undoSquare2, undoSquare3, undoSquare4;
-  private byte undoPiece1, undoPiece2, undoPiece3, undoPiece4;
+  /** Number of the moves played with undo, that weren't reverted yet. */
+  private int undoDepth = 0;
+  /** Move lists of the positions before the moves played with undo. */
+  private List<ChessMove>[] savedMoves = null;
+  /** Reusable move lists by the undo depth. */
+  private MoveList[] plyMoves = null;
   private boolean check = false;
   private int kingSquare = -1;
+  /** Scratch space used only while generating moves. */
+  private ChessMove[] movesBuffer = null;
+  private int generatedCount = 0;
+  private boolean capturesOnly = false;
+  /** Stop the generation after the first piece with legal moves. */
+  private boolean firstMoveOnly = false;
 
   public ChessState() {
     this.board = new Board();
@@ -79,10 +132,10 @@ public final class ChessState implements State<ChessState, ChessMove> {
     if (movesSinceCapture > MOVES_WITHOUT_CAPTURE || drawByMaterial())
       return true;
 
-    if (moves == null)
-      generateMoves();
+    if (moves != null)
+      return moves.isEmpty();
 
-    return moves.size() == 0;
+    return !hasLegalMove();
   }
 
   @Override
@@ -91,7 +144,8 @@ public final class ChessState implements State<ChessState, ChessMove> {
       throw new TerminalPositionException();
     }
 
-    if (isCheck()) {
+    // isTerminal() may return before checking the moves.
+    if (!hasLegalMove() && isCheck()) {
       return (player == (p == 0)) ? -1 : 1;
     } else {
       return 0;
@@ -106,6 +160,38 @@ public final class ChessState implements State<ChessState, ChessMove> {
     return moves;
   }
 
+  /**
+   * Captures (including en passant) and promotions, or all the moves if the
+   * player is in check. Unless the full move list is already cached, quiet
+   * moves are not generated at all.
+   */
+  public List<ChessMove> getCaptures() {
+    if (moves != null) {
+      if (check)
+        return moves;
+      List<ChessMove> captures = new ArrayList<>();
+      for (ChessMove move : moves) {
+        if (isCapture(move))
+          captures.add(move);
+      }
+      return captures;
+    }
+
+    movesBuffer = MOVES_BUFFER.get();
+    generatedCount = 0;
+    capturesOnly = true;
+    generateMovesToBuffer();
+    capturesOnly = false;
+    List<ChessMove> captures =
+        Arrays.asList(Arrays.copyOf(movesBuffer, generatedCount));
+    movesBuffer = null;
+    if (check) {
+      // In check all the moves are generated.
+      moves = captures;
+    }
+    return captures;
+  }
+
   @Override
   public void play(ChessMove move) {
     if (moves == null)
@@ -115,6 +201,59 @@ public final class ChessState implements State<ChessState, ChessMove> {
       throw new GameException("Illegal move");
     }
 
+    applyMove(move);
+  }
+
+  @Override
+  public boolean supportsUndo() {
+    return true;
+  }
+
+  /**
+   * Unlike play(), doesn't generate the moves to check that the move is
+   * legal, unless assertions are enabled.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public long playWithUndo(ChessMove move) {
+    assert getMoves().contains(move);
+    if (savedMoves == null) {
+      savedMoves = (List<ChessMove>[]) new List<?>[64];
+      plyMoves = new MoveList[64];
+    } else if (undoDepth + 1 == savedMoves.length) {
+      savedMoves = Arrays.copyOf(savedMoves, 2 * savedMoves.length);
+      plyMoves = Arrays.copyOf(plyMoves, 2 * plyMoves.length);
+    }
+    savedMoves[undoDepth++] = moves;
+    return applyMove(move);
+  }
+
+  @Override
+  public void unplay(ChessMove move, long undo) {
+    player = !player;
+    movesCount--;
+    castlings = (byte) ((undo >> 4) & 0xF);
+    enPassant = (int) ((undo >> 8) & 0x7F) - 1;
+    check = ((undo >> 15) & 1) != 0;
+    movesSinceCapture = (int) (undo >>> 32);
+    moves = savedMoves[--undoDepth];
+    savedMoves[undoDepth] = null;
+
+    unapplyToBoard(move, (byte) (undo & 0xF));
+  }
+
+  /**
+   * Plays the move and returns the information needed to revert it:
+   * captured piece (bits 0-3), castlings (4-7), en passant square + 1 (8-14),
+   * check (15) and moves since capture (32-63). The check flag is only valid
+   * if the moves were generated, otherwise it's restored together with the
+   * empty move list.
+   */
+  private long applyMove(ChessMove move) {
+    long undo = board.get(move.to) | (castlings << 4) |
+                ((enPassant + 1) << 8) | (check ? 1 << 15 : 0) |
+                ((long) movesSinceCapture << 32);
+
     byte piece = board.getPiece(move.from);
 
     // We need board before the move, so this should be before applyToBoard().
@@ -141,6 +280,22 @@ public final class ChessState implements State<ChessState, ChessMove> {
     movesCount++;
 
     moves = null;
+    return undo;
+  }
+
+  @Override
+  public long getHash() {
+    long hash = board.getHash() ^ STATE_KEYS[CASTLING_KEYS + castlings];
+    if (!player)
+      hash ^= BLACK_TO_MOVE_KEY;
+    // En passant only matters if there is a pawn that can take it.
+    if (enPassant >= 0) {
+      long pawnAttacks = player ? BLACK_PAWN_ATTACKS[enPassant]
+                                : WHITE_PAWN_ATTACKS[enPassant];
+      if ((pawnAttacks & board.bitboard(Pieces.withColor(PAWN, player))) != 0)
+        hash ^= STATE_KEYS[EN_PASSANT_KEYS + enPassant / 8];
+    }
+    return hash;
   }
 
   @Override
@@ -158,9 +313,12 @@ public final class ChessState implements State<ChessState, ChessMove> {
     try {
       ChessState result = (ChessState) super.clone();
       result.board = board.clone();
-      if (moves != null) {
-        result.moves = new ArrayList<>(moves);
+      if (moves instanceof MoveList) {
+        result.moves = Arrays.asList(moves.toArray(new ChessMove[0]));
       }
+      result.undoDepth = 0;
+      result.savedMoves = null;
+      result.plyMoves = null;
       return result;
     } catch (CloneNotSupportedException e) {
       throw new AssertionError(e);
@@ -242,454 +400,367 @@ public final class ChessState implements State<ChessState, ChessMove> {
 
   private byte newCastlings() {
     byte castlings = this.castlings;
-    if (board.get("a1") != (WHITE | ROOK))
+    if (board.get(A1) != (WHITE | ROOK))
       castlings &= ~WHITE_LONG_CASTLING;
 
-    if (board.get("a8") != (BLACK | ROOK))
+    if (board.get(A8) != (BLACK | ROOK))
       castlings &= ~BLACK_LONG_CASTLING;
 
-    if (board.get("h1") != (WHITE | ROOK))
+    if (board.get(H1) != (WHITE | ROOK))
       castlings &= ~WHITE_SHORT_CASTLING;
 
-    if (board.get("h8") != (BLACK | ROOK))
+    if (board.get(H8) != (BLACK | ROOK))
       castlings &= ~BLACK_SHORT_CASTLING;
 
-    if (board.get("e1") != (WHITE | KING))
+    if (board.get(E1) != (WHITE | KING))
       castlings &= ~WHITE_LONG_CASTLING & ~WHITE_SHORT_CASTLING;
 
-    if (board.get("e8") != (BLACK | KING))
+    if (board.get(E8) != (BLACK | KING))
       castlings &= ~BLACK_LONG_CASTLING & ~BLACK_SHORT_CASTLING;
 
     return castlings;
   }
 
   private void applyToBoard(ChessMove move) {
-    undoSquare1 = move.from;
-    undoPiece1 = board.get(move.from);
-    undoSquare2 = move.to;
-    undoPiece2 = board.get(move.to);
-    undoSquare3 = -1;
-    undoSquare4 = -1;
-
     byte piece = board.getPiece(move.from);
     board.move(move.from, move.to);
 
     if (piece == PAWN) {
       if (move.to == enPassant) {
-        int takenSquare = player ? move.to - 1 : move.to + 1;
-        undoSquare3 = takenSquare;
-        undoPiece3 = board.get(undoSquare3);
-        board.set(takenSquare, EMPTY);
+        board.set(player ? move.to - 1 : move.to + 1, EMPTY);
       } else if (i2row(move.to) == 1 || i2row(move.to) == 8) {
         board.set(move.to, Pieces.withColor(move.promote, player));
       }
     }
 
     if (piece == KING && Math.abs(move.from - move.to) == 16) {
-      int rookFrom;
-      int rookTo;
       if (move.to > move.from) {
-        rookFrom = move.from + 24;
-        rookTo = move.from + 8;
+        board.move(move.from + 24, move.from + 8);
       } else {
-        rookFrom = move.from - 32;
-        rookTo = move.from - 8;
+        board.move(move.from - 32, move.from - 8);
       }
+    }
+  }
 
-      undoSquare3 = rookFrom;
-      undoPiece3 = board.get(rookFrom);
-      undoSquare4 = rookTo;
-      undoPiece4 = board.get(rookTo);
+  /** Reverts applyToBoard(). Expects player and en passant to be restored. */
+  private void unapplyToBoard(ChessMove move, byte captured) {
+    byte piece = move.promote != EMPTY ? PAWN : board.getPiece(move.to);
+    board.set(move.from, Pieces.withColor(piece, player));
+    board.set(move.to, captured);
 
-      board.move(rookFrom, rookTo);
+    if (piece == PAWN && move.to == enPassant) {
+      board.set(player ? move.to - 1 : move.to + 1,
+                Pieces.withColor(PAWN, !player));
     }
-  }
 
-  private void undoApplyToBoard() {
-    board.set(undoSquare1, undoPiece1);
-    board.set(undoSquare2, undoPiece2);
-    if (undoSquare3 >= 0) {
-      board.set(undoSquare3, undoPiece3);
-      if (undoSquare4 >= 0) {
-        board.set(undoSquare4, undoPiece4);
+    if (piece == KING && Math.abs(move.from - move.to) == 16) {
+      if (move.to > move.from) {
+        board.move(move.from + 8, move.from + 24);
+      } else {
+        board.move(move.from - 8, move.from - 32);
       }
     }
   }
 
   private void generateMoves() {
-    findKing();
-    check = isCheck();
-    moves = new ArrayList<>();
+    generatedCount = 0;
+    if (undoDepth > 0) {
+      MoveList list = plyMoves[undoDepth];
+      if (list == null) {
+        list = new MoveList();
+        plyMoves[undoDepth] = list;
+      }
+      movesBuffer = list.moves;
+      generateMovesToBuffer();
+      list.size = generatedCount;
+      moves = list;
+    } else {
+      movesBuffer = MOVES_BUFFER.get();
+      generateMovesToBuffer();
+      moves = Arrays.asList(Arrays.copyOf(movesBuffer, generatedCount));
+    }
+    movesBuffer = null;
+  }
+
+  /**
+   * Check whether the player has a legal move, without generating all of
+   * them unless they are already generated.
+   */
+  private boolean hasLegalMove() {
+    if (moves != null)
+      return !moves.isEmpty();
+    movesBuffer = MOVES_BUFFER.get();
+    generatedCount = 0;
+    firstMoveOnly = true;
+    generateMovesToBuffer();
+    firstMoveOnly = false;
+    movesBuffer = null;
+    return generatedCount > 0;
+  }
+
+  private void generateMovesToBuffer() {
+    long own = board.occupied(player);
+    long occupied = board.occupied();
+    kingSquare = Long.numberOfTrailingZeros(
+        board.bitboard(Pieces.withColor(KING, player)));
+    long checkers = attackers(kingSquare, occupied, !player, 0);
+    check = checkers != 0;
+
+    // Squares, where a non-king piece has to move to.
+    long targets = ~own;
+    long kingTargets = ~own;
+    if (check) {
+      if ((checkers & (checkers - 1)) != 0) {
+        // Double check, only king moves.
+        addKingMoves(kingTargets, occupied);
+        return;
+      }
+      targets &= checkers |
+                 BETWEEN[kingSquare][Long.numberOfTrailingZeros(checkers)];
+    } else if (capturesOnly) {
+      targets = board.occupied(!player);
+      kingTargets = targets;
+    }
+    // Pushes to the last row are promotions.
+    long pawnTargets =
+        capturesOnly && !check ? targets | ROW_1 | ROW_8 : targets;
+
+    long pinned = pinnedPieces(own, occupied);
 
-    for (int square = 0; square < 64; square++) {
-      if (board.isEmpty(square) || board.color(square) != player)
-        continue;
+    for (long pieces = own; pieces != 0; pieces &= pieces - 1) {
+      int from = Long.numberOfTrailingZeros(pieces);
+      long pinMask = (pinned & bit(from)) == 0 ? -1L
+                                               : LINE[kingSquare][from];
 
-      switch (board.getPiece(square)) {
+      switch (board.getPiece(from)) {
         case PAWN:
-          addPawnMoves(square);
+          addPawnMoves(from, occupied, pawnTargets & pinMask);
           break;
 
         case ROOK:
-          addLinearMoves(square, ROOK_DELTA_COL, ROOK_DELTA_ROW);
+          addMoves(from, rookAttacks(from, occupied) & targets & pinMask);
           break;
 
         case KNIGHT:
-          addSpotMoves(square, KNIGHT_DELTA_COL, KNIGHT_DELTA_ROW);
+          addMoves(from, KNIGHT_ATTACKS[from] & targets & pinMask);
           break;
 
         case BISHOP:
-          addLinearMoves(square, BISHOP_DELTA_COL, BISHOP_DELTA_ROW);
+          addMoves(from, bishopAttacks(from, occupied) & targets & pinMask);
           break;
 
         case QUEEN:
-          addLinearMoves(square, QUEEN_DELTA_COL, QUEEN_DELTA_ROW);
+          addMoves(from, queenAttacks(from, occupied) & targets & pinMask);
           break;
 
         case KING:
-          addSpotMoves(square, KING_DELTA_COL, KING_DELTA_ROW);
-          if (!check)
-            addCastlings();
+          addKingMoves(kingTargets, occupied);
           break;
 
         default:
           throw new RuntimeException("WTF is this piece?!");
       }
+      if (firstMoveOnly && generatedCount > 0)
+        return;
+    }
+  }
+
+  private void addMove(ChessMove move) {
+    movesBuffer[generatedCount++] = move;
+  }
+
+  private void addMoves(int from, long targets) {
+    ChessMove[] buffer = movesBuffer;
+    int count = generatedCount;
+    for (; targets != 0; targets &= targets - 1) {
+      buffer[count++] = ChessMove.of(from, Long.numberOfTrailingZeros(targets));
+    }
+    generatedCount = count;
+  }
+
+  private void addKingMoves(long kingTargets, long occupied) {
+    long occupiedWithoutKing = occupied & ~bit(kingSquare);
+    for (long targets = KING_ATTACKS[kingSquare] & kingTargets; targets != 0;
+         targets &= targets - 1) {
+      int to = Long.numberOfTrailingZeros(targets);
+      if (attackers(to, occupiedWithoutKing, !player, bit(to)) == 0)
+        addMove(ChessMove.of(kingSquare, to));
     }
+
+    if (!check && !capturesOnly)
+      addCastlings(occupied);
   }
 
-  private void addCastlings() {
+  private void addCastlings(long occupied) {
     if (player) {
       if ((castlings & WHITE_SHORT_CASTLING) != 0 &&
-          board.isEmpty("f1") && board.isEmpty("g1") &&
-          moves.contains(ChessMove.of("e1", "f1"))) {
-        assert board.get("e1") == white(KING);
-        assert board.isEmpty("f1");
-        assert board.isEmpty("g1");
-        assert board.get("h1") == white(ROOK);
-        addKingMoveIfValid(ChessMove.of("e1", "g1"));
+          board.get(E1) == white(KING) && board.get(H1) == white(ROOK) &&
+          (occupied & (bit(F1) | bit(G1))) == 0 &&
+          attackers(F1, occupied, false, 0) == 0 &&
+          attackers(G1, occupied, false, 0) == 0) {
+        addMove(ChessMove.of(E1, G1));
       }
       if ((castlings & WHITE_LONG_CASTLING) != 0 &&
-          board.isEmpty("b1") && board.isEmpty("c1") && board.isEmpty("d1") &&
-          moves.contains(ChessMove.of("e1", "d1"))) {
-        assert board.get("e1") == white(KING);
-        assert board.isEmpty("d1");
-        assert board.isEmpty("c1");
-        assert board.isEmpty("b1");
-        assert board.get("a1") == white(ROOK);
-        addKingMoveIfValid(ChessMove.of("e1", "c1"));
+          board.get(E1) == white(KING) && board.get(A1) == white(ROOK) &&
+          (occupied & (bit(B1) | bit(C1) | bit(D1))) == 0 &&
+          attackers(D1, occupied, false, 0) == 0 &&
+          attackers(C1, occupied, false, 0) == 0) {
+        addMove(ChessMove.of(E1, C1));
       }
     } else {
       if ((castlings & BLACK_SHORT_CASTLING) != 0 &&
-          board.isEmpty("f8") && board.isEmpty("g8") &&
-          moves.contains(ChessMove.of("e8", "f8"))) {
-        assert board.get("e8") == black(KING);
-        assert board.isEmpty("f8");
-        assert board.isEmpty("g8");
-        assert board.get("h8") == black(ROOK);
-        addKingMoveIfValid(ChessMove.of("e8", "g8"));
+          board.get(E8) == black(KING) && board.get(H8) == black(ROOK) &&
+          (occupied & (bit(F8) | bit(G8))) == 0 &&
+          attackers(F8, occupied, true, 0) == 0 &&
+          attackers(G8, occupied, true, 0) == 0) {
+        addMove(ChessMove.of(E8, G8));
       }
       if ((castlings & BLACK_LONG_CASTLING) != 0 &&
-          board.isEmpty("b8") && board.isEmpty("c8") && board.isEmpty("d8") &&
-          moves.contains(ChessMove.of("e8", "d8"))) {
-        assert board.get("e8") == black(KING);
-        assert board.isEmpty("d8");
-        assert board.isEmpty("c8");
-        assert board.isEmpty("b8");
-        assert board.get("a8") == (BLACK | ROOK);
-        addKingMoveIfValid(ChessMove.of("e8", "c8"));
+          board.get(E8) == black(KING) && board.get(A8) == black(ROOK) &&
+          (occupied & (bit(B8) | bit(C8) | bit(D8))) == 0 &&
+          attackers(D8, occupied, true, 0) == 0 &&
+          attackers(C8, occupied, true, 0) == 0) {
+        addMove(ChessMove.of(E8, C8));
       }
     }
   }
 
-  private void addPawnMoves(int square) {
-    int row = i2row(square);
-    int col = i2col(square);
-
-    if (player) {
-
-      if (row < 7) {
-        if (board.isEmpty(square + 1)) {
-          addIfValid(ChessMove.of(square, square + 1));
-          if (row == 2 && board.isEmpty(square + 2))
-            addIfValid(ChessMove.of(square, square + 2));
-        }
-        if (col != 1 && (board.isBlack(square - 7) || square - 7 == enPassant)) {
-          addIfValid(ChessMove.of(square, square - 7));
-        }
-        if (col != 8 && (board.isBlack(square + 9) || square + 9 == enPassant)) {
-          addIfValid(ChessMove.of(square, square + 9));
-        }
-      } else {
-        for (byte promote = ROOK; promote <= QUEEN; promote++) {
-          if (board.isEmpty(square + 1))
-            addIfValid(ChessMove.of(square, square + 1, promote));
-          if (col != 1 && board.isBlack(square - 7))
-            addIfValid(ChessMove.of(square, square - 7, promote));
-          if (col != 8 && board.isBlack(square + 9))
-            addIfValid(ChessMove.of(square, square + 9, promote));
-        }
-      }
-
-    } else {
-
-      if (row > 2) {
-        if (board.isEmpty(square - 1)) {
-          addIfValid(ChessMove.of(square, square - 1));
-          if (row == 7 && board.isEmpty(square - 2))
-            addIfValid(ChessMove.of(square, square - 2));
-        }
-        if (col != 1 && (board.isWhite(square - 9) || square - 9 == enPassant))
-          addIfValid(ChessMove.of(square, square - 9));
-        if (col != 8 && (board.isWhite(square + 7) || square + 7 == enPassant))
-          addIfValid(ChessMove.of(square, square + 7));
-      } else {
-        for (byte promote = ROOK; promote <= QUEEN; promote++) {
-          if (board.isEmpty(square - 1))
-            addIfValid(ChessMove.of(square, square - 1, promote));
-          if (col != 1 && board.isWhite(square - 9))
-            addIfValid(ChessMove.of(square, square - 9, promote));
-          if (col != 8 && board.isWhite(square + 7))
-            addIfValid(ChessMove.of(square, square + 7, promote));
-        }
-      }
+  private void addPawnMoves(int from, long occupied, long targets) {
+    int forward = player ? 1 : -1;
+    long opponent = board.occupied(!player);
+    long pushes = 0;
 
+    int to = from + forward;
+    if ((occupied & bit(to)) == 0) {
+      pushes |= bit(to);
+      int startRow = player ? 2 : 7;
+      if (i2row(from) == startRow && (occupied & bit(to + forward)) == 0)
+        pushes |= bit(to + forward);
     }
-  }
-
-  private void addLinearMoves(int square, int[] colDelta, int[] rowDelta) {
-    for (int idelta = 0; idelta < colDelta.length; idelta++) {
-      int dc = colDelta[idelta];
-      int dr = rowDelta[idelta];
-
-      int col = i2col(square);
-      int row = i2row(square);
 
-      while (true) {
-        col += dc;
-        row += dr;
+    long attacks = player ? WHITE_PAWN_ATTACKS[from] : BLACK_PAWN_ATTACKS[from];
+    long captures = attacks & opponent;
+    long moveTargets = (pushes | captures) & targets;
 
-        if (col > 8 || col < 1 || row > 8 || row < 1)
-          break;
-
-        int currentSquare = Board.cr2i(col, row);
-        byte piece = board.get(currentSquare);
-
-        if (piece == EMPTY) {
-          addIfValid(ChessMove.of(square, currentSquare));
-        } else if (Pieces.color(piece) != player) {
-          addIfValid(ChessMove.of(square, currentSquare));
-          break;
-        } else {
-          break;
-        }
+    if ((moveTargets & (ROW_1 | ROW_8)) != 0) {
+      for (; moveTargets != 0; moveTargets &= moveTargets - 1) {
+        to = Long.numberOfTrailingZeros(moveTargets);
+        for (byte promote = ROOK; promote <= QUEEN; promote++)
+          addMove(ChessMove.of(from, to, promote));
       }
+    } else {
+      addMoves(from, moveTargets);
     }
-  }
-
-  private void addSpotMoves(int square, int[] colDelta, int[] rowDelta) {
-    boolean isKing = (board.getPiece(square) == KING);
 
-    for (int idelta = 0; idelta < colDelta.length; idelta++) {
-      int col = i2col(square) + colDelta[idelta];
-      int row = i2row(square) + rowDelta[idelta];
-
-      if (col >= 1 && col <= 8 && row >= 1 && row <= 8 &&
-          (board.isEmpty(col, row) || board.color(col, row) != player)) {
-        ChessMove move = ChessMove.of(square, Board.cr2i(col, row));
-        if (isKing) {
-          addKingMoveIfValid(move);
-        } else {
-          addIfValid(move);
-        }
-      }
+    if (enPassant >= 0 && (attacks & bit(enPassant)) != 0) {
+      int taken = enPassant - forward;
+      // The pawn is taken from a different square than the one the capturing
+      // pawn moves to, so it's easier to check the result directly.
+      long after = (occupied & ~bit(from) & ~bit(taken)) | bit(enPassant);
+      if (attackers(kingSquare, after, !player, bit(taken)) == 0)
+        addMove(ChessMove.of(from, enPassant));
     }
   }
 
-  private void findKing() {
-    byte king = Pieces.withColor(KING, player);
-
-    if (kingSquare < 0 || board.get(kingSquare) != king) {
-      for (kingSquare = 0; kingSquare < 64; kingSquare++) {
-        if (board.get(kingSquare) == king)
-          break;
-      }
+  /**
+   * Pieces of the player that can't leave the line between their king and an
+   * opponent's sliding piece.
+   */
+  private long pinnedPieces(long own, long occupied) {
+    long rooks = board.bitboard(Pieces.withColor(ROOK, !player)) |
+                 board.bitboard(Pieces.withColor(QUEEN, !player));
+    long bishops = board.bitboard(Pieces.withColor(BISHOP, !player)) |
+                   board.bitboard(Pieces.withColor(QUEEN, !player));
+    long snipers = (rookAttacks(kingSquare, 0) & rooks) |
+                   (bishopAttacks(kingSquare, 0) & bishops);
+
+    long pinned = 0;
+    for (; snipers != 0; snipers &= snipers - 1) {
+      int sniper = Long.numberOfTrailingZeros(snipers);
+      long between = BETWEEN[kingSquare][sniper] & occupied;
+      if (between != 0 && (between & (between - 1)) == 0)
+        pinned |= between & own;
     }
-  }
-
-  private void addKingMoveIfValid(ChessMove move) {
-    assert board.getPiece(move.from) == KING;
-    applyToBoard(move);
-
-    if (!isCheck(move.to))
-      moves.add(move);
 
-    undoApplyToBoard();
+    return pinned;
   }
 
-  private void addIfValid(ChessMove move) {
-    assert board.getPiece(move.from) != KING;
-
-    if (check || move.to == enPassant) {
-      applyToBoard(move);
-      if (!isCheck(kingSquare))
-        moves.add(move);
-      undoApplyToBoard();
-      return;
-    }
+  /**
+   * Pieces of the given color, attacking the square.
+   *
+   * @param occupied occupancy used for the sliding pieces.
+   * @param excluded pieces that should not be considered (i.e. captured).
+   */
+  private long attackers(
+      int square, long occupied, boolean byWhite, long excluded) {
+    byte color = byWhite ? WHITE : BLACK;
+    long pawns = board.bitboard((byte) (color | PAWN));
+    long rooks = board.bitboard((byte) (color | ROOK)) |
+                 board.bitboard((byte) (color | QUEEN));
+    long bishops = board.bitboard((byte) (color | BISHOP)) |
+                   board.bitboard((byte) (color | QUEEN));
 
-    int kingCol = i2col(kingSquare);
-    int kingRow = i2row(kingSquare);
-    int fromCol = i2col(move.from);
-    int fromRow = i2row(move.from);
-    boolean valid = true;
+    long attackers =
+        ((byWhite ? BLACK_PAWN_ATTACKS[square] : WHITE_PAWN_ATTACKS[square]) &
+         pawns) |
+        (KNIGHT_ATTACKS[square] & board.bitboard((byte) (color | KNIGHT))) |
+        (KING_ATTACKS[square] & board.bitboard((byte) (color | KING))) |
+        (rookAttacks(square, occupied) & rooks) |
+        (bishopAttacks(square, occupied) & bishops);
 
-    if (kingRow == fromRow && kingRow != i2row(move.to)) {
-      if (fromCol > kingCol) {
-        valid = !checkByLinearPiece(move, kingCol, kingRow, ROOK, 1, 0);
-      } else {
-        valid = !checkByLinearPiece(move, kingCol, kingRow, ROOK, -1, 0);
-      }
-    } else if (kingCol == fromCol && kingCol != i2col(move.to)) {
-      if (fromRow > kingRow) {
-        valid = !checkByLinearPiece(move, kingCol, kingRow, ROOK, 0, 1);
-      } else {
-        valid = !checkByLinearPiece(move, kingCol, kingRow, ROOK, 0, -1);
-      }
-    } else if (fromCol - kingCol == fromRow - kingRow) {
-      if (fromCol > kingCol) {
-        valid = !checkByLinearPiece(move, kingCol, kingRow, BISHOP, 1, 1);
-      } else {
-        valid = !checkByLinearPiece(move, kingCol, kingRow, BISHOP, -1, -1);
-      }
-    } else if (fromCol - kingCol == kingRow - fromRow) {
-      if (fromCol > kingCol) {
-        valid = !checkByLinearPiece(move, kingCol, kingRow, BISHOP, 1, -1);
-      } else {
-        valid = !checkByLinearPiece(move, kingCol, kingRow, BISHOP, -1, 1);
-      }
-    }
-
-    if (valid)
-      moves.add(move);
+    return attackers & ~excluded;
   }
 
-  private boolean checkByLinearPiece(
-      ChessMove move, int col, int row, byte attackingPiece, int cd, int rd) {
-    applyToBoard(move);
-
-    attackingPiece = Pieces.withColor(attackingPiece, !player);
-    byte queen = Pieces.withColor(QUEEN, !player);
-    while (true) {
-      col += cd;
-      row += rd;
-      if (col > 8 || col < 1 || row > 8 || row < 1)
-        break;
-
-      byte piece = board.get(col, row);
-
-      if (piece == attackingPiece || piece == queen) {
-        undoApplyToBoard();
-        return true;
-      }
-
-      if (piece != EMPTY)
-        break;
-    }
-
-    undoApplyToBoard();
-    return false;
+  private boolean isCapture(ChessMove move) {
+    return board.get(move.to) != EMPTY || move.promote != EMPTY ||
+           (move.to == enPassant && board.getPiece(move.from) == PAWN);
   }
 
-  // true if check to (not by) player
-  private boolean isCheck() {
-    return isCheck(kingSquare);
+  /**
+   * Check whether the king of the player, who has just moved, is attacked.
+   * Such positions are illegal.
+   */
+  public boolean isOpponentInCheck() {
+    int opponentKing = Long.numberOfTrailingZeros(
+        board.bitboard(Pieces.withColor(KING, !player)));
+    return attackers(opponentKing, board.occupied(), player, 0) != 0;
   }
 
-  private boolean isCheck(int square) {
-    int col = i2col(square);
-    int row = i2row(square);
-
-    if (player && row < 7 &&
-        (col > 1 && board.get(square - 7) == (BLACK | PAWN) ||
-         col < 8 && board.get(square + 9) == (BLACK | PAWN))) {
-      return true;
-    }
-
-    if (!player && row > 2 &&
-        (col > 1 && board.get(square - 9) == (WHITE | PAWN) ||
-         col < 8 && board.get(square + 7) == (WHITE | PAWN))) {
-      return true;
-    }
-
-    return checkBySpotPiece(square, KNIGHT, KNIGHT_DELTA_COL, KNIGHT_DELTA_ROW) ||
-           checkBySpotPiece(square, KING, KING_DELTA_COL, KING_DELTA_ROW) ||
-           checkByLinearPieces(
-              square, ROOK, QUEEN, ROOK_DELTA_COL, ROOK_DELTA_ROW) ||
-           checkByLinearPieces(
-              square, BISHOP, QUEEN, BISHOP_DELTA_COL, BISHOP_DELTA_ROW);
+  /** Whether the king of the player to move is attacked. */
+  public boolean isCheck() {
+    int king = Long.numberOfTrailingZeros(
+        board.bitboard(Pieces.withColor(KING, player)));
+    return attackers(king, board.occupied(), !player, 0) != 0;
   }
 
-  private boolean checkBySpotPiece(
-      int square, byte piece, int[] colDelta, int[] rowDelta) {
-    piece = Pieces.withColor(piece, !player);
-    int kingCol = i2col(square);
-    int kingRow = i2row(square);
-
-    for (int i = 0; i < colDelta.length; i++) {
-      int col = kingCol + colDelta[i];
-      int row = kingRow + rowDelta[i];
+  private boolean drawByMaterial() {
+    long pieces = board.occupied() &
+                  ~board.bitboard(white(KING)) & ~board.bitboard(black(KING));
 
-      if (col >= 1 && col <= 8 && row >= 1 && row <= 8 &&
-          board.get(col, row) == piece) {
-        return true;
-      }
-    }
+    if (pieces == 0 || (pieces & (pieces - 1)) != 0 ||
+        (pieces & board.occupied(player)) == 0)
+      return false;
 
-    return false;
+    byte leftPiece = board.getPiece(Long.numberOfTrailingZeros(pieces));
+    return leftPiece == KNIGHT || leftPiece == BISHOP;
   }
 
-  private boolean checkByLinearPieces(
-      int square, byte piece1, byte piece2, int[] colDelta, int[] rowDelta) {
-    piece1 = Pieces.withColor(piece1, !player);
-    piece2 = Pieces.withColor(piece2, !player);
-    int kingCol = i2col(square);
-    int kingRow = i2row(square);
-
-    for (int i = 0; i < colDelta.length; i++) {
-      int col = kingCol;
-      int row = kingRow;
-      while (true) {
-        col += colDelta[i];
-        row += rowDelta[i];
-        if (col > 8 || col < 1 || row > 8 || row < 1)
-          break;
-
-        byte piece = board.get(col, row);
-
-        if (piece == piece1 || piece == piece2)
-          return true;
+  /** Move list backed by a reusable buffer. */
+  private static final class MoveList extends AbstractList<ChessMove>
+      implements RandomAccess {
+    final ChessMove[] moves = new ChessMove[MAX_MOVES];
+    int size = 0;
 
-        if (piece != EMPTY)
-          break;
-      }
+    @Override
+    public ChessMove get(int index) {
+      if (index >= size)
+        throw new IndexOutOfBoundsException(Integer.toString(index));
+      return moves[index];
     }
 
-    return false;
-  }
-
-  private boolean drawByMaterial() {
-    byte leftPiece = EMPTY;
-
-    for (int square = 0; square < 64; square++) {
-      byte piece = board.getPiece(square);
-      if (piece == EMPTY || piece == KING)
-        continue;
-      if (board.color(square) != player || leftPiece != EMPTY)
-        return false;
-      leftPiece = piece;
+    @Override
+    public int size() {
+      return size;
     }
-
-    return leftPiece == KNIGHT || leftPiece == BISHOP;
   }
 }
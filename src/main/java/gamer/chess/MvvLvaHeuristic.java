@@ -0,0 +1,38 @@
+package gamer.chess;
+
+import gamer.def.MoveHeuristic;
+
+/**
+ * Most valuable victim, least valuable attacker. Captures are ordered by the
+ * value of the captured piece, and then by the value of the capturing one.
+ * Promotions count as capturing the promoted piece.
+ */
+public final class MvvLvaHeuristic
+    implements MoveHeuristic<ChessState, ChessMove> {
+  /** Indexed by piece without color. */
+  private static final int[] VALUE = {0, 1, 5, 3, 3, 9, 20};
+
+  private static final MvvLvaHeuristic INSTANCE = new MvvLvaHeuristic();
+
+  public static MvvLvaHeuristic getInstance() {
+    return INSTANCE;
+  }
+
+  private MvvLvaHeuristic() {}
+
+  @Override
+  public int score(ChessState state, ChessMove move) {
+    byte attacker = Pieces.piece(state.get(move.from));
+    byte victim = Pieces.piece(state.get(move.to));
+    if (attacker == Pieces.PAWN && move.to == state.getEnPassant()) {
+      victim = Pieces.PAWN;
+    }
+
+    int gain = VALUE[victim] + VALUE[Pieces.piece(move.promote)];
+    if (gain == 0) {
+      return 0;
+    }
+
+    return 32 * gain - VALUE[attacker];
+  }
+}
@@ -3,18 +3,18 @@ package gamer.chess;
 public final class Pieces {
   static final byte PIECE_MASK = 7;
 
-  static final byte EMPTY = 0;
-  static final byte PAWN = 1;
-  static final byte ROOK = 2;
-  static final byte KNIGHT = 3;
-  static final byte BISHOP = 4;
-  static final byte QUEEN = 5;
-  static final byte KING = 6;
-
-  static final byte WHITE = 0;
-  static final byte BLACK = 8;
-
-  static final byte MAX = 14;
+  public static final byte EMPTY = 0;
+  public static final byte PAWN = 1;
+  public static final byte ROOK = 2;
+  public static final byte KNIGHT = 3;
+  public static final byte BISHOP = 4;
+  public static final byte QUEEN = 5;
+  public static final byte KING = 6;
+
+  public static final byte WHITE = 0;
+  public static final byte BLACK = 8;
+
+  public static final byte MAX = 14;
   static final char PIECE_LETTER[] = {
     '?', 'p', 'R', 'N', 'B', 'Q', 'K'
   };
@@ -47,7 +47,7 @@ public final class Pieces {
     }
   }
 
-  static boolean color(byte p) {
+  public static boolean color(byte p) {
     return (p & BLACK) == 0;
   }
 
@@ -55,7 +55,7 @@ public final class Pieces {
     return p == EMPTY;
   }
 
-  static boolean isWhite(byte p) {
+  public static boolean isWhite(byte p) {
     return p != EMPTY && ((p & BLACK) == 0);
   }
 
@@ -63,7 +63,7 @@ public final class Pieces {
     return (p & BLACK) != 0;
   }
 
-  static byte piece(byte p) {
+  public static byte piece(byte p) {
     return (byte) (p & PIECE_MASK);
   }
 
@@ -75,7 +75,7 @@ public final class Pieces {
     return (byte) (p | BLACK);
   }
 
-  static byte withColor(byte p, boolean player) {
+  public static byte withColor(byte p, boolean player) {
     return (byte) (player ? p & PIECE_MASK : p | BLACK);
   }
 }
@@ -2,11 +2,128 @@ package gamer.chess.endings;
 
 import gamer.chess.ChessMove;
 import gamer.chess.ChessState;
+import gamer.chess.Pieces;
+import gamer.chess.endings.EndingTable.EndingStatus;
+import gamer.chess.endings.EndingTable.EndingValue;
 import gamer.def.Solver;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Solves the chess endings, for which the tables are available. The result
+ * has the payoff for the first player and the number of plies to the mate.
+ */
 public class ChessEndingSolver implements Solver<ChessState, ChessMove> {
+  private final EndingTableManager tables;
+
+  ChessEndingSolver(EndingTableManager tables) {
+    this.tables = tables;
+  }
+
+  /**
+   * Use the tables from the directory, written by GenerateEndingTables. The
+   * tables are mapped into memory, when they are first needed.
+   */
+  public static ChessEndingSolver load(Path directory) {
+    return new ChessEndingSolver(new EndingTableManager(directory));
+  }
+
+  /**
+   * Generate the tables for the materials, e.g. "KRvK", and all the smaller
+   * ones they depend on.
+   */
+  public static ChessEndingSolver generate(String... signatures) {
+    List<Material> materials = new ArrayList<>();
+    for (String signature : signatures) {
+      materials.add(Material.parse(signature));
+    }
+    EndingTableManager tables = new EndingTableManager();
+    for (EndingTable table : GenerateEndingTables.generate(materials)
+                                                 .values()) {
+      tables.addTable(table);
+    }
+    return new ChessEndingSolver(tables);
+  }
+
   @Override
   public Solver.Result<ChessMove> solve(ChessState position) {
-    return null;
+    // The tables don't have castlings.
+    if (position.getCastlings() != 0 || position.isTerminal())
+      return null;
+    // Without a table for the position, the moves that keep the material
+    // can't be resolved.
+    Material material = Material.of(position);
+    if (material.size() > 2 && tables.getTable(material) == null)
+      return null;
+
+    ChessState state = position.clone();
+    EndingValue best = null;
+    ChessMove bestMove = null;
+    for (ChessMove move : state.getMoves()) {
+      long undo = state.playWithUndo(move);
+      EndingValue value = getValue(state);
+      state.unplay(move, undo);
+      if (value == null)
+        return null;
+      value = value.forOpponent();
+      if (best == null || value.betterThan(best)) {
+        best = value;
+        bestMove = move;
+      }
+    }
+
+    int payoff = best.status == EndingStatus.WIN ? 1 :
+                 best.status == EndingStatus.LOSS ? -1 : 0;
+    if (!state.getPlayerBool()) {
+      payoff = -payoff;
+    }
+    return new Solver.Result<>(payoff, Math.max(best.plies(), 0), bestMove);
+  }
+
+  /** @return null if the table is not available. */
+  EndingValue getValue(ChessState state) {
+    if (state.isTerminal()) {
+      return state.getPayoff(0) != 0 ? EndingValue.of(EndingStatus.LOSS, 0)
+                                     : EndingValue.of(EndingStatus.DRAW);
+    }
+    Material material = Material.of(state);
+    if (material.size() == 2)
+      return EndingValue.of(EndingStatus.DRAW);
+    if (hasEnPassant(state))
+      return searchEnPassant(state);
+    return tables.probe(state, material);
+  }
+
+  private static boolean hasEnPassant(ChessState state) {
+    if (state.getEnPassant() < 0)
+      return false;
+    for (ChessMove move : state.getMoves()) {
+      if (move.to == state.getEnPassant() &&
+          Pieces.piece(state.get(move.from)) == Pieces.PAWN)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * The positions with en passant aren't in the tables, so their values are
+   * found from the values of the moves.
+   */
+  private EndingValue searchEnPassant(ChessState state) {
+    EndingValue best = null;
+    for (ChessMove move : state.getMoves()) {
+      long undo = state.playWithUndo(move);
+      EndingValue value = getValue(state);
+      state.unplay(move, undo);
+      if (value == null)
+        return null;
+      value = value.forOpponent();
+      if (best == null || value.betterThan(best)) {
+        best = value;
+      }
+    }
+    return best;
   }
 }
@@ -0,0 +1,242 @@
+package gamer.chess.endings;
+
+import gamer.chess.Bitboards;
+import gamer.chess.ChessState;
+import gamer.chess.Pieces;
+
+import java.util.Arrays;
+
+/**
+ * Maps the positions with the given material to the table indexes and back.
+ *
+ * The index consists of the pair of the kings, the squares of the other
+ * pieces in the order of the material and the player to move:
+ *
+ *   ((kings * R + square1) * R + square2 ...) * 2 + (white to move ? 0 : 1)
+ *
+ * where R is 64, or 48 for the pawns, which can't stand on the first and the
+ * last rows. Without pawns the board has 8 symmetries, and the white king is
+ * kept in the a1-d1-d4 triangle, which gives 462 legal pairs of kings. With
+ * pawns only the left-right reflection is used, the white king is kept on
+ * the files a-d, which gives 1806 pairs.
+ *
+ * Of all the symmetric positions only the one with the lowest index is
+ * canonical. The indexes of other positions, as well as of the illegal ones,
+ * are unused.
+ */
+final class EndingIndex {
+  /**
+   * Version of the index scheme, which is stored in the table files. It has
+   * to be changed with any change of the mapping.
+   */
+  static final int SCHEME = 1;
+
+  /**
+   * Square mappings of the symmetries of the board. The first two keep the
+   * rows in place and are used for the positions with pawns.
+   */
+  private static final int[][] TRANSFORMS = generateTransforms();
+  private static final KingPairs PAWNLESS_KINGS = new KingPairs(false);
+  private static final KingPairs PAWN_KINGS = new KingPairs(true);
+
+  private final Material material;
+  private final KingPairs kings;
+  /** Number of the squares for each piece besides the kings. */
+  private final int[] ranges;
+  /** For the pieces, equal to the previous one, the squares are sorted. */
+  private final boolean[] sameAsPrevious;
+  /** First slot for each piece with color in the order of the material. */
+  private final int[] firstSlot = new int[Pieces.MAX + 1];
+  private final long length;
+
+  EndingIndex(Material material) {
+    this.material = material;
+    boolean pawns = material.hasPawns();
+    kings = pawns ? PAWN_KINGS : PAWNLESS_KINGS;
+    int count = material.count();
+    ranges = new int[count];
+    sameAsPrevious = new boolean[count];
+    long size = 2L * kings.size();
+    for (int i = count - 1; i >= 0; i--) {
+      byte piece = material.piece(i);
+      ranges[i] = Pieces.piece(piece) == Pieces.PAWN ? 48 : 64;
+      sameAsPrevious[i] = i > 0 && material.piece(i - 1) == piece;
+      firstSlot[piece] = i;
+      size *= ranges[i];
+    }
+    length = size;
+  }
+
+  Material getMaterial() {
+    return material;
+  }
+
+  /** Size of the index space. */
+  long length() {
+    return length;
+  }
+
+  static boolean whiteToMove(long index) {
+    return (index & 1) == 0;
+  }
+
+  /**
+   * @param squares White king, black king and the other pieces in the order
+   *     of the material.
+   */
+  long encode(int[] squares, boolean whiteToMove) {
+    long best = Long.MAX_VALUE;
+    int[] transformed = new int[squares.length];
+    for (int t = 0; t < kings.transforms; t++) {
+      int[] transform = TRANSFORMS[t];
+      int pair = kings.index[transform[squares[0]] * 64 +
+                             transform[squares[1]]];
+      if (pair < 0)
+        continue;
+
+      for (int i = 2; i < squares.length; i++) {
+        int square = transform[squares[i]];
+        // Insertion sort of the squares of the same pieces.
+        int j = i;
+        for (; sameAsPrevious[j - 2] && transformed[j - 1] > square; j--) {
+          transformed[j] = transformed[j - 1];
+        }
+        transformed[j] = square;
+      }
+
+      long index = pair;
+      for (int i = 0; i < ranges.length; i++) {
+        int square = transformed[i + 2];
+        index = index * ranges[i] +
+                (ranges[i] == 48 ? pawnSquare(square) : square);
+      }
+      best = Math.min(best, index);
+    }
+    assert best != Long.MAX_VALUE;
+    return 2 * best + (whiteToMove ? 0 : 1);
+  }
+
+  /**
+   * Encode a position with this material, or with the flipped material.
+   * The castlings and the en passant square are ignored.
+   */
+  long encode(ChessState state, boolean flip) {
+    int[] squares = new int[2 + ranges.length];
+    int[] used = new int[Pieces.MAX + 1];
+    for (int square = 0; square < 64; square++) {
+      byte piece = state.get(square);
+      if (Pieces.isEmpty(piece))
+        continue;
+      int sq = square;
+      if (flip) {
+        sq = square ^ 7;
+        piece = Pieces.withColor(Pieces.piece(piece), !Pieces.isWhite(piece));
+      }
+      if (Pieces.piece(piece) == Pieces.KING) {
+        squares[Pieces.isWhite(piece) ? 0 : 1] = sq;
+      } else {
+        squares[2 + firstSlot[piece] + used[piece]++] = sq;
+      }
+    }
+    return encode(squares, state.getPlayerBool() != flip);
+  }
+
+  /** Squares of the white king, the black king and the other pieces. */
+  void decode(long index, int[] squares) {
+    long rest = index >>> 1;
+    for (int i = ranges.length - 1; i >= 0; i--) {
+      int square = (int) (rest % ranges[i]);
+      rest /= ranges[i];
+      squares[i + 2] = ranges[i] == 48 ? 8 * (square / 6) + square % 6 + 1
+                                       : square;
+    }
+    squares[0] = kings.whiteKing[(int) rest];
+    squares[1] = kings.blackKing[(int) rest];
+  }
+
+  /**
+   * Set up the position without castlings and en passant.
+   *
+   * @return null if two pieces are on the same square.
+   */
+  ChessState toState(int[] squares, boolean whiteToMove) {
+    ChessState state = new ChessState();
+    state.setCastlings((byte) 0);
+    state.setPlayer(whiteToMove);
+    long occupied = 0;
+    for (int i = 0; i < squares.length; i++) {
+      long bit = Bitboards.bit(squares[i]);
+      if ((occupied & bit) != 0)
+        return null;
+      occupied |= bit;
+      byte piece = i < 2 ? Pieces.withColor(Pieces.KING, i == 0)
+                         : material.piece(i - 2);
+      state.set(squares[i], piece);
+    }
+    return state;
+  }
+
+  private static int pawnSquare(int square) {
+    assert square % 8 != 0 && square % 8 != 7;
+    return 6 * (square / 8) + square % 8 - 1;
+  }
+
+  private static int[][] generateTransforms() {
+    int[][] transforms = new int[8][64];
+    for (int t = 0; t < 8; t++) {
+      for (int square = 0; square < 64; square++) {
+        int col = square / 8;
+        int row = square % 8;
+        if ((t & 1) != 0)
+          col = 7 - col;
+        if ((t & 2) != 0)
+          row = 7 - row;
+        if ((t & 4) != 0) {
+          int tmp = col;
+          col = row;
+          row = tmp;
+        }
+        transforms[t][square] = 8 * col + row;
+      }
+    }
+    return transforms;
+  }
+
+  /** Legal pairs of the kings, with the white king in its canonical area. */
+  private static final class KingPairs {
+    final int transforms;
+    /** Pair index by 64 * white king + black king, -1 if not canonical. */
+    final int[] index = new int[64 * 64];
+    final int[] whiteKing;
+    final int[] blackKing;
+
+    KingPairs(boolean pawns) {
+      transforms = pawns ? 2 : 8;
+      int[] white = new int[64 * 64];
+      int[] black = new int[64 * 64];
+      int count = 0;
+      for (int wk = 0; wk < 64; wk++) {
+        int col = wk / 8;
+        int row = wk % 8;
+        for (int bk = 0; bk < 64; bk++) {
+          index[wk * 64 + bk] = -1;
+          if (col > 3 || (!pawns && row > col) || bk == wk ||
+              (Bitboards.KING_ATTACKS[wk] & Bitboards.bit(bk)) != 0)
+            continue;
+          // With the white king on the diagonal, the black king is below it.
+          if (!pawns && row == col && bk % 8 > bk / 8)
+            continue;
+          white[count] = wk;
+          black[count] = bk;
+          index[wk * 64 + bk] = count++;
+        }
+      }
+      whiteKing = Arrays.copyOf(white, count);
+      blackKing = Arrays.copyOf(black, count);
+    }
+
+    int size() {
+      return whiteKing.length;
+    }
+  }
+}
@@ -1,190 +1,633 @@
 package gamer.chess.endings;
 
+import gamer.chess.Bitboards;
 import gamer.chess.ChessMove;
 import gamer.chess.ChessState;
 import gamer.chess.Pieces;
-
+import gamer.util.SearchPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Distances to mate for all the positions with the given material, without
+ * castlings. The positions are looked up by EndingIndex.
+ *
+ * The table is generated by retrograde analysis. First all the positions
+ * are evaluated by their moves, which finds the mates, the stalemates and the
+ * captures and promotions into the smaller tables. Then pass N takes the
+ * positions, that were resolved in N - 1 plies, and evaluates the positions
+ * from which they can be reached, found by unmoving the pieces. A position is
+ * a win, if it has a move to a lost position, and a loss, if all its moves
+ * lead to won positions. Whatever is left unresolved is a draw.
+ *
+ * Each pass is split into ranges of indexes, that are processed by several
+ * workers in parallel. The workers share the table without locking: on pass
+ * N a position is only considered known if it was resolved before the pass,
+ * so the workers, that evaluate the same position, compute the same value.
+ * The positions, that are resolved on pass N, are counted on pass N + 1.
+ *
+ * The table file consists of a header of HEADER_SIZE bytes and the values
+ * by the index. The header contains the magic "GTBL", the version of the
+ * index scheme, the number of the values and the material signature. The
+ * values are stored in segments of up to 2^30 bytes, so that the large
+ * tables can be mapped from the files and paged in when they are probed.
+ */
 class EndingTable {
-  private int n;
-  private EndingTable previous;
-  private EndingTable dual;
-  private byte[] table;
-
-  EndingTable(int npieces, EndingTable previous) {
-    n = npieces;
-    this.previous = previous;
+  private static final byte UNKNOWN = EndingValue.of(EndingStatus.UNKNOWN)
+                                                 .asByte();
+  private static final byte ILLEGAL = EndingValue.of(EndingStatus.ILLEGAL)
+                                                 .asByte();
+  private static final byte DRAW = EndingValue.of(EndingStatus.DRAW).asByte();
+  /** Number of indexes, that a worker takes at once. */
+  private static final int CHUNK = 1 << 12;
+  private static final int SEGMENT_BITS = 30;
+  private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+  private static final int HEADER_SIZE = 64;
+  private static final int MAGIC = 0x4754424c;  // "GTBL"
+
+  private final Material material;
+  private final EndingIndex index;
+  /** Values by the index, split into segments of 2^SEGMENT_BITS. */
+  private ByteBuffer[] segments;
+  private int workers = 1;
+  private SearchPool searchPool = null;
+
+  // Generation state.
+  private Function<Material, EndingTable> subTables;
+  /**
+   * Positions, that have to be evaluated again on the pass, because an en
+   * passant capture will decide them. See evaluateEnPassant().
+   */
+  private final Map<Integer, Queue<Long>> scheduled =
+      new ConcurrentHashMap<>();
+
+  EndingTable(Material material) {
+    this.material = material;
+    this.index = new EndingIndex(material);
+  }
+
+  Material getMaterial() {
+    return material;
+  }
+
+  long length() {
+    return index.length();
+  }
+
+  /** Number of threads, used for the generation. */
+  void setMaxWorkers(int maxWorkers) {
+    workers = Math.max(1, maxWorkers);
   }
 
-  void setDual(EndingTable dualTable) {
-    dual = dualTable;
+  void setSearchPool(SearchPool pool) {
+    searchPool = pool;
   }
 
-  private EndingValue get(int idx) {
-    return EndingValue.fromByte(table[idx]);
+  EndingValue get(long idx) {
+    return EndingValue.fromByte(getByte(idx));
   }
 
+  /**
+   * Value of the position with this material or with the flipped material
+   * for the player to move, ignoring the castlings and en passant.
+   */
   EndingValue get(ChessState state) {
-    return get(encode(state));
+    return get(indexOf(state, Material.of(state)));
   }
 
-  long length() {
-    long t = 1;
-    for (int i = 64; i > 64 - n; i--) {
-      t *= i;
-    }
+  /**
+   * Index of the position with this material or the flipped material.
+   *
+   * @param stateMaterial Material of the position.
+   */
+  long indexOf(ChessState state, Material stateMaterial) {
+    return index.encode(state, !stateMaterial.equals(material));
+  }
 
-    t /= 2;
+  private byte getByte(long idx) {
+    return segments[(int) (idx >>> SEGMENT_BITS)]
+        .get((int) (idx & SEGMENT_MASK));
+  }
 
-    for (int i = 10 + n - 3; i > 9; i--) {
-      t *= i;
+  private void setByte(long idx, byte value) {
+    segments[(int) (idx >>> SEGMENT_BITS)]
+        .put((int) (idx & SEGMENT_MASK), value);
+  }
+
+  /** Write the table to the file. */
+  void save(Path file) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    byte[] signature =
+        material.toString().getBytes(StandardCharsets.US_ASCII);
+    header.putInt(MAGIC);
+    header.putInt(EndingIndex.SCHEME);
+    header.putLong(length());
+    header.put((byte) signature.length);
+    header.put(signature);
+    header.rewind();
+
+    try (FileChannel channel = FileChannel.open(
+        file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      writeFully(channel, header);
+      for (ByteBuffer segment : segments) {
+        writeFully(channel, segment.duplicate());
+      }
     }
+  }
 
-    for (int i = 2; i <= n - 2; i++) {
-      t /= i;
+  private static void writeFully(FileChannel channel, ByteBuffer buffer)
+      throws IOException {
+    buffer.rewind();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
     }
+  }
 
-    return t;
+  /**
+   * Map the table from the file. The values are read from the disk when they
+   * are first probed.
+   */
+  static EndingTable load(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      while (header.hasRemaining() && channel.read(header) >= 0) {}
+      header.flip();
+      if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+        throw new IOException(file + " is not an ending table");
+      }
+      int scheme = header.getInt();
+      if (scheme != EndingIndex.SCHEME) {
+        throw new IOException(
+            file + " has unsupported index scheme " + scheme);
+      }
+      long length = header.getLong();
+      byte[] signature = new byte[header.get()];
+      header.get(signature);
+      Material material;
+      try {
+        material =
+            Material.parse(new String(signature, StandardCharsets.US_ASCII));
+      } catch (IllegalArgumentException ex) {
+        throw new IOException(file + ": " + ex.getMessage());
+      }
+
+      EndingTable table = new EndingTable(material);
+      if (length != table.length() ||
+          channel.size() != HEADER_SIZE + length) {
+        throw new IOException(file + " has wrong size for " + material);
+      }
+      table.segments = new ByteBuffer[segmentCount(length)];
+      for (int i = 0; i < table.segments.length; i++) {
+        long start = (long) i << SEGMENT_BITS;
+        table.segments[i] = channel.map(
+            FileChannel.MapMode.READ_ONLY, HEADER_SIZE + start,
+            Math.min(length - start, 1L << SEGMENT_BITS));
+      }
+      return table;
+    }
   }
 
-  void generate() {
-    table = new byte[(int)length()];
-
-    Map<EndingStatus, Long> count = new HashMap<>();
-    count.put(EndingStatus.UNKNOWN, 0L);
-    count.put(EndingStatus.WIN, 0L);
-    count.put(EndingStatus.LOSS, 0L);
-    count.put(EndingStatus.DRAW, 0L);
-    count.put(EndingStatus.ILLEGAL, 0L);
-    for (int i = 0; i < table.length; i++) {
-      EndingValue evalue = EndingValue.fromState(decode(i));
-      table[i] = evalue.asByte();
-      count.put(evalue.status, count.get(evalue.status) + 1);
-    }
-
-    for (EndingStatus status : count.keySet()) {
-      System.out.format("%s %d\n", status, count.get(status));
-    }
-
-    int moves = 0;
-    long win = 1, loss = 0, draw = 0;
-    while (win + loss + draw > 0 && moves < 126) {
-      win = 0;
-      loss = 0;
-      draw = 0;
-      moves++;
-      EndingStatus bestNext = EndingStatus.WIN;
-      for (int i = 0; i < table.length; i++) {
-        EndingValue evalue = EndingValue.fromByte(table[i]);
-        if (evalue.status != EndingStatus.UNKNOWN)
-          continue;
-
-        ChessState state = decode(i);
-        for (ChessMove move : state.getMoves()) {
-          ChessState next = state.clone();
-          next.play(move);
-
-          EndingStatus status;
-          int moveTo = move.to;
-          if (Pieces.isEmpty(state.get(moveTo))) {
-            if (n == 3) {
-              status = EndingStatus.DRAW;
-            } else {
-              status = this.previous.get(next).status;
-            }
-          } else {
-            status = dual.get(next).status;
-          }
-          assert status != EndingStatus.ILLEGAL;
+  private static int segmentCount(long length) {
+    return (int) ((length + SEGMENT_MASK) >>> SEGMENT_BITS);
+  }
 
-          if (status.worseThan(bestNext)) {
-            bestNext = status;
-          }
+  /**
+   * @param subTables Tables for the canonical materials, reachable by the
+   *     captures and promotions.
+   */
+  void generate(Function<Material, EndingTable> subTables) {
+    this.subTables = subTables;
+    long length = length();
+    segments = new ByteBuffer[segmentCount(length)];
+    for (int i = 0; i < segments.length; i++) {
+      long start = (long) i << SEGMENT_BITS;
+      byte[] values =
+          new byte[(int) Math.min(length - start, 1L << SEGMENT_BITS)];
+      Arrays.fill(values, UNKNOWN);
+      segments[i] = ByteBuffer.wrap(values);
+    }
+    long startTime = System.currentTimeMillis();
+
+    PassStats initial = runPass((idx, worker) -> {
+      ChessState state = canonicalState(idx, worker.squares);
+      if (state == null) {
+        setByte(idx, ILLEGAL);
+        worker.illegal++;
+      } else {
+        evaluate(idx, state, worker.squares, 0, worker);
+        worker.count(get(idx));
+      }
+    });
+    System.out.format("%s: %d positions, illegal %d, win %d, loss %d%n",
+                      material, length, initial.illegal, initial.wins,
+                      initial.losses);
+
+    // Any pass may resolve the positions with long distances through the
+    // conversions, so the passes go on at least up to the longest distance
+    // written so far.
+    int maxPly = initial.maxPly;
+    for (int ply = 1; ; ply++) {
+      int current = ply;
+      int previous = ply - 1;
+      PassStats stats = runPass((idx, worker) -> {
+        EndingValue value = get(idx);
+        if (value.plies() == previous) {
+          worker.count(value);
+          updatePredecessors(idx, current, worker);
         }
+      });
+      Queue<Long> positions = scheduled.remove(ply);
+      if (positions != null) {
+        PassStats scheduledStats = new PassStats(material.size());
+        for (long position : positions) {
+          evaluateIndex(position, ply, scheduledStats);
+        }
+        stats.add(scheduledStats);
+      }
+      maxPly = Math.max(maxPly, stats.maxPly);
+      System.out.format("Ply #%d: win %d, loss %d, %.1f s%n", previous,
+                        stats.wins, stats.losses,
+                        (System.currentTimeMillis() - startTime) / 1000.0);
+      if (stats.wins + stats.losses == 0 && positions == null &&
+          ply > maxPly && scheduled.isEmpty())
+        break;
+    }
+
+    PassStats draws = runPass((idx, worker) -> {
+      if (getByte(idx) == UNKNOWN) {
+        setByte(idx, DRAW);
+        worker.draws++;
+      }
+    });
+    System.out.format("Draws from unknown: %d%n", draws.draws);
+    this.subTables = null;
+  }
 
-        switch (bestNext) {
-          case WIN:
-            table[i] = EndingValue.of(EndingStatus.LOSS, moves).asByte();
-            loss++;
-            break;
-
-          case LOSS:
-            table[i] = EndingValue.of(EndingStatus.WIN, moves).asByte();
-            win++;
-            break;
-
-          case DRAW:
-            table[i] = EndingValue.of(EndingStatus.DRAW).asByte();
-            draw++;
-            break;
-
-          case UNKNOWN:
-          case ILLEGAL:
-            throw new RuntimeException();
+  /**
+   * Visit all the indexes of the table by the workers. Each worker takes the
+   * next chunk of indexes, when it's done with the previous one.
+   *
+   * @return Sum of the statistics of the workers.
+   */
+  private PassStats runPass(IndexVisitor visitor) {
+    AtomicLong next = new AtomicLong(0);
+    List<PassStats> stats = new ArrayList<>();
+    List<Runnable> tasks = new ArrayList<>();
+    for (int i = 0; i < workers; i++) {
+      PassStats worker = new PassStats(material.size());
+      stats.add(worker);
+      tasks.add(() -> {
+        long start;
+        while ((start = next.getAndAdd(CHUNK)) < length()) {
+          long end = Math.min(start + CHUNK, length());
+          for (long idx = start; idx < end; idx++) {
+            visitor.visit(idx, worker);
+          }
         }
+      });
+    }
+    if (workers > 1) {
+      (searchPool != null ? searchPool : SearchPool.getDefault())
+          .invokeAll(tasks);
+    } else {
+      tasks.get(0).run();
+    }
+
+    PassStats total = new PassStats(0);
+    for (PassStats worker : stats) {
+      total.add(worker);
+    }
+    return total;
+  }
+
+  /**
+   * Decode the position if it's legal and its index is canonical.
+   *
+   * @return null otherwise.
+   */
+  private ChessState canonicalState(long idx, int[] squares) {
+    index.decode(idx, squares);
+    boolean whiteToMove = EndingIndex.whiteToMove(idx);
+    if (index.encode(squares, whiteToMove) != idx)
+      return null;
+    ChessState state = index.toState(squares, whiteToMove);
+    if (state == null || state.isOpponentInCheck())
+      return null;
+    return state;
+  }
+
+  /**
+   * Evaluate all the positions, from which the given one can be reached in
+   * one move.
+   */
+  private void updatePredecessors(long idx, int ply, PassStats worker) {
+    int[] squares = worker.squares;
+    index.decode(idx, squares);
+    boolean mover = !EndingIndex.whiteToMove(idx);
+    long occupied = 0;
+    for (int square : squares) {
+      occupied |= Bitboards.bit(square);
+    }
+    long empty = ~occupied;
+
+    for (int i = 0; i < squares.length; i++) {
+      byte piece = i < 2 ? Pieces.withColor(Pieces.KING, i == 0)
+                         : material.piece(i - 2);
+      if (Pieces.isWhite(piece) != mover)
+        continue;
+      int to = squares[i];
+      long froms;
+      switch (Pieces.piece(piece)) {
+        case Pieces.KING:
+          froms = Bitboards.KING_ATTACKS[to] & empty &
+                  ~Bitboards.KING_ATTACKS[squares[1 - i]];
+          break;
+        case Pieces.KNIGHT:
+          froms = Bitboards.KNIGHT_ATTACKS[to] & empty;
+          break;
+        case Pieces.BISHOP:
+          froms = Bitboards.bishopAttacks(to, occupied) & empty;
+          break;
+        case Pieces.ROOK:
+          froms = Bitboards.rookAttacks(to, occupied) & empty;
+          break;
+        case Pieces.QUEEN:
+          froms = Bitboards.queenAttacks(to, occupied) & empty;
+          break;
+        case Pieces.PAWN:
+          froms = pawnUnmoves(to, mover, empty);
+          break;
+        default:
+          throw new RuntimeException("Unexpected piece " + piece);
       }
 
-      System.out.format("Move #%d: win %d, loss %d, draw %d\n",
-                         moves, win, loss, draw);
+      for (; froms != 0; froms &= froms - 1) {
+        squares[i] = Long.numberOfTrailingZeros(froms);
+        evaluateIndex(index.encode(squares, mover), ply, worker);
+      }
+      squares[i] = to;
     }
+  }
 
-    draw = 0;
-    for (int i = 0; i < table.length; i++) {
-      EndingValue evalue = EndingValue.fromByte(table[i]);
-      if (evalue.status == EndingStatus.UNKNOWN) {
-        table[i] = EndingValue.of(EndingStatus.DRAW).asByte();
-        draw++;
+  /** Squares, from which the pawn could have come, without a capture. */
+  private static long pawnUnmoves(int to, boolean white, long empty) {
+    int forward = white ? 1 : -1;
+    int row = to % 8;
+    long froms = 0;
+    if ((white ? row >= 2 : row <= 5) &&
+        (Bitboards.bit(to - forward) & empty) != 0) {
+      froms |= Bitboards.bit(to - forward);
+      if (row == (white ? 3 : 4) &&
+          (Bitboards.bit(to - 2 * forward) & empty) != 0) {
+        froms |= Bitboards.bit(to - 2 * forward);
       }
     }
+    return froms;
+  }
 
-    System.out.format("Draws from unknown: %d\n", draw);
+  private void evaluateIndex(long idx, int ply, PassStats worker) {
+    EndingValue value = get(idx);
+    if (value.status != EndingStatus.UNKNOWN &&
+        !(value.status == EndingStatus.WIN && value.plies() > ply))
+      return;
+    int[] squares = new int[material.size()];
+    index.decode(idx, squares);
+    ChessState state =
+        index.toState(squares, EndingIndex.whiteToMove(idx));
+    evaluate(idx, state, squares, ply, worker);
   }
 
-  private int encode(ChessState state) {
-    return 0;
+  /**
+   * Evaluate the position by its moves, taking into account only the
+   * positions in this table, that were resolved before the current pass.
+   */
+  private void evaluate(long idx, ChessState state, int[] squares, int ply,
+                        PassStats worker) {
+    List<ChessMove> moves = state.getMoves();
+    if (moves.isEmpty()) {
+      set(idx, state.getPayoff(0) != 0 ? EndingValue.of(EndingStatus.LOSS, 0)
+                                       : EndingValue.of(EndingStatus.DRAW),
+          worker);
+      return;
+    }
+
+    int bestWin = Integer.MAX_VALUE;
+    int worstLoss = 0;
+    boolean allWin = true;
+    boolean allKnown = true;
+    for (ChessMove move : moves) {
+      EndingValue value = evaluateMove(idx, state, squares, move, ply);
+      if (value == null) {
+        allKnown = false;
+        allWin = false;
+        continue;
+      }
+      switch (value.status) {
+        case LOSS:
+          bestWin = Math.min(bestWin, value.plies() + 1);
+          allWin = false;
+          break;
+        case WIN:
+          worstLoss = Math.max(worstLoss, value.plies() + 1);
+          break;
+        default:
+          allWin = false;
+      }
+    }
+
+    if (bestWin < Integer.MAX_VALUE) {
+      setWin(idx, bestWin, worker);
+    } else if (allKnown) {
+      set(idx, allWin ? EndingValue.ofPlies(EndingStatus.LOSS, worstLoss)
+                      : EndingValue.of(EndingStatus.DRAW), worker);
+    }
   }
 
-  private ChessState decode(int idx) {
-    return new ChessState();
+  /**
+   * Value of the position after the move for the opponent.
+   *
+   * @return null if it isn't known yet.
+   */
+  private EndingValue evaluateMove(
+      long idx, ChessState state, int[] squares, ChessMove move, int ply) {
+    boolean capture = !Pieces.isEmpty(state.get(move.to));
+    if (capture || move.promote != Pieces.EMPTY) {
+      long undo = state.playWithUndo(move);
+      EndingValue value = probe(state);
+      state.unplay(move, undo);
+      return value;
+    }
+
+    int slot = 0;
+    while (squares[slot] != move.from) {
+      slot++;
+    }
+    squares[slot] = move.to;
+    EndingValue value =
+        get(index.encode(squares, !EndingIndex.whiteToMove(idx)));
+    squares[slot] = move.from;
+
+    if (Pieces.piece(state.get(move.from)) == Pieces.PAWN &&
+        Math.abs(move.to - move.from) == 2) {
+      return evaluateEnPassant(idx, state, move, value, ply);
+    }
+    return isKnown(value, ply) ? value : null;
   }
 
-  enum EndingStatus {
-    UNKNOWN,
-    WIN,
-    LOSS,
-    DRAW,
-    ILLEGAL;
+  private static boolean isKnown(EndingValue value, int ply) {
+    assert value.status != EndingStatus.ILLEGAL;
+    return value.status == EndingStatus.DRAW ||
+           value.status != EndingStatus.UNKNOWN && value.plies() < ply;
+  }
 
-    boolean worseThan(EndingStatus other) {
-      assert this != ILLEGAL;
-      assert other != ILLEGAL;
-      switch (this) {
-        case UNKNOWN:
-          return other == EndingStatus.LOSS || other == EndingStatus.DRAW;
+  /**
+   * Value after a double pawn step. The position without the en passant
+   * square is in the table, but the opponent may have a better option in
+   * capturing the pawn en passant.
+   */
+  private EndingValue evaluateEnPassant(
+      long idx, ChessState state, ChessMove move, EndingValue value,
+      int ply) {
+    long undo = state.playWithUndo(move);
+    EndingValue capture = null;
+    for (ChessMove reply : state.getMoves()) {
+      if (reply.to == state.getEnPassant() &&
+          Pieces.piece(state.get(reply.from)) == Pieces.PAWN) {
+        long replyUndo = state.playWithUndo(reply);
+        EndingValue captureValue = probe(state).forOpponent();
+        state.unplay(reply, replyUndo);
+        if (capture == null || captureValue.betterThan(capture)) {
+          capture = captureValue;
+        }
+      }
+    }
+    state.unplay(move, undo);
 
-        case WIN:
-          return other == EndingStatus.UNKNOWN ||
-                 other == EndingStatus.LOSS ||
-                 other == EndingStatus.DRAW;
+    if (capture == null) {
+      return isKnown(value, ply) ? value : null;
+    }
+    if (isKnown(value, ply)) {
+      return capture.betterThan(value) ? capture : value;
+    }
+    if (capture.status == EndingStatus.WIN) {
+      // The capture wins, unless the other moves win faster, which would be
+      // known by the time the capture is resolved.
+      if (capture.plies() < ply)
+        return capture;
+      if (ply == 0) {
+        scheduled.computeIfAbsent(capture.plies() + 1,
+                                  k -> new ConcurrentLinkedQueue<>()).add(idx);
+      }
+    }
+    return null;
+  }
 
-        case LOSS:
-          return false;
+  /** Value of a position after a capture or a promotion. */
+  private EndingValue probe(ChessState state) {
+    Material next = Material.of(state);
+    if (next.size() == 2) {
+      return EndingValue.of(EndingStatus.DRAW);
+    }
+    EndingTable subTable = subTables.apply(next.canonical());
+    if (subTable == null) {
+      throw new IllegalStateException("No table for " + next.canonical());
+    }
+    return subTable.get(state);
+  }
 
-        case DRAW:
-          return other == EndingStatus.LOSS;
+  /**
+   * Several workers may set the same position on a pass, but they set it to
+   * the same value, so the writes don't need to be synchronized.
+   */
+  private void set(long idx, EndingValue value, PassStats worker) {
+    if (getByte(idx) != UNKNOWN)
+      return;
+    setByte(idx, value.asByte());
+    worker.written(value);
+  }
 
-        case ILLEGAL:
-          throw new RuntimeException();
+  /** Set the win, unless the position is already known to win faster. */
+  private void setWin(long idx, int plies, PassStats worker) {
+    EndingValue old = get(idx);
+    EndingValue value = EndingValue.ofPlies(EndingStatus.WIN, plies);
+    if (old.status == EndingStatus.UNKNOWN ||
+        old.status == EndingStatus.WIN && old.plies() > value.plies()) {
+      setByte(idx, value.asByte());
+      worker.written(value);
+    }
+  }
+
+  private interface IndexVisitor {
+    void visit(long idx, PassStats worker);
+  }
+
+  /** Statistics of a pass and the buffer of a worker. */
+  private static final class PassStats {
+    final int[] squares;
+    long illegal = 0;
+    long wins = 0;
+    long losses = 0;
+    long draws = 0;
+    /** Longest distance of the wins and losses written by the worker. */
+    int maxPly = 0;
+
+    PassStats(int pieces) {
+      squares = new int[pieces];
+    }
+
+    void count(EndingValue value) {
+      if (value.status == EndingStatus.WIN) {
+        wins++;
+      } else if (value.status == EndingStatus.LOSS) {
+        losses++;
       }
+    }
 
-      throw new RuntimeException("Can't happen");
+    void written(EndingValue value) {
+      if (value.status == EndingStatus.WIN ||
+          value.status == EndingStatus.LOSS) {
+        maxPly = Math.max(maxPly, value.plies());
+      }
+    }
+
+    void add(PassStats other) {
+      illegal += other.illegal;
+      wins += other.wins;
+      losses += other.losses;
+      draws += other.draws;
+      maxPly = Math.max(maxPly, other.maxPly);
     }
   }
 
+  enum EndingStatus {
+    UNKNOWN,
+    WIN,
+    LOSS,
+    DRAW,
+    ILLEGAL
+  }
+
+  /**
+   * Value of a position for the player to move, packed into a byte. The
+   * distances are counted in the moves of the winning side: a win in N moves
+   * takes 2N - 1 plies, a loss in N moves takes 2N plies. The distances
+   * longer than 126 moves are stored as 126 moves.
+   */
   static class EndingValue {
     private static final List<EndingValue> instances;
 
@@ -225,31 +668,74 @@ class EndingTable {
       return fromByte(toByte(status, moves));
     }
 
+    /** Win or loss in the given number of plies. */
+    static public EndingValue ofPlies(EndingStatus status, int plies) {
+      switch (status) {
+        case WIN:
+          return of(status, Math.min((plies + 1) / 2, 126));
+        case LOSS:
+          return of(status, Math.min(plies / 2, 126));
+        default:
+          return of(status);
+      }
+    }
+
     static public EndingValue fromByte(byte i) {
       return instances.get(i + 128);
     }
 
-    static public EndingValue fromState(ChessState state) {
-      switch (state.getPayoff(0)) {
-        case 1:
-          if (state.getPlayerBool()) {
-            return of(EndingStatus.ILLEGAL);
-          } else {
-            return of(EndingStatus.LOSS, 0);
-          }
+    /** Number of plies to the mate, -1 for other statuses. */
+    public int plies() {
+      switch (status) {
+        case WIN:
+          return 2 * moves - 1;
+        case LOSS:
+          return 2 * moves;
+        default:
+          return -1;
+      }
+    }
 
-        case -1:
-          if (!state.getPlayerBool()) {
-            return of(EndingStatus.ILLEGAL);
-          } else {
-            return of(EndingStatus.LOSS, 0);
-          }
+    /**
+     * Value for the opponent in the position before the last move, if it
+     * was the only move.
+     */
+    public EndingValue forOpponent() {
+      switch (status) {
+        case WIN:
+          return ofPlies(EndingStatus.LOSS, plies() + 1);
+        case LOSS:
+          return ofPlies(EndingStatus.WIN, plies() + 1);
+        default:
+          return this;
+      }
+    }
 
-        case 0:
-          return of(EndingStatus.DRAW);
+    /** Whether the value is preferable for the player to move. */
+    public boolean betterThan(EndingValue other) {
+      if (status != other.status) {
+        return score(status) > score(other.status);
+      }
+      switch (status) {
+        case WIN:
+          return moves < other.moves;
+        case LOSS:
+          return moves > other.moves;
+        default:
+          return false;
+      }
+    }
 
+    private static int score(EndingStatus status) {
+      switch (status) {
+        case WIN:
+          return 2;
+        case DRAW:
+          return 1;
+        case LOSS:
+          return 0;
         default:
-          return of(EndingStatus.UNKNOWN);
+          return -1;
       }
     }
 
@@ -281,5 +767,11 @@ class EndingTable {
     public byte asByte() {
       return byteValue;
     }
+
+    @Override
+    public String toString() {
+      return moves == 0 && status != EndingStatus.LOSS
+             ? status.toString() : status + " " + moves;
+    }
   }
 }
@@ -1,5 +1,90 @@
 package gamer.chess.endings;
 
+import gamer.chess.ChessState;
+import gamer.chess.endings.EndingTable.EndingValue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provides the ending tables by the material. The tables are either added
+ * after the generation, or mapped from the files in the directory, named by
+ * the material signature, e.g. KRvK.tbl, when they are first probed. A probe
+ * reads a single byte of the mapped table, so the values aren't cached. Once
+ * the table is loaded a probe takes no locks, but finding the canonical
+ * material and the index still allocates a few small arrays.
+ */
 class EndingTableManager {
-  
+  static final String EXTENSION = ".tbl";
+
+  private final Path directory;
+  private final Map<Material, EndingTable> tables = new ConcurrentHashMap<>();
+  /** Materials, for which there are no files. */
+  private final Set<Material> missing = ConcurrentHashMap.newKeySet();
+
+  /** Manager for the tables, added by addTable(). */
+  EndingTableManager() {
+    this(null);
+  }
+
+  /** @param directory Directory with the table files, or null. */
+  EndingTableManager(Path directory) {
+    this.directory = directory;
+  }
+
+  static Path tableFile(Path directory, Material material) {
+    return directory.resolve(material + EXTENSION);
+  }
+
+  void addTable(EndingTable table) {
+    tables.put(table.getMaterial(), table);
+  }
+
+  /**
+   * Table for the material or the flipped material.
+   *
+   * @return null if there is no such table.
+   */
+  EndingTable getTable(Material material) {
+    Material canonical = material.canonical();
+    EndingTable table = tables.get(canonical);
+    if (table != null || directory == null || missing.contains(canonical))
+      return table;
+
+    synchronized (this) {
+      table = tables.get(canonical);
+      if (table != null)
+        return table;
+      Path file = tableFile(directory, canonical);
+      if (!Files.exists(file)) {
+        missing.add(canonical);
+        return null;
+      }
+      try {
+        table = EndingTable.load(file);
+      } catch (IOException ex) {
+        throw new RuntimeException(ex);
+      }
+      tables.put(canonical, table);
+      return table;
+    }
+  }
+
+  /**
+   * Value of the position for the player to move, ignoring the castlings and
+   * en passant.
+   *
+   * @param material Material of the position.
+   * @return null if there is no table for the material.
+   */
+  EndingValue probe(ChessState state, Material material) {
+    EndingTable table = getTable(material);
+    if (table == null)
+      return null;
+    return table.get(table.indexOf(state, material));
+  }
 }
@@ -1,10 +1,137 @@
 package gamer.chess.endings;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates the ending tables for the materials given as arguments, e.g.
+ * KRvK, or for all the materials with up to 4 pieces. The number of threads
+ * can be given as -threads=N, by default all the cores are used. The tables
+ * are written to the directory, given as -dir=PATH, the current one by
+ * default. The tables, that are already there, aren't generated again.
+ */
 class GenerateEndingTables {
-  public static void main(String[] args) {
-    for (int i = 3; i < 7; i++) {
-      EndingTable ending = new EndingTable(i, null);
-      System.out.format("%d %d\n", i, ending.length());
+  private static final String PIECES = "QRBNP";
+
+  /**
+   * Generate the tables for the materials and all the smaller tables they
+   * depend on.
+   */
+  static Map<Material, EndingTable> generate(Collection<Material> materials) {
+    return generate(materials, Runtime.getRuntime().availableProcessors());
+  }
+
+  /** Generate the tables using the given number of threads. */
+  static Map<Material, EndingTable> generate(Collection<Material> materials,
+                                             int workers) {
+    try {
+      return generate(materials, workers, null);
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Generate the tables using the given number of threads.
+   *
+   * @param directory Directory, from which the existing tables are loaded,
+   *     and where the generated ones are saved. Null to keep the tables only
+   *     in memory.
+   */
+  static Map<Material, EndingTable> generate(
+      Collection<Material> materials, int workers, Path directory)
+      throws IOException {
+    Map<Material, EndingTable> tables = new HashMap<>();
+    for (Material material : materials) {
+      generate(material.canonical(), workers, directory, tables);
+    }
+    return tables;
+  }
+
+  private static void generate(Material material, int workers, Path directory,
+                               Map<Material, EndingTable> tables)
+      throws IOException {
+    if (tables.containsKey(material))
+      return;
+    Path file = directory == null
+                ? null : EndingTableManager.tableFile(directory, material);
+    if (file != null && Files.exists(file)) {
+      tables.put(material, EndingTable.load(file));
+      return;
+    }
+
+    for (Material successor : material.successors()) {
+      generate(successor, workers, directory, tables);
+    }
+    EndingTable table = new EndingTable(material);
+    table.setMaxWorkers(workers);
+    table.generate(tables::get);
+    if (file != null) {
+      table.save(file);
+    }
+    tables.put(material, table);
+  }
+
+  /** All canonical materials with up to the given number of pieces. */
+  static Set<Material> allMaterials(int maxPieces) {
+    Set<Material> materials = new LinkedHashSet<>();
+    addMaterials("", "", maxPieces - 2, 0, materials);
+    return materials;
+  }
+
+  /**
+   * Adds the materials, that extend the given one with up to the given number
+   * of pieces, with the pieces starting from the given index in PIECES for
+   * white followed by PIECES for black.
+   */
+  private static void addMaterials(String white, String black, int pieces,
+                                   int first, Set<Material> materials) {
+    if (!white.isEmpty() || !black.isEmpty()) {
+      materials.add(
+          Material.parse("K" + white + "vK" + black).canonical());
+    }
+    if (pieces == 0)
+      return;
+    for (int i = first; i < 2 * PIECES.length(); i++) {
+      char piece = PIECES.charAt(i % PIECES.length());
+      if (i < PIECES.length()) {
+        addMaterials(white + piece, black, pieces - 1, i, materials);
+      } else {
+        addMaterials(white, black + piece, pieces - 1, i, materials);
+      }
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    List<Material> materials = new ArrayList<>();
+    int workers = Runtime.getRuntime().availableProcessors();
+    Path directory = Paths.get(".");
+    for (String arg : args) {
+      if (arg.startsWith("-threads=")) {
+        workers = Integer.parseInt(arg.substring("-threads=".length()));
+      } else if (arg.startsWith("-dir=")) {
+        directory = Paths.get(arg.substring("-dir=".length()));
+      } else {
+        materials.add(Material.parse(arg));
+      }
+    }
+    if (materials.isEmpty()) {
+      materials.addAll(allMaterials(4));
     }
+    long startTime = System.currentTimeMillis();
+    Files.createDirectories(directory);
+    Map<Material, EndingTable> tables =
+        generate(materials, workers, directory);
+    System.out.format("%d tables ready in %.1f s%n", tables.size(),
+                      (System.currentTimeMillis() - startTime) / 1000.0);
   }
 }
@@ -0,0 +1,204 @@
+package gamer.chess.endings;
+
+import gamer.chess.ChessState;
+import gamer.chess.Pieces;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The pieces on the board, written as e.g. "KRPvKR".
+ *
+ * The pieces besides the kings are listed white first, each side in the order
+ * Q, R, B, N, P. The material is canonical if white is not weaker than black.
+ * The tables are stored only for the canonical materials, the positions with
+ * the flipped material are looked up with the colors swapped.
+ */
+final class Material {
+  private static final byte[] ORDER = {
+      Pieces.QUEEN, Pieces.ROOK, Pieces.BISHOP, Pieces.KNIGHT, Pieces.PAWN};
+  private static final String LETTERS = "QRBNP";
+
+  /** Pieces with colors, without the kings, sorted by rank(). */
+  private final byte[] pieces;
+  private final String signature;
+
+  private Material(byte[] pieces) {
+    this.pieces = pieces.clone();
+    sortPieces(this.pieces);
+    this.signature = buildSignature(this.pieces);
+  }
+
+  static Material parse(String signature) {
+    int separator = signature.indexOf('v');
+    if (separator < 1 || signature.charAt(0) != 'K' ||
+        signature.charAt(separator + 1) != 'K') {
+      throw new IllegalArgumentException("Wrong material: " + signature);
+    }
+    byte[] pieces = new byte[signature.length() - 3];
+    int count = 0;
+    for (int i = 1; i < signature.length(); i++) {
+      if (i == separator || i == separator + 1)
+        continue;
+      int letter = LETTERS.indexOf(signature.charAt(i));
+      if (letter < 0) {
+        throw new IllegalArgumentException("Wrong material: " + signature);
+      }
+      pieces[count++] = Pieces.withColor(ORDER[letter], i < separator);
+    }
+    return new Material(pieces);
+  }
+
+  static Material of(ChessState state) {
+    byte[] pieces = new byte[32];
+    int count = 0;
+    for (int square = 0; square < 64; square++) {
+      byte piece = state.get(square);
+      if (!Pieces.isEmpty(piece) && Pieces.piece(piece) != Pieces.KING) {
+        pieces[count++] = piece;
+      }
+    }
+    return new Material(Arrays.copyOf(pieces, count));
+  }
+
+  /** Number of pieces including the kings. */
+  int size() {
+    return pieces.length + 2;
+  }
+
+  /** Number of pieces besides the kings. */
+  int count() {
+    return pieces.length;
+  }
+
+  /** Piece with color, in the order of the signature. */
+  byte piece(int i) {
+    return pieces[i];
+  }
+
+  boolean hasPawns() {
+    for (byte piece : pieces) {
+      if (Pieces.piece(piece) == Pieces.PAWN)
+        return true;
+    }
+    return false;
+  }
+
+  boolean isCanonical() {
+    byte[] flipped = flip().pieces;
+    for (int i = 0; i < pieces.length; i++) {
+      if (rank(pieces[i]) != rank(flipped[i]))
+        return rank(pieces[i]) < rank(flipped[i]);
+    }
+    return true;
+  }
+
+  Material canonical() {
+    return isCanonical() ? this : flip();
+  }
+
+  /** The same material with the colors swapped. */
+  Material flip() {
+    byte[] flipped = new byte[pieces.length];
+    for (int i = 0; i < pieces.length; i++) {
+      flipped[i] = Pieces.withColor(Pieces.piece(pieces[i]),
+                                    !Pieces.isWhite(pieces[i]));
+    }
+    return new Material(flipped);
+  }
+
+  /**
+   * Canonical materials, that can be reached by a capture or a promotion,
+   * besides the bare kings.
+   */
+  Set<Material> successors() {
+    Set<Material> result = new LinkedHashSet<>();
+    for (int i = 0; i < pieces.length; i++) {
+      addSuccessor(result, without(pieces, i));
+
+      if (Pieces.piece(pieces[i]) != Pieces.PAWN)
+        continue;
+      boolean white = Pieces.isWhite(pieces[i]);
+      for (byte promote = Pieces.ROOK; promote <= Pieces.QUEEN; promote++) {
+        byte[] promoted = pieces.clone();
+        promoted[i] = Pieces.withColor(promote, white);
+        addSuccessor(result, promoted);
+        // Promotion with a capture.
+        for (int j = 0; j < pieces.length; j++) {
+          if (Pieces.isWhite(pieces[j]) != white &&
+              Pieces.piece(pieces[j]) != Pieces.PAWN) {
+            addSuccessor(result, without(promoted, j));
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  private static void addSuccessor(Set<Material> materials, byte[] pieces) {
+    if (pieces.length > 0) {
+      materials.add(new Material(pieces).canonical());
+    }
+  }
+
+  private static byte[] without(byte[] pieces, int i) {
+    byte[] result = new byte[pieces.length - 1];
+    System.arraycopy(pieces, 0, result, 0, i);
+    System.arraycopy(pieces, i + 1, result, i, pieces.length - i - 1);
+    return result;
+  }
+
+  /** Order of a piece in the signature: white first, stronger first. */
+  private static int rank(byte piece) {
+    int type = 0;
+    while (ORDER[type] != Pieces.piece(piece)) {
+      type++;
+    }
+    return Pieces.isWhite(piece) ? type : ORDER.length + type;
+  }
+
+  private static void sortPieces(byte[] pieces) {
+    // Insertion sort, there are at most a few pieces.
+    for (int i = 1; i < pieces.length; i++) {
+      byte piece = pieces[i];
+      int j = i;
+      for (; j > 0 && rank(pieces[j - 1]) > rank(piece); j--) {
+        pieces[j] = pieces[j - 1];
+      }
+      pieces[j] = piece;
+    }
+  }
+
+  private static String buildSignature(byte[] pieces) {
+    StringBuilder builder = new StringBuilder("K");
+    boolean black = false;
+    for (byte piece : pieces) {
+      if (!black && !Pieces.isWhite(piece)) {
+        builder.append("vK");
+        black = true;
+      }
+      builder.append(LETTERS.charAt(rank(piece) % ORDER.length));
+    }
+    if (!black) {
+      builder.append("vK");
+    }
+    return builder.toString();
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof Material &&
+           signature.equals(((Material) other).signature);
+  }
+
+  @Override
+  public int hashCode() {
+    return signature.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return signature;
+  }
+}
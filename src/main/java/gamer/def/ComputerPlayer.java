@@ -1,5 +1,7 @@
 package gamer.def;
 
+import gamer.util.SearchPool;
+
 public interface ComputerPlayer<P extends State<P, M>, M extends Move>
     extends Player<P, M> {
   default boolean isExternal() {
@@ -16,5 +18,19 @@ public interface ComputerPlayer<P extends State<P, M>, M extends Move>
     throw new UnsupportedOperationException("Solvers are not supported.");
   }
 
+  /**
+   * Run the search threads in the pool, e.g. to share it between several
+   * players. By default SearchPool.getDefault() is used.
+   */
+  default void setSearchPool(SearchPool pool) {
+  }
+
+  /**
+   * Stop the search, that is running in another thread. selectMove()
+   * returns the best move found so far.
+   */
+  default void cancel() {
+  }
+
   String getReport();
 }
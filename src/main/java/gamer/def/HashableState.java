@@ -0,0 +1,12 @@
+package gamer.def;
+
+/**
+ * A state that maintains a 64-bit hash of the position, e.g. for
+ * transposition tables and caches.
+ *
+ * Equal positions have equal hashes. Different positions can collide, but
+ * with a negligible probability.
+ */
+public interface HashableState {
+  long getHash();
+}
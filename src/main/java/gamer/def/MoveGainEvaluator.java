@@ -0,0 +1,10 @@
+package gamer.def;
+
+/**
+ * Upper bound of how much a move can improve the evaluation for the player
+ * making it, in the units of the corresponding Evaluator. Used for delta
+ * pruning in quiescence search.
+ */
+public interface MoveGainEvaluator<S extends State<S, M>, M extends Move> {
+  double maxGain(S state, M move);
+}
@@ -7,4 +7,12 @@ import java.util.List;
  */
 public interface MoveGenerator<P extends State<P, M>, M extends Move> {
   List<M> generate(P position);
+
+  /**
+   * Whether the generated moves are all the legal moves of the position, so
+   * the player can't decline them, e.g. the check evasions in chess.
+   */
+  default boolean isForced(P position) {
+    return false;
+  }
 }
@@ -0,0 +1,14 @@
+package gamer.def;
+
+/**
+ * Static estimate of how promising a move is, used to order moves in search.
+ * It's called for every generated move, so it should be cheap.
+ */
+public interface MoveHeuristic<S extends State<S, M>, M extends Move> {
+  /**
+   * @return Score of the move, moves with higher scores are tried first.
+   *     0 means a quiet move, which is left to the killer and history
+   *     heuristics.
+   */
+  int score(S state, M move);
+}
@@ -71,11 +71,67 @@ public interface State<S extends State<S, M>, M extends Move>
     return all_moves.get(ThreadLocalRandom.current().nextInt(all_moves.size()));
   }
 
+  /**
+   * Get the probability of a random move in the current position.
+   *
+   * The default implementation assumes that all the moves returned by
+   * getMoves() are equally likely.
+   */
+  default double getMoveProbability(M move) {
+    return 1.0 / getMoves().size();
+  }
+
+  /**
+   * Get the number of different random moves in the game, if they can be
+   * numbered by getChanceOutcomeIndex(). Should be the same for all the
+   * positions of the game.
+   *
+   * @return Number of random moves or 0 if they aren't numbered.
+   */
+  default int getChanceOutcomes() {
+    return 0;
+  }
+
+  /**
+   * Get the number of a random move, from 0 to getChanceOutcomes() - 1.
+   */
+  default int getChanceOutcomeIndex(M move) {
+    throw new UnsupportedOperationException(
+        "getChanceOutcomeIndex() not supported");
+  }
+
   /**
    * Apply a move to the current position.
    */
   void play(M move);
-  
+
+  /**
+   * Check whether playWithUndo() and unplay() are supported.
+   */
+  default boolean supportsUndo() {
+    return false;
+  }
+
+  /**
+   * Apply a move, so that it can be reverted by unplay(). Moves should be
+   * reverted in the order opposite to the one in which they were played.
+   *
+   * @return Token that should be passed to unplay().
+   */
+  default long playWithUndo(M move) {
+    throw new UnsupportedOperationException("playWithUndo() not supported");
+  }
+
+  /**
+   * Revert a move applied by playWithUndo().
+   *
+   * @param move The move that was played.
+   * @param undo The token returned by playWithUndo().
+   */
+  default void unplay(M move, long undo) {
+    throw new UnsupportedOperationException("unplay() not supported");
+  }
+
   default void play(String moveStr) {
     this.play(this.parseMove(moveStr));
   }
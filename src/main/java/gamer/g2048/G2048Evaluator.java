@@ -0,0 +1,35 @@
+package gamer.g2048;
+
+import gamer.def.Evaluator;
+
+/**
+ * Evaluates the position by the score and the number of empty tiles. The
+ * game ends when the board is full, so the empty tiles keep it going.
+ */
+public final class G2048Evaluator implements Evaluator<G2048State> {
+  private static final double EMPTY_TILE_VALUE = 32;
+
+  private static final G2048Evaluator INSTANCE = new G2048Evaluator();
+
+  private G2048Evaluator() {}
+
+  public static G2048Evaluator getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Search depth for the expectimax player. The positions with more
+   * different tiles are harder to merge, so they are searched deeper.
+   */
+  public static int getSearchDepth(G2048State state) {
+    return Math.max(2, state.countDistinctTiles() - 4);
+  }
+
+  @Override
+  public double evaluate(G2048State state) {
+    if (state.isTerminal()) {
+      return state.getPayoff(0);
+    }
+    return state.getScore() + EMPTY_TILE_VALUE * state.countEmptyTiles();
+  }
+}
@@ -2,21 +2,21 @@ package gamer.g2048;
 
 import gamer.def.Move;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 public class G2048Move implements Move {
-  static private final List<G2048Move> RANDOM2 = genRandom((byte)1);
-  static private final List<G2048Move> RANDOM4 = genRandom((byte)2);
+  /** Random moves, indexed by 16 * (value - 1) + tile. */
+  static private final G2048Move[] RANDOM = genRandom();
 
-  static final G2048Move RIGHT = new G2048Move("right", 3, 4, -1);
-  static final G2048Move UP = new G2048Move("up", 12, 1, -4);
-  static final G2048Move LEFT = new G2048Move("left", 0, 4, 1);
-  static final G2048Move DOWN = new G2048Move("down", 0, 1, 4);
+  static final G2048Move RIGHT = new G2048Move("right", false, true);
+  static final G2048Move UP = new G2048Move("up", true, true);
+  static final G2048Move LEFT = new G2048Move("left", false, false);
+  static final G2048Move DOWN = new G2048Move("down", true, false);
 
   static final List<G2048Move> PLAYER_MOVES =
       Arrays.asList(RIGHT, UP, LEFT, DOWN);
+  static final G2048Move[] PLAYER_MOVES_ARRAY = {RIGHT, UP, LEFT, DOWN};
 
   boolean random;
 
@@ -26,9 +26,12 @@ public class G2048Move implements Move {
 
   // For player moves.
   String directionStr;
-  int startRow;
-  int deltaRow;
-  int deltaTile;
+  /** Whether the tiles move along the columns. */
+  boolean vertical;
+  /** Whether the tiles move towards the last tile of the row or column. */
+  boolean toLast;
+  /** Row table for the direction. */
+  int[] table;
 
   static G2048Move parse(String str) {
     if (str == "right") {
@@ -67,36 +70,37 @@ public class G2048Move implements Move {
     this.value = value;
   }
 
-  private G2048Move(String directionStr, int startRow, int deltaRow, int
-      deltaTile) {
+  private G2048Move(String directionStr, boolean vertical, boolean toLast) {
     this.directionStr = directionStr;
-    this.startRow = startRow;
-    this.deltaRow = deltaRow;
-    this.deltaTile = deltaTile;
+    this.vertical = vertical;
+    this.toLast = toLast;
+    this.table = toLast ? Rows.LAST : Rows.FIRST;
   }
 
   boolean isRandom() {
     return random;
   }
 
-  static List<G2048Move> genRandom(byte value) {
-    ArrayList<G2048Move> moves = new ArrayList<>();
-    for (int i = 0; i < 16; i++) {
-      moves.add(new G2048Move(i, value));
+  /** Index of a random move in RANDOM. */
+  int index() {
+    assert random;
+    return 16 * (value - 1) + tile;
+  }
+
+  static G2048Move[] genRandom() {
+    G2048Move[] moves = new G2048Move[32];
+    for (int i = 0; i < 32; i++) {
+      moves[i] = new G2048Move(i % 16, (byte) (i / 16 + 1));
     }
     return moves;
   }
 
   static G2048Move of(int tile, int value) {
-    if (value == 1) {
-      return RANDOM2.get(tile);
-    } else if (value == 2) {
-      return RANDOM4.get(tile);
-    } else {
+    if (value != 1 && value != 2) {
       throw new IllegalArgumentException(
           "Only random moves with value = 2 or 4 are allowed.");
-
     }
+    return RANDOM[16 * (value - 1) + tile];
   }
 
   @Override
@@ -1,24 +1,40 @@
 package gamer.g2048;
 
 import gamer.def.*;
+import gamer.util.Zobrist;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 
 
 /**
  * The class describing a game position.
+ *
+ * The board is packed into a long, see Rows for the layout.
  */
-public final class G2048State implements State<G2048State, G2048Move> {
+public final class G2048State
+    implements State<G2048State, G2048Move>, HashableState {
   private enum State {
     NEW_GAME, RANDOM, PLAYER, FINISHED
   }
 
-  private byte[] board = new byte[16];
+  private static final State[] STATES = State.values();
+  private static final long[] STATE_KEYS =
+      Zobrist.generateKeys(STATES.length, 2049);
+  /**
+   * Random moves for each set of empty tiles (bit i for tile i), created on
+   * demand.
+   */
+  private static final List<?>[] RANDOM_MOVES = new List<?>[1 << 16];
+
+  private long board = 0;
   int score = 0;
   private State state = State.NEW_GAME;
+  /** Boards before the player moves, played with undo. */
+  private long[] undoBoards = null;
+  private int undoBoardsCount = 0;
 
   static class RandomSelector implements MoveSelector<G2048State, G2048Move> {
     @Override
@@ -72,7 +88,7 @@ public final class G2048State implements State<G2048State, G2048Move> {
     switch (state) {
       case NEW_GAME:
       case RANDOM:
-        return generateRandomMoves();
+        return getRandomMoves();
       case PLAYER:
         return G2048Move.PLAYER_MOVES;
       default:
@@ -80,48 +96,71 @@ public final class G2048State implements State<G2048State, G2048Move> {
     }
   }
 
-  private List<G2048Move> generateRandomMoves() {
-    List<G2048Move> moves = new ArrayList<>();
+  @SuppressWarnings("unchecked")
+  private List<G2048Move> getRandomMoves() {
+    long empty = Rows.emptyTiles(board);
+    int mask = 0;
     for (int i = 0; i < 16; i++) {
-      if (board[i] == 0) {
-        moves.add(G2048Move.of(i, 1));
-        moves.add(G2048Move.of(i, 2));
-      }
+      mask |= (int) (empty >>> (3 * i)) & (1 << i);
     }
 
-    return moves;
-  }
-
-  private int emptyTiles() {
-    int count = 0;
-    for (int i = 0; i < 16; i++) {
-      if (board[i] == 0) {
-        count++;
+    List<G2048Move> moves = (List<G2048Move>) RANDOM_MOVES[mask];
+    if (moves == null) {
+      G2048Move[] array = new G2048Move[2 * Integer.bitCount(mask)];
+      int count = 0;
+      for (int i = 0; i < 16; i++) {
+        if ((mask & (1 << i)) != 0) {
+          array[count++] = G2048Move.of(i, 1);
+          array[count++] = G2048Move.of(i, 2);
+        }
       }
+      moves = Collections.unmodifiableList(Arrays.asList(array));
+      RANDOM_MOVES[mask] = moves;
     }
-    return count;
+    return moves;
   }
 
   @Override
   public G2048Move getRandomMove() {
-    Random random = ThreadLocalRandom.current();
+    int random = ThreadLocalRandom.current().nextInt();
     switch (state) {
       case NEW_GAME:
       case RANDOM:
-        int tile, value;
-        do {
-          int rand = random.nextInt(160);
-          tile = rand / 10;
-          value = (rand % 10 == 0) ? 2 : 1;
-        } while (board[tile] != 0);
-        return G2048Move.of(tile, value);
+        // A random empty tile, 4 with the probability 1/10, otherwise 2.
+        // The high and the low halves of the random number are scaled to
+        // the bounds by multiplication, instead of taking a remainder.
+        long empty = Rows.emptyTiles(board);
+        int tile = Rows.nthEmpty(
+            empty, ((random >>> 16) * Long.bitCount(empty)) >>> 16);
+        return G2048Move.of(tile, ((random & 0xffff) * 10) >>> 16 == 0 ? 2 : 1);
       case PLAYER:
-        return G2048Move.PLAYER_MOVES.get(random.nextInt(4));
+        return G2048Move.PLAYER_MOVES_ARRAY[random & 3];
       default:
         throw new TerminalPositionException();
     }
   }
 
+  /** A tile gets 2 with the probability 0.9 and 4 with 0.1. */
+  @Override
+  public double getMoveProbability(G2048Move move) {
+    if (!move.isRandom()) {
+      throw new IllegalArgumentException("Not a random move: " + move);
+    }
+    return (move.value == 1 ? 0.9 : 0.1) /
+           Long.bitCount(Rows.emptyTiles(board));
+  }
+
+  /** A 2 or a 4 on one of 16 tiles. */
+  @Override
+  public int getChanceOutcomes() {
+    return 32;
+  }
+
+  @Override
+  public int getChanceOutcomeIndex(G2048Move move) {
+    return move.index();
+  }
+
   @Override
   public void play(G2048Move move) {
     switch (state) {
@@ -129,7 +168,7 @@ public final class G2048State implements State<G2048State, G2048Move> {
         if (!move.isRandom()) {
           throw new IllegalMoveException(this, move, "Expecting random move.");
         }
-        board[move.tile] = move.value;
+        setTile(move.tile, move.value);
         state = State.RANDOM;
         break;
 
@@ -137,11 +176,11 @@ public final class G2048State implements State<G2048State, G2048Move> {
         if (!move.isRandom()) {
           throw new IllegalMoveException(this, move, "Expecting random move.");
         }
-        if (board[move.tile] != 0) {
+        if (get(move.tile) != 0) {
           throw new IllegalMoveException(this, move,
                                          "Random move on non-empty tile.");
         }
-        board[move.tile] = move.value;
+        setTile(move.tile, move.value);
         state = State.PLAYER;
         break;
 
@@ -151,13 +190,7 @@ public final class G2048State implements State<G2048State, G2048Move> {
         }
 
         shiftTiles(move);
-        state = State.FINISHED;
-        for (int i = 0; i < 16; i++) {
-          if (board[i] == 0) {
-            state = State.RANDOM;
-            break;
-          }
-        }
+        state = Rows.emptyTiles(board) != 0 ? State.RANDOM : State.FINISHED;
         break;
 
       default:
@@ -165,41 +198,100 @@ public final class G2048State implements State<G2048State, G2048Move> {
     }
   }
 
-  private void shiftTiles(G2048Move move) {
-    int startTile = move.startRow;
-    for (int i = 0; i < 4; i++) {
-      int toTile = startTile;
-      int fromTile = startTile;
-      int lastTileValue = 0;
-
-      for (int j = 0; j < 4; j++) {
-        byte value = board[fromTile];
-        if (value != 0) {
-          board[fromTile] = 0;
-          if (value == lastTileValue) {
-            board[toTile - move.deltaTile] = (byte) (value + 1);
-            score += 1 << (value + 1);
-            lastTileValue = 0;
-          } else {
-            board[toTile] = value;
-            lastTileValue = value;
-            toTile += move.deltaTile;
-          }
-        }
+  @Override
+  public boolean supportsUndo() {
+    return true;
+  }
 
-        fromTile += move.deltaTile;
+  @Override
+  public long playWithUndo(G2048Move move) {
+    long undo = ((long) score << 2) | state.ordinal();
+    if (state == State.PLAYER && !move.isRandom()) {
+      if (undoBoards == null) {
+        undoBoards = new long[16];
+      } else if (undoBoards.length == undoBoardsCount) {
+        undoBoards = Arrays.copyOf(undoBoards, 2 * undoBoards.length);
       }
+      undoBoards[undoBoardsCount++] = board;
+    }
+
+    play(move);
+    return undo;
+  }
 
-      startTile += move.deltaRow;
+  @Override
+  public void unplay(G2048Move move, long undo) {
+    state = STATES[(int) (undo & 3)];
+    score = (int) (undo >>> 2);
+    if (move.isRandom()) {
+      setTile(move.tile, (byte) 0);
+    } else {
+      board = undoBoards[--undoBoardsCount];
     }
   }
 
+  /**
+   * Instead of Zobrist keys the hash mixes the packed board and the score
+   * with the finalizer of MurmurHash3. The score is a part of the position,
+   * the payoff and the evaluation depend on it.
+   */
+  @Override
+  public long getHash() {
+    long h = board ^ Long.rotateLeft(score * 0x9e3779b97f4a7c15L, 32);
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h ^ STATE_KEYS[state.ordinal()];
+  }
+
+  private void setTile(int tile, byte value) {
+    board = board & ~(15L << (4 * tile)) | ((long) value << (4 * tile));
+  }
+
+  private void shiftTiles(G2048Move move) {
+    // The direction is random in the playouts, so the code avoids branching
+    // on it.
+    long transposed = Rows.transpose(board);
+    long rows = move.vertical ? transposed : board;
+    int[] table = move.table;
+    int row0 = table[(int) rows & 0xFFFF];
+    int row1 = table[(int) (rows >>> 16) & 0xFFFF];
+    int row2 = table[(int) (rows >>> 32) & 0xFFFF];
+    int row3 = table[(int) (rows >>> 48)];
+    long result = (row0 & 0xFFFF) | (long) (row1 & 0xFFFF) << 16 |
+                  (long) (row2 & 0xFFFF) << 32 | (long) (row3 & 0xFFFF) << 48;
+    score += 4 * ((row0 >>> 16) + (row1 >>> 16) + (row2 >>> 16) +
+                  (row3 >>> 16));
+    transposed = Rows.transpose(result);
+    board = move.vertical ? transposed : result;
+  }
+
+  /** Sum of the merged tiles so far, the payoff at the end of the game. */
+  public int getScore() {
+    return score;
+  }
+
+  public int countEmptyTiles() {
+    return Long.bitCount(Rows.emptyTiles(board));
+  }
+
+  /** Number of different tile values on the board. */
+  public int countDistinctTiles() {
+    int values = 0;
+    for (int tile = 0; tile < 16; tile++) {
+      values |= 1 << get(tile);
+    }
+    return Integer.bitCount(values & ~1);
+  }
+
   int get(int tile) {
-    return board[tile];
+    return (int) (board >>> (4 * tile)) & 15;
   }
 
   int get(String tileStr) {
-    return board[G2048.BOARD.parseTile(tileStr)];
+    return get(G2048.BOARD.parseTile(tileStr));
   }
 
   public G2048Move parseMove(String moveStr) {
@@ -208,7 +300,7 @@ public final class G2048State implements State<G2048State, G2048Move> {
 
   public G2048State clone() {
     G2048State other = new G2048State();
-    other.board = this.board.clone();
+    other.board = this.board;
     other.score = this.score;
     other.state = this.state;
 
@@ -217,7 +309,11 @@ public final class G2048State implements State<G2048State, G2048Move> {
 
   @Override
   public String toString() {
+    byte[] tiles = new byte[16];
+    for (int i = 0; i < 16; i++) {
+      tiles[i] = (byte) get(i);
+    }
     return String
-        .format("Score: %d%n%s", score, G2048.BOARD.boardToString(board, true));
+        .format("Score: %d%n%s", score, G2048.BOARD.boardToString(tiles, true));
   }
 }
@@ -0,0 +1,114 @@
+package gamer.g2048;
+
+/**
+ * Lookup tables for the moves on a packed board.
+ *
+ * The board is a long with 4 bits per tile, holding the binary logarithm of
+ * the tile value (0 for an empty tile). Tile i takes bits 4 * i .. 4 * i + 3,
+ * so each 16-bit part of the long is a row. The tables give the result of
+ * shifting a row towards its first or its last tile in the low 16 bits, and
+ * the score of the merges divided by 4 (the smallest merge is 2 + 2) in the
+ * high bits. The columns are handled by transposing the board.
+ *
+ * Since a tile fits in 4 bits, two 32768 tiles are not merged.
+ */
+final class Rows {
+  private static final int ROWS = 1 << 16;
+  private static final long NIBBLES = 0x1111111111111111L;
+
+  /** Rows shifted towards the first tile. */
+  static final int[] FIRST = new int[ROWS];
+  /** Rows shifted towards the last tile. */
+  static final int[] LAST = new int[ROWS];
+
+  static {
+    int[] tiles = new int[4];
+    for (int row = 0; row < ROWS; row++) {
+      for (int i = 0; i < 4; i++) {
+        tiles[i] = (row >>> (4 * i)) & 15;
+      }
+      int score = shift(tiles);
+      int result = 0;
+      for (int i = 0; i < 4; i++) {
+        result |= tiles[i] << (4 * i);
+      }
+      FIRST[row] = result | (score / 4) << 16;
+      LAST[reverse(row)] = reverse(result) | (score / 4) << 16;
+    }
+  }
+
+  private Rows() {}
+
+  /**
+   * Shift the tiles towards the first one, merging the pairs of equal tiles.
+   * Returns the sum of the merged tile values.
+   */
+  private static int shift(int[] tiles) {
+    int score = 0;
+    int to = 0;
+    int last = 0;
+    for (int from = 0; from < 4; from++) {
+      int value = tiles[from];
+      if (value == 0) {
+        continue;
+      }
+      tiles[from] = 0;
+      if (value == last && value < 15) {
+        tiles[to - 1] = value + 1;
+        score += 1 << (value + 1);
+        last = 0;
+      } else {
+        tiles[to++] = value;
+        last = value;
+      }
+    }
+    return score;
+  }
+
+  private static int reverse(int row) {
+    return ((row & 15) << 12) | ((row & 0xF0) << 4) | ((row >>> 4) & 0xF0) |
+           (row >>> 12);
+  }
+
+  /** Swap the rows and the columns. */
+  static long transpose(long board) {
+    long a = (board & 0xF0F00F0FF0F00F0FL) |
+             ((board & 0x0000F0F00000F0F0L) << 12) |
+             ((board >>> 12) & 0x0000F0F00000F0F0L);
+    return (a & 0xFF00FF0000FF00FFL) |
+           ((a & 0x00000000FF00FF00L) << 24) |
+           ((a >>> 24) & 0x00000000FF00FF00L);
+  }
+
+  /** One bit at 4 * i for each empty tile i. */
+  static long emptyTiles(long board) {
+    long x = board | (board >>> 1);
+    x |= x >>> 2;
+    return ~x & NIBBLES;
+  }
+
+  /**
+   * The k-th (from 0) empty tile, given the result of emptyTiles. Halves the
+   * range without branching, since a loop over the bits mispredicts its
+   * exit.
+   */
+  static int nthEmpty(long empty, int k) {
+    int shift = 0;
+    int count = Long.bitCount(empty & 0xFFFFFFFFL);
+    int mask = (count - 1 - k) >> 31;
+    k -= count & mask;
+    shift += 32 & mask;
+    count = Long.bitCount((empty >>> shift) & 0xFFFFL);
+    mask = (count - 1 - k) >> 31;
+    k -= count & mask;
+    shift += 16 & mask;
+    count = Long.bitCount((empty >>> shift) & 0xFFL);
+    mask = (count - 1 - k) >> 31;
+    k -= count & mask;
+    shift += 8 & mask;
+    count = (int) (empty >>> shift) & 1;
+    mask = (count - 1 - k) >> 31;
+    shift += 4 & mask;
+    return shift >>> 2;
+  }
+}
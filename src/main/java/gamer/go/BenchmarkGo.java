@@ -0,0 +1,68 @@
+package gamer.go;
+
+import gamer.benchmark.Benchmark;
+import gamer.def.MoveSelector;
+import gamer.mcts.MonteCarloPlayer;
+
+public class BenchmarkGo {
+  @Benchmark
+  public static int go9Random1k(int reps) {
+    Go go = Go.getInstance(9);
+    return batch(go, 1000 * reps, go.getRandomMoveSelector());
+  }
+
+  @Benchmark
+  public static int go19Random100(int reps) {
+    Go go = Go.getInstance(19);
+    return batch(go, 100 * reps, go.getRandomMoveSelector());
+  }
+
+  @Benchmark
+  public static int go9Light1k(int reps) {
+    Go go = Go.getInstance(9);
+    return batch(go, 1000 * reps, go.getLightSelector());
+  }
+
+  @Benchmark
+  public static int go19Light100(int reps) {
+    Go go = Go.getInstance(19);
+    return batch(go, 100 * reps, go.getLightSelector());
+  }
+
+  @Benchmark
+  public static GoMove mctsGo9x9_10kSamples(int reps) {
+    return mctsMove(Go.getInstance(9), 10000, reps);
+  }
+
+  @Benchmark
+  public static GoMove mctsGo19x19_10kSamples(int reps) {
+    return mctsMove(Go.getInstance(19), 10000, reps);
+  }
+
+  private static GoMove mctsMove(Go go, int samples, int reps) {
+    MonteCarloPlayer<GoState, GoMove> player = new MonteCarloPlayer<>(go);
+    player.setSelector("light");
+    player.setMaxSamples(samples);
+    player.setTimeout(-1);
+
+    GoMove move = null;
+    for (int i = 0; i < reps; i++) {
+      move = player.selectMove(go.newGame());
+    }
+    return move;
+  }
+
+  static int batch(
+      Go go, int nsamples, MoveSelector<GoState, GoMove> selector) {
+    int sum = 0;
+    GoState initialState = go.newGame();
+    for (int isamples = 0; isamples < nsamples; isamples++) {
+      GoState state = initialState.clone();
+      while (!state.isTerminal()) {
+        state.play(selector.select(state));
+      }
+      sum += state.getPayoff(0);
+    }
+    return sum;
+  }
+}
@@ -2,7 +2,7 @@ package gamer.go;
 
 import gamer.def.Game;
 import gamer.def.MoveSelector;
-import gamer.def.State;
+import gamer.util.Zobrist;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -10,27 +10,62 @@ import java.util.List;
 import java.util.Map;
 
 public final class Go implements Game<GoState, GoMove> {
-  static final int SIZE = 19;
-  static final int POINTS = SIZE * SIZE;
-  private static final Go INSTANCE = new Go();
-  private static final GoState.RandomSelector RANDOM_SELECTOR =
+  private static final int DEFAULT_SIZE = 19;
+  private static final double DEFAULT_KOMI = 7.5;
+  private static final Map<Integer, Go> INSTANCES = new HashMap<>();
+  final int size;
+  final int points;
+  final int[][] neighbors;
+  /**
+   * Zobrist keys, indexed by (stone - 1) * points + point. The last key is
+   * used for the second player to move.
+   */
+  final long[] zobristKeys;
+  final long whiteToMoveKey;
+  final double komi = DEFAULT_KOMI;
+  /**
+   * Without superko random games can go on forever, so the game is scored
+   * after this many moves.
+   */
+  final int maxMoves;
+  private final GoState.RandomSelector randomSelector =
       new GoState.RandomSelector();
-  static final int[][] NEIGHBORS = generateNeighbors();
+  private final GoState.LightSelector lightSelector =
+      new GoState.LightSelector();
 
-  private Go() {}
+  private Go(int size) {
+    this.size = size;
+    this.points = size * size;
+    this.neighbors = generateNeighbors(size);
+    this.zobristKeys = Zobrist.generateKeys(2 * points + 1, size);
+    this.whiteToMoveKey = zobristKeys[2 * points];
+    this.maxMoves = 3 * points;
+  }
+
+  public static synchronized Go getInstance(int size) {
+    if (INSTANCES.containsKey(size)) {
+      return INSTANCES.get(size);
+    }
+
+    GoMove.createInstances(size);
+    Go game = new Go(size);
+    INSTANCES.put(size, game);
+    return game;
+  }
 
   public static Go getInstance() {
-    return INSTANCE;
+    return getInstance(DEFAULT_SIZE);
   }
 
-  static int[][] generateNeighbors() {
-    int[][] neighbors = new int[POINTS][];
-    for (int i = 0; i < POINTS; i++) {
+  static int[][] generateNeighbors(int size) {
+    int points = size * size;
+    int[][] neighbors = new int[points][];
+    for (int i = 0; i < points; i++) {
       List<Integer> neighborsList = new ArrayList<>();
-      if (i >= SIZE) neighborsList.add(i - SIZE);
-      if (i < POINTS - SIZE) neighborsList.add(i + SIZE);
-      if (i % SIZE != 0) neighborsList.add(i - 1);
-      if (i % SIZE != SIZE - 1) neighborsList.add(i + 1);
+      if (i >= size) neighborsList.add(i - size);
+      if (i < points - size) neighborsList.add(i + size);
+      if (i % size != 0) neighborsList.add(i - 1);
+      if (i % size != size - 1) neighborsList.add(i + 1);
       neighbors[i] = new int[neighborsList.size()];
       for (int j = 0; j < neighborsList.size(); j++) {
         neighbors[i][j] = neighborsList.get(j);
@@ -42,13 +77,14 @@ public final class Go implements Game<GoState, GoMove> {
 
   @Override
   public GoState newGame() {
-    return new GoState();
+    return new GoState(this);
   }
 
   @Override
   public MoveSelector<GoState, GoMove> getMoveSelector(String selector) {
     switch (selector) {
-        case "random": return RANDOM_SELECTOR;
+      case "random": return randomSelector;
+      case "light": return lightSelector;
       default:
         throw new IllegalArgumentException();
     }
@@ -56,6 +92,14 @@ public final class Go implements Game<GoState, GoMove> {
 
   @Override
   public GoState.RandomSelector getRandomMoveSelector() {
-    return RANDOM_SELECTOR;
+    return randomSelector;
+  }
+
+  public GoState.LightSelector getLightSelector() {
+    return lightSelector;
+  }
+
+  public int getSize() {
+    return size;
   }
 }
@@ -7,7 +7,7 @@ import java.util.List;
 
 public final class GoMove implements Move {
   private static final String COL_LETTER = "ABCDEFGHJKLMNOPQRSTUVWXYZ";
-  private static final List<GoMove> INSTANCES = createInstances();
+  private static final List<GoMove> INSTANCES = new ArrayList<>();
   private static final GoMove PASS = new GoMove();
 
   final int point;
@@ -23,12 +23,10 @@ public final class GoMove implements Move {
     this.pass = true;
   }
 
-  private static List<GoMove> createInstances() {
-    List<GoMove> moves = new ArrayList<>();
-    for (int i = 0; i < Go.POINTS; i++) {
-      moves.add(new GoMove(i));
+  static synchronized void createInstances(int size) {
+    for (int point = INSTANCES.size(); point < size * size; point++) {
+      INSTANCES.add(new GoMove(point));
     }
-    return moves;
   }
 
   static GoMove pass() {
@@ -39,15 +37,15 @@ public final class GoMove implements Move {
     return INSTANCES.get(point);
   }
 
-  static GoMove of(int col, int row) {
-    if (col < 0 || col >= Go.SIZE || row < 0 || row > Go.SIZE) {
+  static GoMove of(int col, int row, int size) {
+    if (col < 0 || col >= size || row < 0 || row >= size) {
       throw new RuntimeException(
-          String.format("Wrong move: %d %d", col, row));
+          String.format("Wrong move: %d %d (size: %d)", col, row, size));
     }
-    return INSTANCES.get(row * Go.SIZE + col);
+    return INSTANCES.get(row * size + col);
   }
 
-  static GoMove of(String moveStr) {
+  static GoMove of(String moveStr, int size) {
     moveStr = moveStr.toUpperCase();
     if (moveStr.equals("PASS")) {
       return PASS;
@@ -55,13 +53,15 @@ public final class GoMove implements Move {
     char colChar = moveStr.charAt(0);
     int col = COL_LETTER.indexOf(colChar);
     int row = Integer.parseInt(moveStr.substring(1));
-    return of(col, row - 1);
+    return of(col, row - 1, size);
   }
 
-  @Override
-  public String toString() {
-    int row = point / Go.SIZE;
-    int col = point % Go.SIZE;
+  String toString(int size) {
+    if (pass) {
+      return "PASS";
+    }
+    int row = point / size;
+    int col = point % size;
     return String.format("%c%d", COL_LETTER.charAt(col), row + 1);
   }
 
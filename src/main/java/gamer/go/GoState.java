@@ -1,22 +1,73 @@
 package gamer.go;
 
-import gamer.def.Game;
-import gamer.def.State;
+import gamer.def.HashableState;
+import gamer.def.IllegalMoveException;
 import gamer.def.MoveSelector;
+import gamer.def.State;
 import gamer.def.TerminalPositionException;
 import gamer.util.GameStatusInt;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Queue;
 import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Go position with area scoring, simple ko and no suicide.
+ *
+ * Chains are kept in a union-find structure. For each chain its root stores
+ * the pseudo-liberties: the number of pairs (stone, adjacent empty point),
+ * and the sum and the sum of squares of these empty points. A chain is
+ * captured when it has no pseudo-liberties and is in atari when all its
+ * pseudo-liberties are the same point, which is checked by the sums. This
+ * makes the legality check look only at the neighbors of the point.
+ */
+public final class GoState implements State<GoState, GoMove>, HashableState {
+  static final byte EMPTY = 0;
+  static final byte BLACK = 1;
+  static final byte WHITE = 2;
 
-public final class GoState implements State<GoState, GoMove> {
+  // Entries of the undo log, each one follows its arguments.
+  private static final int LOG_PLACE = 0;
+  private static final int LOG_LIBERTY = 1;
+  private static final int LOG_MERGE = 2;
+  private static final int LOG_CAPTURE = 3;
+
+  private final Go game;
   byte[] board;
-  private int koPoint;
+  /** Union-find parent of each stone, the roots are their own parents. */
+  private int[] parent;
+  /** Next stone of the same chain, the stones of a chain form a cycle. */
+  private int[] next;
+  /** Number of stones in the chain, valid for the roots. */
+  private int[] stones;
+  /** Pseudo-liberties of the chain, valid for the roots. */
+  private int[] liberties;
+  private int[] libertySums;
+  private int[] libertySquareSums;
+  /** Dense list of the empty points. */
+  private short[] emptyPoints;
+  /** Position of each empty point in emptyPoints. */
+  private short[] emptyIndex;
+  private int empty;
+  /**
+   * The point of the single stone captured by the last move in a ko. It is
+   * forbidden for the opponent in the next move.
+   */
+  int koPoint = -1;
   private int status;
+  private int moveCount = 0;
+  /** Zobrist hash of the stones on the board. */
+  private long hash = 0;
+  /**
+   * Changes made by playWithUndo() to the stones and the chains, in the order
+   * they were made. A stone is logged with the previous contents of its point
+   * and its position in emptyPoints, and then the pseudo-liberties removed
+   * from the adjacent chains, the merged chains and the captured chains.
+   */
+  private int[] undoLog = null;
+  private int undoLogSize = 0;
+  private boolean logging = false;
 
   static class RandomSelector implements MoveSelector<GoState, GoMove> {
     @Override
@@ -25,14 +76,63 @@ public final class GoState implements State<GoState, GoMove> {
     }
   }
 
-  GoState() {
-    board = new byte[Go.POINTS];
+  /**
+   * Playout policy, that plays a random legal move except filling the
+   * player's own single-point eyes and taking a ko in reply to a ko, and
+   * passes when there are no such moves. A few random empty points are
+   * tried first, and then the empty points are scanned from a random
+   * position.
+   */
+  static class LightSelector implements MoveSelector<GoState, GoMove> {
+    private static final int RANDOM_TRIES = 8;
+
+    @Override
+    public GoMove select(GoState state) {
+      if (state.empty == 0) {
+        return GoMove.pass();
+      }
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      for (int i = 0; i < RANDOM_TRIES; i++) {
+        int point = state.emptyPoints[random.nextInt(state.empty)];
+        if (state.isLightMove(point)) {
+          return GoMove.of(point);
+        }
+      }
+      int start = random.nextInt(state.empty);
+      for (int i = start; i < state.empty; i++) {
+        if (state.isLightMove(state.emptyPoints[i])) {
+          return GoMove.of(state.emptyPoints[i]);
+        }
+      }
+      for (int i = 0; i < start; i++) {
+        if (state.isLightMove(state.emptyPoints[i])) {
+          return GoMove.of(state.emptyPoints[i]);
+        }
+      }
+      return GoMove.pass();
+    }
+  }
+
+  GoState(Go game) {
+    this.game = game;
+    board = new byte[game.points];
+    parent = new int[game.points];
+    next = new int[game.points];
+    stones = new int[game.points];
+    liberties = new int[game.points];
+    libertySums = new int[game.points];
+    libertySquareSums = new int[game.points];
+    emptyPoints = new short[game.points];
+    emptyIndex = new short[game.points];
+    for (int point = 0; point < game.points; point++) {
+      addEmpty(point);
+    }
     status = GameStatusInt.init();
   }
 
   @Override
   public Go getGame() {
-    return Go.getInstance();
+    return game;
   }
 
   @Override
@@ -59,7 +159,7 @@ public final class GoState implements State<GoState, GoMove> {
   public List<GoMove> getMoves() {
     List<GoMove> moves = new ArrayList<>();
     moves.add(GoMove.pass());
-    for (int i = 0; i < Go.POINTS; i++) {
+    for (int i = 0; i < game.points; i++) {
       if (isValidMove(i)) {
         moves.add(GoMove.of(i));
       }
@@ -74,24 +174,182 @@ public final class GoState implements State<GoState, GoMove> {
 
     ThreadLocalRandom random = ThreadLocalRandom.current();
     while (true) {
-      int i = random.nextInt(Go.POINTS + 1) - 1;
+      int i = random.nextInt(empty + 1) - 1;
       if (i < 0) {
         return GoMove.pass();
       }
-      if (isValidMove(i)) {
-        return GoMove.of(i);
+      if (isValidMove(emptyPoints[i])) {
+        return GoMove.of(emptyPoints[i]);
       }
     }
   }
 
   @Override
   public void play(GoMove move) {
-    throw new UnsupportedOperationException("Not implemented");
+    if (isTerminal()) {
+      throw new IllegalMoveException(this, move, "game is over");
+    }
+
+    moveCount++;
+    if (move.pass) {
+      // koPoint is kept, so that the light playouts don't take another ko
+      // right after this one, but after the pass the ban doesn't apply to
+      // the player who took the ko, see isValidMove().
+      if (GameStatusInt.getPass(status)) {
+        finish();
+      } else {
+        status = GameStatusInt.switchPlayerPass(status);
+        checkMoveLimit();
+      }
+      return;
+    }
+
+    int point = move.point;
+    if (!isValidMove(point)) {
+      throw new IllegalMoveException(this, move, "illegal move");
+    }
+
+    if (logging) {
+      log(parent[point]);
+      log(next[point]);
+      log(stones[point]);
+      log(liberties[point]);
+      log(libertySums[point]);
+      log(libertySquareSums[point]);
+      log(emptyIndex[point]);
+      log(LOG_PLACE);
+    }
+    byte color = getPlayerBool() ? BLACK : WHITE;
+    board[point] = color;
+    removeEmpty(point);
+    hash ^= game.zobristKeys[(color - 1) * game.points + point];
+    parent[point] = point;
+    next[point] = point;
+    stones[point] = 1;
+    liberties[point] = 0;
+    libertySums[point] = 0;
+    libertySquareSums[point] = 0;
+
+    int[] neighbors = game.neighbors[point];
+    for (int n : neighbors) {
+      if (board[n] == EMPTY) {
+        addLiberty(point, n);
+      }
+    }
+
+    int captured = 0;
+    int capturedPoint = -1;
+    for (int n : neighbors) {
+      byte c = board[n];
+      if (c == EMPTY) {
+        continue;
+      }
+      int chain = find(n);
+      removeLiberty(chain, point);
+      if (logging) {
+        log(chain);
+        log(LOG_LIBERTY);
+      }
+      if (c == color) {
+        int root = find(point);
+        if (root != chain) {
+          merge(root, chain);
+        }
+      } else if (liberties[chain] == 0) {
+        captured += stones[chain];
+        capturedPoint = n;
+        capture(chain, c);
+        if (logging) {
+          log(chain);
+          log(LOG_CAPTURE);
+        }
+      }
+    }
+
+    int root = find(point);
+    if (captured == 1 && stones[root] == 1 && liberties[root] == 1) {
+      koPoint = capturedPoint;
+    } else {
+      koPoint = -1;
+    }
+
+    status = GameStatusInt.switchPlayerNoPass(status);
+    checkMoveLimit();
+  }
+
+  @Override
+  public boolean supportsUndo() {
+    return true;
+  }
+
+  @Override
+  public long playWithUndo(GoMove move) {
+    long undo = ((long) (koPoint + 1) << 32) | (status & 0xffffffffL);
+    logging = true;
+    try {
+      play(move);
+    } finally {
+      logging = false;
+    }
+    return undo;
+  }
+
+  @Override
+  public void unplay(GoMove move, long undo) {
+    koPoint = (int) (undo >>> 32) - 1;
+    status = (int) undo;
+    moveCount--;
+    if (move.pass) {
+      return;
+    }
+
+    int point = move.point;
+    byte color = board[point];
+    while (true) {
+      int entry = undoLog[--undoLogSize];
+      if (entry == LOG_LIBERTY) {
+        addLiberty(undoLog[--undoLogSize], point);
+      } else if (entry == LOG_MERGE) {
+        int b = undoLog[--undoLogSize];
+        unmerge(undoLog[--undoLogSize], b);
+      } else if (entry == LOG_CAPTURE) {
+        uncapture(undoLog[--undoLogSize], (byte) (BLACK + WHITE - color));
+      } else {
+        break;
+      }
+    }
+
+    // Put the point back to the same place in emptyPoints.
+    int index = undoLog[--undoLogSize];
+    int last = emptyPoints[index];
+    emptyPoints[empty] = (short) last;
+    emptyIndex[last] = (short) empty;
+    emptyPoints[index] = (short) point;
+    emptyIndex[point] = (short) index;
+    empty++;
+    libertySquareSums[point] = undoLog[--undoLogSize];
+    libertySums[point] = undoLog[--undoLogSize];
+    liberties[point] = undoLog[--undoLogSize];
+    stones[point] = undoLog[--undoLogSize];
+    next[point] = undoLog[--undoLogSize];
+    parent[point] = undoLog[--undoLogSize];
+    board[point] = EMPTY;
+    hash ^= game.zobristKeys[(color - 1) * game.points + point];
+  }
+
+  @Override
+  public long getHash() {
+    return getPlayerBool() ? hash : hash ^ game.whiteToMoveKey;
+  }
+
+  @Override
+  public String moveToString(GoMove move) {
+    return move.toString(game.size);
   }
 
   @Override
   public GoMove parseMove(String moveStr) {
-    return GoMove.of(moveStr);
+    return GoMove.of(moveStr, game.size);
   }
 
   @Override
@@ -99,6 +357,16 @@ public final class GoState implements State<GoState, GoMove> {
     try {
       GoState result = (GoState) super.clone();
       result.board = board.clone();
+      result.parent = parent.clone();
+      result.next = next.clone();
+      result.stones = stones.clone();
+      result.liberties = liberties.clone();
+      result.libertySums = libertySums.clone();
+      result.libertySquareSums = libertySquareSums.clone();
+      result.emptyPoints = emptyPoints.clone();
+      result.emptyIndex = emptyIndex.clone();
+      result.undoLog = null;
+      result.undoLogSize = 0;
       return result;
     } catch (CloneNotSupportedException e) {
       throw new AssertionError(e);
@@ -115,61 +383,256 @@ public final class GoState implements State<GoState, GoMove> {
         builder.append((i == koPoint) ? '-' : '.');
       }
 
-      builder.append(i % Go.SIZE == Go.SIZE - 1 ? '\n' : ' ');
+      builder.append(i % game.size == game.size - 1 ? '\n' : ' ');
     }
 
     return builder.toString();
   }
 
-  private boolean isValidMove(int point) {
-    if (board[point] != 0 || point == koPoint) {
+  /**
+   * Whether the current player can play at the point: it is empty, not
+   * forbidden by ko, and the stone either has a liberty or captures.
+   */
+  boolean isValidMove(int point) {
+    if (board[point] != EMPTY || isKoBanned(point)) {
       return false;
     }
-    int color = getPlayerBool() ? 1 : 2;
-    int otherColor = 3 - color;
-    board[point] = (byte)color;
-    boolean alive = isAlive(point);
-    if (alive) {
-      board[point] = 0;
-      return true;
-    }
-    for (int j : Go.NEIGHBORS[point]) {
-      if (board[j] == otherColor && !isAlive(j)) {
-        board[point] = 0;
+    byte color = getPlayerBool() ? BLACK : WHITE;
+    for (int n : game.neighbors[point]) {
+      byte c = board[n];
+      if (c == EMPTY) {
+        return true;
+      }
+      // A chain next to the point is in atari only if this is its last
+      // liberty.
+      boolean atari = inAtari(find(n));
+      if (c == color ? !atari : atari) {
         return true;
       }
     }
-    board[point] = 0;
     return false;
   }
 
-  private boolean isAlive(int point) {
-    for (int j : Go.NEIGHBORS[point]) {
-      if (board[j] == 0) {
-        return true;
+  /**
+   * Whether the ko forbids the current player to play at the point. After a
+   * pass the player to move is the one who took the ko and may fill it.
+   */
+  boolean isKoBanned(int point) {
+    return point == koPoint && !GameStatusInt.getPass(status);
+  }
+
+  /**
+   * A legal move, that doesn't fill a single-point eye of the player and
+   * doesn't take a ko right after the opponent took one. Without the latter
+   * with several kos on the board the players can take them in turn until
+   * the move limit.
+   */
+  private boolean isLightMove(int point) {
+    byte color = getPlayerBool() ? BLACK : WHITE;
+    for (int n : game.neighbors[point]) {
+      if (board[n] != color) {
+        return isValidMove(point) &&
+               (koPoint < 0 || !isKoCapture(point, color));
       }
     }
+    return false;
+  }
 
-    byte color = board[point];
+  /** Whether a stone at the point would capture a single stone in a ko. */
+  private boolean isKoCapture(int point, byte color) {
+    int captured = 0;
+    for (int n : game.neighbors[point]) {
+      if (board[n] == EMPTY || board[n] == color) {
+        return false;
+      }
+      int chain = find(n);
+      if (inAtari(chain)) {
+        captured += stones[chain];
+      }
+    }
+    return captured == 1;
+  }
 
-    boolean[] visited = new boolean[Go.POINTS];
-    Queue<Integer> queue = new ArrayDeque<>();
-    queue.add(point);
-
-    while (queue.peek() != null) {
-      int p = queue.remove();
-      if (visited[p]) continue;
-      visited[p] = true;
-      for (int n : Go.NEIGHBORS[p]) {
-        if (board[n] == 0) {
-          return true;
+  /**
+   * Stones and the empty points surrounded only by the stones of the first
+   * player minus the same for the second player, without komi.
+   */
+  int getAreaScore() {
+    int score = 0;
+    byte[] region = new byte[board.length];
+    int[] queue = new int[board.length];
+    for (int point = 0; point < board.length; point++) {
+      if (board[point] == BLACK) {
+        score++;
+      } else if (board[point] == WHITE) {
+        score--;
+      } else if (region[point] == 0) {
+        // Flood fill the empty region, marking the colors around it.
+        int borders = 0;
+        int size = 0;
+        queue[size++] = point;
+        region[point] = 1;
+        for (int i = 0; i < size; i++) {
+          for (int n : game.neighbors[queue[i]]) {
+            if (board[n] != EMPTY) {
+              borders |= board[n];
+            } else if (region[n] == 0) {
+              region[n] = 1;
+              queue[size++] = n;
+            }
+          }
         }
-        if (board[n] == color) {
-          queue.add(n);
+        if (borders == BLACK) {
+          score += size;
+        } else if (borders == WHITE) {
+          score -= size;
         }
       }
     }
+    return score;
+  }
 
-    return false;
+  private void finish() {
+    double score = getAreaScore() - game.komi;
+    status = GameStatusInt.setPayoff(status, score > 0 ? 1 : score < 0 ? -1 : 0);
+  }
+
+  private void checkMoveLimit() {
+    if (moveCount >= game.maxMoves) {
+      finish();
+    }
+  }
+
+  private void addEmpty(int point) {
+    emptyPoints[empty] = (short) point;
+    emptyIndex[point] = (short) empty;
+    empty++;
+  }
+
+  private void removeEmpty(int point) {
+    int last = emptyPoints[--empty];
+    int index = emptyIndex[point];
+    emptyPoints[index] = (short) last;
+    emptyIndex[last] = (short) index;
+  }
+
+  private int find(int point) {
+    while (parent[point] != point) {
+      parent[point] = parent[parent[point]];
+      point = parent[point];
+    }
+    return point;
+  }
+
+  private boolean inAtari(int chain) {
+    long sum = libertySums[chain];
+    return sum * sum == (long) libertySquareSums[chain] * liberties[chain];
+  }
+
+  private void addLiberty(int chain, int point) {
+    liberties[chain]++;
+    libertySums[chain] += point;
+    libertySquareSums[chain] += point * point;
+  }
+
+  private void removeLiberty(int chain, int point) {
+    liberties[chain]--;
+    libertySums[chain] -= point;
+    libertySquareSums[chain] -= point * point;
+  }
+
+  /** Merge two chains, attaching the smaller one to the larger. */
+  private void merge(int a, int b) {
+    if (stones[a] < stones[b]) {
+      int t = a;
+      a = b;
+      b = t;
+    }
+    if (logging) {
+      log(a);
+      log(b);
+      log(LOG_MERGE);
+    }
+    parent[b] = a;
+    stones[a] += stones[b];
+    liberties[a] += liberties[b];
+    libertySums[a] += libertySums[b];
+    libertySquareSums[a] += libertySquareSums[b];
+    int t = next[a];
+    next[a] = next[b];
+    next[b] = t;
+  }
+
+  /**
+   * Split the chain b from the chain a it was merged into. The stones of b
+   * may point to a after the path compression, so they get b as the parent.
+   */
+  private void unmerge(int a, int b) {
+    int t = next[a];
+    next[a] = next[b];
+    next[b] = t;
+    int p = b;
+    do {
+      parent[p] = b;
+      p = next[p];
+    } while (p != b);
+    stones[a] -= stones[b];
+    liberties[a] -= liberties[b];
+    libertySums[a] -= libertySums[b];
+    libertySquareSums[a] -= libertySquareSums[b];
+  }
+
+  /** Remove the chain and give its points as liberties to the neighbors. */
+  private void capture(int chain, byte color) {
+    int offset = (color - 1) * game.points;
+    int p = chain;
+    do {
+      board[p] = EMPTY;
+      addEmpty(p);
+      hash ^= game.zobristKeys[offset + p];
+      p = next[p];
+    } while (p != chain);
+
+    do {
+      for (int n : game.neighbors[p]) {
+        if (board[n] != EMPTY) {
+          addLiberty(find(n), p);
+        }
+      }
+      p = next[p];
+    } while (p != chain);
+  }
+
+  /**
+   * Put back the chain removed by capture(). Its points are the last ones
+   * added to emptyPoints, and the chain itself wasn't changed.
+   */
+  private void uncapture(int chain, byte color) {
+    int p = chain;
+    do {
+      for (int n : game.neighbors[p]) {
+        if (board[n] != EMPTY) {
+          removeLiberty(find(n), p);
+        }
+      }
+      p = next[p];
+    } while (p != chain);
+
+    int offset = (color - 1) * game.points;
+    do {
+      board[p] = color;
+      hash ^= game.zobristKeys[offset + p];
+      p = next[p];
+    } while (p != chain);
+    empty -= stones[chain];
+  }
+
+  private void log(int value) {
+    if (undoLog == null) {
+      undoLog = new int[1024];
+    } else if (undoLogSize == undoLog.length) {
+      undoLog = Arrays.copyOf(undoLog, 2 * undoLog.length);
+    }
+    undoLog[undoLogSize++] = value;
   }
 }
@@ -27,6 +27,16 @@ public class BenchmarkGomoku {
     return batch(100000 * reps);
   }
 
+  @Benchmark
+  public static int gomokuNeighbor10k(int reps) {
+    return batch(10000 * reps, Gomoku.getInstance().getRandomNeighborSelector());
+  }
+
+  @Benchmark
+  public static int gomokuThreat10k(int reps) {
+    return batch(10000 * reps, Gomoku.getInstance().getThreatSelector());
+  }
+
   //  @Benchmark
   public static int gomokuNeighbors(int nsamples) {
     int sum = 0;
@@ -216,9 +226,12 @@ public class BenchmarkGomoku {
   }
 
   private static int batch(int nsamples) {
+    return batch(nsamples, Gomoku.getInstance().getRandomMoveSelector());
+  }
+
+  private static int batch(
+      int nsamples, MoveSelector<GomokuState, GomokuMove> selector) {
     int sum = 0;
-    MoveSelector<GomokuState, GomokuMove> selector =
-        Gomoku.getInstance().getRandomMoveSelector();
     for (int isamples = 0; isamples < nsamples; isamples++) {
       GomokuState state = Gomoku.getInstance().newGame();
       while (!state.isTerminal()) {
@@ -2,6 +2,7 @@ package gamer.gomoku;
 
 import gamer.def.Game;
 import gamer.def.MoveSelector;
+import gamer.util.Zobrist;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -10,16 +11,26 @@ public final class Gomoku implements Game<GomokuState, GomokuMove> {
   private static final int DEFAULT_SIZE = 19;
   private static final Map<Integer, Gomoku> INSTANCES = new HashMap<>();
   private final int size;
-  private final Limits limits;
+  private final Lines lines;
+  private final Neighbors neighbors;
+  /** Zobrist keys, indexed by (stone - 1) * size * size + point. */
+  private final long[] zobristKeys;
   private final GomokuState.RandomSelector randomSelector;
   private final GomokuState.RandomNeighborSelector randomNeighborSelector;
+  private final GomokuState.ThreatSelector threatSelector;
+  /** Empty board, new games are its copies. */
+  private final GomokuState initialState;
 
   private Gomoku(int size) {
     this.size = size;
-    this.limits = new Limits(size);
+    this.lines = new Lines(size);
+    this.neighbors = new Neighbors(size);
+    this.zobristKeys = Zobrist.generateKeys(2 * size * size, size);
 
-    randomSelector = new GomokuState.RandomSelector(size);
+    randomSelector = new GomokuState.RandomSelector();
     randomNeighborSelector = new GomokuState.RandomNeighborSelector(size);
+    threatSelector = new GomokuState.ThreatSelector();
+    initialState = new GomokuState(size, lines, neighbors, zobristKeys);
   }
 
   public static Gomoku getInstance(int size) {
@@ -39,7 +50,7 @@ public final class Gomoku implements Game<GomokuState, GomokuMove> {
 
   @Override
   public GomokuState newGame() {
-    return new GomokuState(size, limits);
+    return initialState.clone();
   }
 
   @Override
@@ -47,6 +58,7 @@ public final class Gomoku implements Game<GomokuState, GomokuMove> {
     switch (selector) {
       case "random": return randomSelector;
       case "neighbor": return randomNeighborSelector;
+      case "threat": return threatSelector;
       default:
         throw new IllegalArgumentException();
     }
@@ -61,6 +73,10 @@ public final class Gomoku implements Game<GomokuState, GomokuMove> {
     return randomNeighborSelector;
   }
 
+  public GomokuState.ThreatSelector getThreatSelector() {
+    return threatSelector;
+  }
+
   int getSize() {
     return size;
   }
@@ -0,0 +1,36 @@
+package gamer.gomoku;
+
+import gamer.def.Evaluator;
+
+/**
+ * Evaluates the position by the stones in the windows of five points on
+ * all the lines. A four of the player to move is almost a win. The scores are
+ * updated incrementally by the state after the first evaluation.
+ */
+public final class GomokuEvaluator implements Evaluator<GomokuState> {
+  private static final double FOUR_TO_MOVE = 0.9;
+  /** Score, that is evaluated to tanh(1) = 0.76 of a win. */
+  private static final double SCALE = 2000;
+
+  private static final GomokuEvaluator INSTANCE = new GomokuEvaluator();
+
+  private GomokuEvaluator() {}
+
+  public static GomokuEvaluator getInstance() {
+    return INSTANCE;
+  }
+
+  @Override
+  public double evaluate(GomokuState state) {
+    if (state.isTerminal()) {
+      return state.getPayoff(0);
+    }
+
+    PatternTracker patterns = state.getPatterns();
+    boolean player = state.getPlayerBool();
+    if (patterns.hasFour(player ? 0 : 1)) {
+      return player ? FOUR_TO_MOVE : -FOUR_TO_MOVE;
+    }
+    return FOUR_TO_MOVE * Math.tanh(patterns.getScore() / SCALE);
+  }
+}
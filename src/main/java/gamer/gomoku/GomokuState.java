@@ -1,5 +1,6 @@
 package gamer.gomoku;
 
+import gamer.def.HashableState;
 import gamer.def.IllegalMoveException;
 import gamer.def.MoveSelector;
 import gamer.def.State;
@@ -12,35 +13,80 @@ import java.util.List;
 
 import java.util.concurrent.ThreadLocalRandom;
 
-public final class GomokuState implements State<GomokuState, GomokuMove> {
+public final class GomokuState
+    implements State<GomokuState, GomokuMove>, HashableState {
   private final int size;
-  private final Limits limits;
+  private final Lines lines;
+  private final Neighbors neighbors;
+  private final long[] zobristKeys;
   private byte[] board;
+  /** Stones on the lines, indexed by player * lines.count + line id. */
+  private long[] stones;
+  /** Dense list of the empty points, in the first empty entries. */
+  private short[] emptyPoints;
+  /** Position of each empty point in emptyPoints. */
+  private short[] emptyIndex;
+  private int empty;
+  /**
+   * Candidate points and threats for ThreatSelector. Null until the selector
+   * is used with the state, since updating it slows down other playouts.
+   */
+  private ThreatTracker tracker = null;
+  /** Pattern scores for GomokuEvaluator, also created on the first use. */
+  private PatternTracker patterns = null;
+  private long hash = 0;
 
   private int status;
 
   static class RandomSelector implements MoveSelector<GomokuState, GomokuMove> {
-    private final int boardLen;
+    @Override
+    public GomokuMove select(GomokuState state) {
+      if (state.isTerminal())
+        throw new TerminalPositionException();
 
-    RandomSelector(int size) {
-      boardLen = size * size;
+      return GomokuMove.of(state.emptyPoints[randomIndex(state.empty)]);
     }
+  }
 
+  /**
+   * Plays a five if it can, otherwise blocks the opponent's five. If there
+   * is neither, plays a random point next to a stone. The first move is in
+   * the center.
+   */
+  static class ThreatSelector implements MoveSelector<GomokuState, GomokuMove> {
     @Override
     public GomokuMove select(GomokuState state) {
       if (state.isTerminal())
         throw new TerminalPositionException();
 
-      int i;
-      ThreadLocalRandom random = ThreadLocalRandom.current();
-      do {
-        i = random.nextInt(boardLen);
-      } while (state.board[i] != 0);
+      ThreatTracker tracker = state.getTracker();
+      int player = state.getPlayerBool() ? 0 : 1;
+      int point = tracker.getFivePoint(player);
+      if (point < 0) {
+        point = tracker.getFivePoint(1 - player);
+      }
+      if (point < 0) {
+        if (tracker.getCandidates() > 0) {
+          point = tracker.getCandidate(randomIndex(tracker.getCandidates()));
+        } else if (state.board[state.board.length / 2] == 0) {
+          point = state.board.length / 2;
+        } else {
+          point = state.emptyPoints[randomIndex(state.empty)];
+        }
+      }
 
-      return GomokuMove.of(i);
+      return GomokuMove.of(point);
     }
   }
 
+  /** Random number in [0, bound). */
+  static int randomIndex(int bound) {
+    // Multiplication instead of nextInt(bound), which takes a remainder.
+    // The bias is below bound / 2^32.
+    long r = ThreadLocalRandom.current().nextInt() & 0xffffffffL;
+    return (int) ((r * bound) >>> 32);
+  }
+
   static class RandomNeighborSelector
       implements MoveSelector<GomokuState, GomokuMove> {
     final int size;
@@ -100,10 +146,7 @@ public final class GomokuState implements State<GomokuState, GomokuMove> {
       int i;
       boolean found_neighbor = false;
       do {
-        i = random.nextInt(board_len);
-        if (state.board[i] != 0) {
-          continue;
-        }
+        i = state.emptyPoints[random.nextInt(state.empty)];
         if (i == board_len / 2) {
           break;
         }
@@ -120,16 +163,35 @@ public final class GomokuState implements State<GomokuState, GomokuMove> {
     }
   }
 
-  GomokuState(int size, Limits limits) {
+  GomokuState(int size, Lines lines, Neighbors neighbors, long[] zobristKeys) {
     this.size = size;
-    this.limits = limits;
+    this.lines = lines;
+    this.neighbors = neighbors;
+    this.zobristKeys = zobristKeys;
     board = new byte[size * size];
+    stones = new long[2 * lines.count];
+    emptyPoints = new short[size * size];
+    emptyIndex = new short[size * size];
+    fillEmptyPoints();
     status = GameStatusInt.init();
   }
 
   void reset() {
     Arrays.fill(board, (byte)0);
+    Arrays.fill(stones, 0);
+    fillEmptyPoints();
+    tracker = null;
+    patterns = null;
     status = GameStatusInt.init();
+    hash = 0;
+  }
+
+  private void fillEmptyPoints() {
+    for (int i = 0; i < board.length; i++) {
+      emptyPoints[i] = (short) i;
+      emptyIndex[i] = (short) i;
+    }
+    empty = board.length;
   }
 
   @Override public Gomoku getGame() {
@@ -172,8 +234,65 @@ public final class GomokuState implements State<GomokuState, GomokuMove> {
       throw new IllegalMoveException(this, move, "point is not empty");
     }
 
-    board[move.point] = getPlayerBool() ? (byte)1 : (byte)2;
-    updateStatus(getPlayerBool(), move.point);
+    int point = move.point;
+    boolean player = getPlayerBool();
+    board[point] = player ? (byte)1 : (byte)2;
+    hash ^= zobristKeys[player ? point : board.length + point];
+
+    // Swap the point with the last empty one. Undo only has to grow the list
+    // back, since the point stays right behind its end.
+    int index = emptyIndex[point];
+    int last = emptyPoints[--empty];
+    emptyPoints[index] = (short) last;
+    emptyIndex[last] = (short) index;
+    emptyPoints[empty] = (short) point;
+    emptyIndex[point] = (short) empty;
+
+    updateStatus(player, point);
+    if (tracker != null) {
+      tracker.play(board, stones, player, point);
+    }
+    if (patterns != null) {
+      patterns.play(stones, player, point);
+    }
+  }
+
+  @Override public boolean supportsUndo() {
+    return true;
+  }
+
+  @Override public long playWithUndo(GomokuMove move) {
+    int oldStatus = status;
+    play(move);
+    return oldStatus;
+  }
+
+  @Override public void unplay(GomokuMove move, long undo) {
+    int point = move.point;
+    boolean player = board[point] == 1;
+    assert emptyPoints[empty] == point;
+    empty++;
+
+    int offset = player ? 0 : lines.count;
+    for (int i = 4 * point; i < 4 * point + 4; i++) {
+      stones[offset + lines.line[i]] &= ~lines.mask[i];
+    }
+
+    hash ^= zobristKeys[player ? point : board.length + point];
+    board[point] = 0;
+    status = (int) undo;
+
+    if (tracker != null) {
+      tracker.unplay(board, stones, point);
+    }
+    if (patterns != null) {
+      patterns.unplay(stones, player, point);
+    }
+  }
+
+  /** Side to move is not hashed, since it follows from the number of stones. */
+  @Override public long getHash() {
+    return hash;
   }
 
   @Override public String moveToString(GomokuMove move) {
@@ -203,6 +322,15 @@ public final class GomokuState implements State<GomokuState, GomokuMove> {
     try {
       GomokuState result = (GomokuState) super.clone();
       result.board = board.clone();
+      result.stones = stones.clone();
+      result.emptyPoints = emptyPoints.clone();
+      result.emptyIndex = emptyIndex.clone();
+      if (tracker != null) {
+        result.tracker = tracker.clone();
+      }
+      if (patterns != null) {
+        result.patterns = patterns.clone();
+      }
       return result;
     } catch (CloneNotSupportedException e) {
       throw new AssertionError(e);
@@ -224,44 +352,42 @@ public final class GomokuState implements State<GomokuState, GomokuMove> {
   }
 
   private void updateStatus(boolean player, int point) {
-    boolean won = checkLine(point, limits.w[point], limits.e[point], 1, player)
-        || checkLine(point, limits.n[point], limits.s[point], size, player)
-        || checkLine(
-            point, limits.nw[point], limits.se[point], size + 1, player)
-        || checkLine(
-            point, limits.ne[point], limits.sw[point], size - 1, player);
-
-    status = GameStatusInt.init();
-    if (player)
-      status = GameStatusInt.switchPlayer(status);
+    int offset = player ? 0 : lines.count;
+    int i = 4 * point;
+    // Unrolled by hand, the loop over the directions is noticeably slower.
+    long horizontal = addStone(offset + lines.line[i], lines.mask[i]);
+    long vertical = addStone(offset + lines.line[i + 1], lines.mask[i + 1]);
+    long diagonal = addStone(offset + lines.line[i + 2], lines.mask[i + 2]);
+    long antidiagonal =
+        addStone(offset + lines.line[i + 3], lines.mask[i + 3]);
+    boolean won = (Lines.fives(horizontal) | Lines.fives(vertical) |
+                   Lines.fives(diagonal) | Lines.fives(antidiagonal)) != 0;
+
+    status = GameStatusInt.switchPlayer(status);
     if (won) {
       status = GameStatusInt.setPayoff(status, player ? 1 : -1);
-      return;
+    } else if (empty == 0) {
+      status = GameStatusInt.setPayoff(status, 0);
     }
+  }
 
-    for (int i = 0; i < board.length; i++) {
-      if (board[i] == 0)
-        return;
-    }
-    status = GameStatusInt.setPayoff(status, 0);
+  private long addStone(int line, long mask) {
+    return stones[line] |= mask;
   }
 
-  private boolean checkLine(
-      int center, int lo, int hi, int delta, boolean player) {
-    int l = 1;
-    byte v = player ? (byte)1 : (byte)2;
-    for (int cell = center - delta; cell >= lo; cell -= delta) {
-      if (board[cell] != v)
-        break;
-      l++;
+  /** The pattern scores, created on the first call. */
+  PatternTracker getPatterns() {
+    if (patterns == null) {
+      patterns = new PatternTracker(lines, stones);
     }
+    return patterns;
+  }
 
-    for (int cell = center + delta; cell <= hi; cell += delta) {
-      if (board[cell] != v)
-        break;
-      l++;
+  /** The tracker of candidates and threats, created on the first call. */
+  ThreatTracker getTracker() {
+    if (tracker == null) {
+      tracker = new ThreatTracker(lines, neighbors, board, stones);
     }
-
-    return l >= 5;
+    return tracker;
   }
 }
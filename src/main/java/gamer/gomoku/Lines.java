@@ -0,0 +1,86 @@
+package gamer.gomoku;
+
+/**
+ * Numbering of the horizontal, vertical and diagonal lines of the board.
+ *
+ * The stones of each player on a line are kept as bits of a long, with
+ * neighboring points of the line in neighboring bits. For each point the
+ * tables hold the four lines, that go through it, and its bit in each of
+ * them.
+ */
+final class Lines {
+  private final int size;
+  /** Number of lines of each player. */
+  final int count;
+  /** Line ids, indexed by 4 * point + direction. */
+  final int[] line;
+  /** Single-bit masks of the points in their lines, indexed the same way. */
+  final long[] mask;
+  /** Masks of all the points of the lines, indexed by line id. */
+  final long[] full;
+  /** Number of points of the lines, indexed by line id. */
+  final int[] length;
+  /** Points by line id and bit, indexed by size * id + bit. */
+  private final int[] points;
+
+  Lines(int size) {
+    if (size > 64) {
+      throw new IllegalArgumentException(
+          "board sizes up to 64 are supported, got " + size);
+    }
+
+    this.size = size;
+    int points = size * size;
+    count = 2 * size + 2 * (2 * size - 1);
+    line = new int[4 * points];
+    mask = new long[4 * points];
+    full = new long[count];
+    length = new int[count];
+    this.points = new int[size * count];
+
+    for (int point = 0; point < points; point++) {
+      int x = point % size;
+      int y = point / size;
+      set(point, 0, y, x);
+      set(point, 1, size + x, y);
+      set(point, 2, 2 * size + x - y + size - 1, y);
+      set(point, 3, 2 * size + 2 * size - 1 + x + y, y);
+    }
+  }
+
+  private void set(int point, int direction, int id, int bit) {
+    line[4 * point + direction] = id;
+    mask[4 * point + direction] = 1L << bit;
+    full[id] |= 1L << bit;
+    length[id]++;
+    points[size * id + bit] = point;
+  }
+
+  /** The point with the given bit in the line. */
+  int point(int id, int bit) {
+    return points[size * id + bit];
+  }
+
+  /** Non-zero iff the line has five stones in a row. */
+  static long fives(long stones) {
+    long two = stones & (stones >>> 1);
+    long four = two & (two >>> 2);
+    return four & (stones >>> 4);
+  }
+
+  /** Empty points of the line, that complete a five of the given stones. */
+  static long completions(long stones, long empty) {
+    // Bit x of left(k) is set if the k points before x have stones, same for
+    // right(k) and the points after x.
+    long left1 = stones << 1;
+    long left2 = left1 & (stones << 2);
+    long left3 = left2 & (stones << 3);
+    long left4 = left3 & (stones << 4);
+    long right1 = stones >>> 1;
+    long right2 = right1 & (stones >>> 2);
+    long right3 = right2 & (stones >>> 3);
+    long right4 = right3 & (stones >>> 4);
+    return (left4 | left3 & right1 | left2 & right2 | left1 & right3 |
+            right4) & empty;
+  }
+}
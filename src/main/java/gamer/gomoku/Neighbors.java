@@ -0,0 +1,30 @@
+package gamer.gomoku;
+
+/** For each point on the board -- the adjacent points, including diagonals. */
+final class Neighbors {
+  /** Neighbors of point p are points[start[p]] .. points[start[p + 1] - 1]. */
+  final int[] start;
+  final int[] points;
+
+  Neighbors(int size) {
+    start = new int[size * size + 1];
+    int[] buffer = new int[8 * size * size];
+    int n = 0;
+    for (int point = 0; point < size * size; point++) {
+      start[point] = n;
+      int x = point % size;
+      int y = point / size;
+      for (int dy = -1; dy <= 1; dy++) {
+        for (int dx = -1; dx <= 1; dx++) {
+          if ((dx != 0 || dy != 0) &&
+              x + dx >= 0 && x + dx < size && y + dy >= 0 && y + dy < size) {
+            buffer[n++] = point + dy * size + dx;
+          }
+        }
+      }
+    }
+    start[size * size] = n;
+    points = new int[n];
+    System.arraycopy(buffer, 0, points, 0, n);
+  }
+}
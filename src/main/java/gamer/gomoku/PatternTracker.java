@@ -0,0 +1,113 @@
+package gamer.gomoku;
+
+/**
+ * Sum of the pattern scores of all the windows of five points on the lines
+ * of a GomokuState, updated in constant time on each move.
+ *
+ * A window is encoded by its stones as x | o << 5, where x and o are five
+ * bits of the first and second player's stones. The score of each code is
+ * precomputed: windows with stones of both players are dead, the others
+ * score by the number of stones, positive for the first player.
+ */
+final class PatternTracker implements Cloneable {
+  /** Scores of the windows with 0 to 4 stones of one player. */
+  private static final int[] WEIGHTS = {0, 1, 10, 100, 1000};
+  private static final int[] SCORE = new int[1 << 10];
+  /** Player (0 or 1), that has four stones in the window, -1 if none. */
+  private static final byte[] FOUR = new byte[1 << 10];
+
+  static {
+    for (int code = 0; code < SCORE.length; code++) {
+      int x = Integer.bitCount(code & 0x1f);
+      int o = Integer.bitCount(code >>> 5);
+      FOUR[code] = -1;
+      if (x > 0 && o > 0 || x == 5 || o == 5) {
+        continue;
+      }
+      SCORE[code] = WEIGHTS[x] - WEIGHTS[o];
+      if (x == 4) {
+        FOUR[code] = 0;
+      } else if (o == 4) {
+        FOUR[code] = 1;
+      }
+    }
+  }
+
+  private final Lines lines;
+  private long score = 0;
+  /** Number of windows with a four of each player. */
+  private int[] fours = new int[2];
+
+  PatternTracker(Lines lines, long[] stones) {
+    this.lines = lines;
+    for (int line = 0; line < lines.count; line++) {
+      for (int start = 0; start + 5 <= lines.length[line]; start++) {
+        add(window(stones, line, start), 1);
+      }
+    }
+  }
+
+  /** Score of the position, positive if the first player is better. */
+  long getScore() {
+    return score;
+  }
+
+  /** Whether the player (0 -- first, 1 -- second) has a four. */
+  boolean hasFour(int player) {
+    return fours[player] > 0;
+  }
+
+  /** Update after a stone of the player was played on the point. */
+  void play(long[] stones, boolean player, int point) {
+    update(stones, player, point, 1);
+  }
+
+  /** Update after a stone of the player was removed from the point. */
+  void unplay(long[] stones, boolean player, int point) {
+    update(stones, player, point, -1);
+  }
+
+  /**
+   * Replace the scores of the windows through the point without the stone
+   * with the scores with it, or back, if sign is -1.
+   */
+  private void update(long[] stones, boolean player, int point, int sign) {
+    int shift = player ? 0 : 5;
+    for (int i = 4 * point; i < 4 * point + 4; i++) {
+      int line = lines.line[i];
+      int bit = Long.numberOfTrailingZeros(lines.mask[i]);
+      int first = Math.max(0, bit - 4);
+      int last = Math.min(bit, lines.length[line] - 5);
+      for (int start = first; start <= last; start++) {
+        int stone = 1 << (bit - start + shift);
+        int code = window(stones, line, start);
+        add(code & ~stone, -sign);
+        add(code | stone, sign);
+      }
+    }
+  }
+
+  private int window(long[] stones, int line, int start) {
+    int x = (int) (stones[line] >>> start) & 0x1f;
+    int o = (int) (stones[lines.count + line] >>> start) & 0x1f;
+    return x | o << 5;
+  }
+
+  private void add(int code, int sign) {
+    score += sign * SCORE[code];
+    if (FOUR[code] >= 0) {
+      fours[FOUR[code]] += sign;
+    }
+  }
+
+  @Override
+  public PatternTracker clone() {
+    try {
+      PatternTracker result = (PatternTracker) super.clone();
+      result.fours = fours.clone();
+      return result;
+    } catch (CloneNotSupportedException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
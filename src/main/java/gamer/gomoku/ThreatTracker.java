@@ -0,0 +1,182 @@
+package gamer.gomoku;
+
+/**
+ * Candidate points and threats of a GomokuState, updated in constant time
+ * on each move.
+ *
+ * Candidates are the empty points next to a stone. Threats are the empty
+ * points, that complete a five of one of the players. The tracker doesn't
+ * keep the board, the state passes its board and line stones to the updates.
+ */
+final class ThreatTracker implements Cloneable {
+  private final Lines lines;
+  private final Neighbors neighbors;
+  /** Number of stones next to each point. */
+  private byte[] neighborStones;
+  /** Dense list of the candidates. */
+  private short[] candidatePoints;
+  /** Position of each candidate in candidatePoints. */
+  private short[] candidateIndex;
+  private int candidates = 0;
+  /**
+   * Points, that complete a five, indexed by player * lines.count + line id.
+   * The lines of player p, that have such points, are threatLines[p *
+   * lines.count] .. threatLines[p * lines.count + threatLineCount[p] - 1].
+   */
+  private long[] threats;
+  private short[] threatLines;
+  private short[] threatLineIndex;
+  private int[] threatLineCount;
+
+  ThreatTracker(Lines lines, Neighbors neighbors, byte[] board, long[] stones) {
+    this.lines = lines;
+    this.neighbors = neighbors;
+    neighborStones = new byte[board.length];
+    candidatePoints = new short[board.length];
+    candidateIndex = new short[board.length];
+    for (int point = 0; point < board.length; point++) {
+      if (board[point] != 0) {
+        for (int i = neighbors.start[point]; i < neighbors.start[point + 1];
+             i++) {
+          neighborStones[neighbors.points[i]]++;
+        }
+      }
+    }
+    for (int point = 0; point < board.length; point++) {
+      if (board[point] == 0 && neighborStones[point] > 0) {
+        addCandidate(point);
+      }
+    }
+
+    threats = new long[2 * lines.count];
+    threatLines = new short[2 * lines.count];
+    threatLineIndex = new short[2 * lines.count];
+    threatLineCount = new int[2];
+    for (int line = 0; line < lines.count; line++) {
+      updateThreats(stones, line);
+    }
+  }
+
+  int getCandidates() {
+    return candidates;
+  }
+
+  int getCandidate(int i) {
+    return candidatePoints[i];
+  }
+
+  /**
+   * A point, that completes a five of the player (0 -- first, 1 -- second),
+   * -1 if there are none.
+   */
+  int getFivePoint(int player) {
+    if (threatLineCount[player] == 0) {
+      return -1;
+    }
+    int index = threatLines[player * lines.count];
+    int bit = Long.numberOfTrailingZeros(threats[index]);
+    return lines.point(index - player * lines.count, bit);
+  }
+
+  /**
+   * Update after a stone was played. The completion points of the player are
+   * recomputed on the lines through the stone. The opponent only loses the
+   * point of the stone, since it can be the only empty point of a window with
+   * four opponent's stones.
+   */
+  void play(byte[] board, long[] stones, boolean player, int point) {
+    if (neighborStones[point] > 0) {
+      removeCandidate(point);
+    }
+    for (int i = neighbors.start[point]; i < neighbors.start[point + 1]; i++) {
+      int neighbor = neighbors.points[i];
+      if (++neighborStones[neighbor] == 1 && board[neighbor] == 0) {
+        addCandidate(neighbor);
+      }
+    }
+
+    int own = player ? 0 : 1;
+    int offset = own * lines.count;
+    for (int i = 4 * point; i < 4 * point + 4; i++) {
+      int line = lines.line[i];
+      long empty =
+          lines.full[line] & ~(stones[line] | stones[lines.count + line]);
+      setThreats(own, line, Lines.completions(stones[offset + line], empty));
+      int index = (lines.count - offset) + line;
+      if ((threats[index] & lines.mask[i]) != 0) {
+        setThreats(1 - own, line, threats[index] & ~lines.mask[i]);
+      }
+    }
+  }
+
+  /** Update after a stone was removed from the point. */
+  void unplay(byte[] board, long[] stones, int point) {
+    for (int i = neighbors.start[point]; i < neighbors.start[point + 1]; i++) {
+      int neighbor = neighbors.points[i];
+      if (--neighborStones[neighbor] == 0 && board[neighbor] == 0) {
+        removeCandidate(neighbor);
+      }
+    }
+    if (neighborStones[point] > 0) {
+      addCandidate(point);
+    }
+
+    for (int i = 4 * point; i < 4 * point + 4; i++) {
+      updateThreats(stones, lines.line[i]);
+    }
+  }
+
+  @Override
+  public ThreatTracker clone() {
+    try {
+      ThreatTracker result = (ThreatTracker) super.clone();
+      result.neighborStones = neighborStones.clone();
+      result.candidatePoints = candidatePoints.clone();
+      result.candidateIndex = candidateIndex.clone();
+      result.threats = threats.clone();
+      result.threatLines = threatLines.clone();
+      result.threatLineIndex = threatLineIndex.clone();
+      result.threatLineCount = threatLineCount.clone();
+      return result;
+    } catch (CloneNotSupportedException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private void addCandidate(int point) {
+    candidatePoints[candidates] = (short) point;
+    candidateIndex[point] = (short) candidates;
+    candidates++;
+  }
+
+  private void removeCandidate(int point) {
+    int last = candidatePoints[--candidates];
+    int index = candidateIndex[point];
+    candidatePoints[index] = (short) last;
+    candidateIndex[last] = (short) index;
+  }
+
+  /** Recompute the completion points of both players on the line. */
+  private void updateThreats(long[] stones, int line) {
+    long empty =
+        lines.full[line] & ~(stones[line] | stones[lines.count + line]);
+    setThreats(0, line, Lines.completions(stones[line], empty));
+    setThreats(1, line, Lines.completions(stones[lines.count + line], empty));
+  }
+
+  private void setThreats(int player, int line, long points) {
+    int index = player * lines.count + line;
+    long old = threats[index];
+    threats[index] = points;
+    if (old == 0 && points != 0) {
+      int position = player * lines.count + threatLineCount[player]++;
+      threatLines[position] = (short) index;
+      threatLineIndex[index] = (short) position;
+    } else if (old != 0 && points == 0) {
+      int last = threatLines[player * lines.count + --threatLineCount[player]];
+      int position = threatLineIndex[index];
+      threatLines[position] = (short) last;
+      threatLineIndex[last] = (short) position;
+    }
+  }
+}
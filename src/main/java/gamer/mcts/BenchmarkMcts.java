@@ -4,11 +4,132 @@ import gamer.benchmark.Benchmark;
 import gamer.chess.Chess;
 import gamer.chess.ChessMove;
 import gamer.chess.ChessState;
+import gamer.def.MoveSelector;
 import gamer.gomoku.Gomoku;
 import gamer.gomoku.GomokuMove;
 import gamer.gomoku.GomokuState;
+import gamer.tournament.Tournament;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 
 public class BenchmarkMcts {
+  private static GomokuMove gomoku100kSamples(
+      int reps, MonteCarloPlayer.Parallelization parallelization) {
+    MonteCarloPlayer<GomokuState, GomokuMove> player = new MonteCarloPlayer<>(Gomoku.getInstance());
+    player.setMaxSamples(100000);
+    player.setTimeout(-1);
+    player.setMaxWorkers(Runtime.getRuntime().availableProcessors());
+    player.setParallelization(parallelization);
+
+    GomokuMove move = null;
+    for (int i = 0; i < reps; i++) {
+      GomokuState s = Gomoku.getInstance().newGame();
+      move = player.selectMove(s);
+    }
+
+    return move;
+  }
+
+  /**
+   * Print the samples per second of each parallelization strategy with 1, 2,
+   * 4, ... threads, up to the number of cores.
+   */
+  public static void printScalingReport(long moveTimeMs) {
+    int cores = Runtime.getRuntime().availableProcessors();
+    System.out.format("Samples per second, gomoku 19x19, %d ms per move.%n",
+                      moveTimeMs);
+    System.out.format("%-8s", "threads");
+    for (MonteCarloPlayer.Parallelization p :
+         MonteCarloPlayer.Parallelization.values()) {
+      System.out.format(" %10s", p);
+    }
+    System.out.println();
+
+    for (int threads = 1; threads <= cores;
+         threads = threads < cores ? Math.min(2 * threads, cores) : cores + 1) {
+      System.out.format("%-8d", threads);
+      for (MonteCarloPlayer.Parallelization p :
+           MonteCarloPlayer.Parallelization.values()) {
+        MonteCarloPlayer<GomokuState, GomokuMove> player =
+            new MonteCarloPlayer<>(Gomoku.getInstance());
+        player.setTimeout(moveTimeMs);
+        player.setMaxWorkers(threads);
+        player.setParallelization(p);
+        // Warm up.
+        player.selectMove(Gomoku.getInstance().newGame());
+        long start = System.currentTimeMillis();
+        player.selectMove(Gomoku.getInstance().newGame());
+        long time = System.currentTimeMillis() - start;
+        System.out.format(" %10.0f", 1000.0 * player.getLastSamples() / time);
+      }
+      System.out.println();
+    }
+  }
+
+  /**
+   * Compare the gomoku playout selectors: average playout length, playouts
+   * per second and the share of the first player's wins. Then play a
+   * tournament between MonteCarloPlayers with the neighbor and threat
+   * selectors.
+   */
+  public static void printSelectorReport(long moveTimeMs, int rounds) {
+    Gomoku gomoku = Gomoku.getInstance();
+    System.out.println("Playouts from the empty board, gomoku 19x19.");
+    System.out.format("%-9s %7s %11s %7s%n",
+                      "selector", "length", "playouts/s", "X wins");
+    for (String name : new String[]{"random", "neighbor", "threat"}) {
+      MoveSelector<GomokuState, GomokuMove> selector =
+          gomoku.getMoveSelector(name);
+      // Warm up.
+      playouts(gomoku, selector, 1000);
+      long start = System.currentTimeMillis();
+      long[] stats = new long[3];
+      while (System.currentTimeMillis() - start < 2000) {
+        long[] batch = playouts(gomoku, selector, 1000);
+        for (int i = 0; i < stats.length; i++) {
+          stats[i] += batch[i];
+        }
+      }
+      long time = System.currentTimeMillis() - start;
+      System.out.format("%-9s %7.1f %11.0f %7.3f%n", name,
+                        (double) stats[1] / stats[0],
+                        1000.0 * stats[0] / time,
+                        (double) stats[2] / stats[0]);
+    }
+
+    Tournament<GomokuState, GomokuMove> tournament =
+        new Tournament<>(gomoku.newGame());
+    tournament.setTimeout((int) moveTimeMs);
+    tournament.setRounds(rounds);
+    for (String name : new String[]{"neighbor", "threat"}) {
+      MonteCarloPlayer<GomokuState, GomokuMove> player =
+          new MonteCarloPlayer<>(gomoku);
+      player.setSelector(name);
+      tournament.addPlayer(player);
+    }
+    tournament.play();
+  }
+
+  /** Number of playouts, total number of moves and first player's wins. */
+  private static long[] playouts(
+      Gomoku gomoku, MoveSelector<GomokuState, GomokuMove> selector,
+      int count) {
+    long[] stats = new long[3];
+    for (int i = 0; i < count; i++) {
+      GomokuState state = gomoku.newGame();
+      while (!state.isTerminal()) {
+        state.play(selector.select(state));
+        stats[1]++;
+      }
+      stats[0]++;
+      if (state.getPayoff(0) > 0) {
+        stats[2]++;
+      }
+    }
+    return stats;
+  }
+
   @Benchmark
   public static GomokuMove mctsGomoku100kSamplesMulti(int reps) {
     int cores = Runtime.getRuntime().availableProcessors();
@@ -28,6 +149,57 @@ public class BenchmarkMcts {
     return move;
   }
 
+  /**
+   * Print the number of bytes allocated per sample by a single-threaded
+   * search, for the Node and the flat trees. The children threshold is high,
+   * so that the tree is mostly not expanded and the sampling loop itself is
+   * measured.
+   */
+  public static void printAllocationReport() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      System.out.println("Allocation counting is not supported by the JVM.");
+      return;
+    }
+    com.sun.management.ThreadMXBean threadBean =
+        (com.sun.management.ThreadMXBean) bean;
+    long thread = Thread.currentThread().getId();
+    int samples = 100000;
+
+    System.out.println("Bytes allocated per sample, gomoku 19x19.");
+    for (boolean flat : new boolean[]{false, true}) {
+      for (int batch : new int[]{1, 4}) {
+        MonteCarloPlayer<GomokuState, GomokuMove> player =
+            new MonteCarloPlayer<>(Gomoku.getInstance());
+        player.setFlatTree(flat);
+        player.setSamplesBatch(batch);
+        player.setChildrenThreshold(1000);
+        player.setTimeout(-1);
+        player.setTreeReuse(false);
+        // Warm up.
+        player.setMaxSamples(samples / 5);
+        player.selectMove(Gomoku.getInstance().newGame());
+
+        player.setMaxSamples(samples);
+        long before = threadBean.getThreadAllocatedBytes(thread);
+        player.selectMove(Gomoku.getInstance().newGame());
+        long bytes = threadBean.getThreadAllocatedBytes(thread) - before;
+        System.out.format("%-5s tree, batch %d: %6.1f%n", flat ? "flat" : "node",
+                          batch, (double) bytes / player.getLastSamples());
+      }
+    }
+  }
+
+  @Benchmark
+  public static GomokuMove mctsGomoku100kSamplesMultiRoot(int reps) {
+    return gomoku100kSamples(reps, MonteCarloPlayer.Parallelization.ROOT);
+  }
+
+  @Benchmark
+  public static GomokuMove mctsGomoku100kSamplesMultiHybrid(int reps) {
+    return gomoku100kSamples(reps, MonteCarloPlayer.Parallelization.HYBRID);
+  }
+
 //  @Benchmark
   public static GomokuMove mctsGomoku100kSamplesHalf(int reps) {
     int cores = Runtime.getRuntime().availableProcessors();
@@ -63,4 +235,40 @@ public class BenchmarkMcts {
 
     return move;
   }
+
+  @Benchmark
+  public static GomokuMove mctsGomoku100kSamplesFlatSingle(int reps) {
+    MonteCarloPlayer<GomokuState, GomokuMove> player = new MonteCarloPlayer<>(Gomoku.getInstance());
+    player.setMaxSamples(100000);
+    player.setTimeout(-1);
+    player.setSamplesBatch(1);
+    player.setMaxWorkers(1);
+    player.setFlatTree(true);
+
+    GomokuMove move = null;
+    for (int i = 0; i < reps; i++) {
+      GomokuState s = Gomoku.getInstance().newGame();
+      move = player.selectMove(s);
+    }
+
+    return move;
+  }
+
+  /** Many short searches, where starting the threads is noticeable. */
+  @Benchmark
+  public static GomokuMove mctsGomoku1kSamplesThreads4(int reps) {
+    MonteCarloPlayer<GomokuState, GomokuMove> player = new MonteCarloPlayer<>(Gomoku.getInstance());
+    player.setMaxSamples(1000);
+    player.setTimeout(-1);
+    player.setSamplesBatch(1);
+    player.setMaxWorkers(4);
+
+    GomokuMove move = null;
+    for (int i = 0; i < reps; i++) {
+      GomokuState s = Gomoku.getInstance().newGame();
+      move = player.selectMove(s);
+    }
+
+    return move;
+  }
 }
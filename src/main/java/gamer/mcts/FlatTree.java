@@ -0,0 +1,497 @@
+package gamer.mcts;
+
+import gamer.def.Game;
+import gamer.def.Move;
+import gamer.def.Solver;
+import gamer.def.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * MCTS tree stored in parallel primitive arrays instead of Node objects.
+ *
+ * Nodes are referred to by int indices, the root is 0. Children of a node
+ * take a contiguous range of indices, allocated with a bump allocator. The
+ * arrays are split into chunks of CHUNK_SIZE nodes, which are allocated when
+ * the tree grows and kept when it's cleared. The children of a node are
+ * always in the same chunk.
+ *
+ * Per node: first child (4 bytes), number of children or -1 for terminal
+ * and solved nodes (2), move reference (4), total and pending samples packed
+ * into a long (8), and the sums of payoffs and payoff squares as fixed-point
+ * longs (16), with the same scales as in Node. For terminal and solved nodes
+ * the sum of payoffs holds the exact payoff. The player isn't stored, it's
+ * taken from the state during the traversal. Chance nodes of the games, that
+ * number the random moves, also keep a table from
+ * State.getChanceOutcomeIndex() to the child (4 bytes per node for the
+ * reference).
+ */
+final class FlatTree<S extends State<S, M>, M extends Move> {
+  static final int LEAF = -1;
+  private static final int EXPANDING = -2;
+  private static final short TERMINAL = -1;
+
+  private static final int CHUNK_BITS = 16;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private final int minPayoff;
+  private final int minPayoffSquare;
+  private final int payoffSpread;
+  private final double sumScale;
+  private final double squaresScale;
+
+  /** Weight of the pending samples, see Node.Context.virtualLoss. */
+  private double virtualLoss = 1;
+  private Solver<S, M> solver = null;
+
+  private final int maxNodes;
+  private final AtomicInteger size = new AtomicInteger();
+  /** Chunks below this index are allocated. */
+  private volatile int allocatedChunks = 0;
+
+  private final AtomicIntegerArray[] firstChild;
+  private final short[][] childrenCount;
+  private final Object[][] moves;
+  private final AtomicLongArray[] samples;
+  private final AtomicLongArray[] payoffSums;
+  private final AtomicLongArray[] payoffSquares;
+  /** Offset of the child for each outcome of a chance node, or null. */
+  private final short[][][] outcomeChildren;
+
+  FlatTree(Game<S, M> game, int maxNodes) {
+    minPayoff = game.getMinPayoff();
+    minPayoffSquare = minPayoff * minPayoff;
+    payoffSpread = game.getMaxPayoff() - minPayoff;
+    Node.Context<S, M> context = new Node.Context<>(game);
+    sumScale = context.sumScale;
+    squaresScale = context.squaresScale;
+
+    this.maxNodes = maxNodes;
+    int chunks = (maxNodes + CHUNK_SIZE - 1) >> CHUNK_BITS;
+    firstChild = new AtomicIntegerArray[chunks];
+    childrenCount = new short[chunks][];
+    moves = new Object[chunks][];
+    samples = new AtomicLongArray[chunks];
+    payoffSums = new AtomicLongArray[chunks];
+    payoffSquares = new AtomicLongArray[chunks];
+    outcomeChildren = new short[chunks][][];
+  }
+
+  /** Remove all the nodes and create a root for the state. */
+  void reset(S rootState) {
+    size.set(1);
+    allocateChunks(1);
+    initNode(0, rootState, null);
+  }
+
+  /**
+   * Replace the tree with a copy of a subtree of another tree, rooted at the
+   * given node. There should be no pending samples in the copied nodes.
+   */
+  void copySubtree(FlatTree<S, M> from, int node) {
+    size.set(1);
+    allocateChunks(1);
+    copyNode(from, node, 0);
+    moves[0][0] = null;
+    copyChildren(from, node, 0);
+  }
+
+  void setVirtualLoss(double virtualLoss) {
+    this.virtualLoss = virtualLoss;
+  }
+
+  /** Solver for the exact payoffs of the new nodes, see Node.Context. */
+  void setSolver(Solver<S, M> solver) {
+    this.solver = solver;
+  }
+
+  int size() {
+    return size.get();
+  }
+
+  boolean hasChildren(int node) {
+    return firstChild(node) >= 0;
+  }
+
+  /** Index of the first child, or a negative value if not expanded. */
+  int firstChild(int node) {
+    return firstChild[node >>> CHUNK_BITS].get(node & CHUNK_MASK);
+  }
+
+  int childrenCount(int node) {
+    return Math.max(0, childrenCount[node >>> CHUNK_BITS][node & CHUNK_MASK]);
+  }
+
+  @SuppressWarnings("unchecked")
+  M getMove(int node) {
+    return (M) moves[node >>> CHUNK_BITS][node & CHUNK_MASK];
+  }
+
+  boolean hasExactPayoff(int node) {
+    return childrenCount[node >>> CHUNK_BITS][node & CHUNK_MASK] == TERMINAL;
+  }
+
+  int getExactPayoff(int node) {
+    return (int) payoffSum(node);
+  }
+
+  int getChild(int node, M move) {
+    int first = firstChild(node);
+    int end = first + childrenCount(node);
+    for (int child = first; child < end; child++) {
+      if (getMove(child).equals(move)) {
+        return child;
+      }
+    }
+    throw new RuntimeException("Requested a child node with unknown move.");
+  }
+
+  /** Same as getChild(), but for a chance node finds the child directly. */
+  int getOutcomeChild(int node, S state, M move) {
+    short[] table = outcomeChildren[node >>> CHUNK_BITS][node & CHUNK_MASK];
+    if (table == null) {
+      return getChild(node, move);
+    }
+    return firstChild(node) + table[state.getChanceOutcomeIndex(move)];
+  }
+
+  /**
+   * Create the children of the node. If another thread is already doing it,
+   * or the tree is full, the node is left without children.
+   *
+   * @return Whether the node has children after the call.
+   */
+  boolean initChildren(int node, S state) {
+    AtomicIntegerArray chunk = firstChild[node >>> CHUNK_BITS];
+    int offset = node & CHUNK_MASK;
+    if (chunk.get(offset) != LEAF ||
+        !chunk.compareAndSet(offset, LEAF, EXPANDING)) {
+      return hasChildren(node);
+    }
+
+    List<M> nodeMoves = state.getMoves();
+    int count = nodeMoves.size();
+    int first = allocate(count);
+    if (first < 0) {
+      chunk.set(offset, LEAF);
+      return false;
+    }
+
+    boolean undo = state.supportsUndo();
+    for (int i = 0; i < count; i++) {
+      M move = nodeMoves.get(i);
+      if (undo) {
+        long undoToken = state.playWithUndo(move);
+        initNode(first + i, state, move);
+        state.unplay(move, undoToken);
+      } else {
+        S stateClone = state.clone();
+        stateClone.play(move);
+        initNode(first + i, stateClone, move);
+      }
+    }
+
+    int outcomes = state.isRandom() ? state.getChanceOutcomes() : 0;
+    if (outcomes > 0) {
+      short[] table = new short[outcomes];
+      for (int i = 0; i < count; i++) {
+        table[state.getChanceOutcomeIndex(nodeMoves.get(i))] = (short) i;
+      }
+      outcomeChildren[node >>> CHUNK_BITS][offset] = table;
+    }
+
+    childrenCount[node >>> CHUNK_BITS][offset] = (short) count;
+    // The volatile write publishes the children to the other threads.
+    chunk.set(offset, first);
+    return true;
+  }
+
+  int getTotalSamples(int node) {
+    return (int) (samples(node) >>> 32);
+  }
+
+  int getCompleteSamples(int node) {
+    long s = samples(node);
+    return (int) (s >>> 32) - (int) s;
+  }
+
+  void addExactSamples(int node, int count) {
+    samples[node >>> CHUNK_BITS].getAndAdd(node & CHUNK_MASK,
+                                           (long) count << 32);
+  }
+
+  void addPendingSamples(int node, int count) {
+    samples[node >>> CHUNK_BITS].getAndAdd(
+        node & CHUNK_MASK, ((long) count << 32) | count);
+  }
+
+  void addSamples(int node, int count, double payoffSum,
+                  double payoffSquaresSum) {
+    int chunk = node >>> CHUNK_BITS;
+    int offset = node & CHUNK_MASK;
+    payoffSums[chunk].getAndAdd(offset, Math.round(payoffSum * sumScale));
+    payoffSquares[chunk].getAndAdd(
+        offset, Math.round(payoffSquaresSum * squaresScale));
+    samples[chunk].getAndAdd(offset, -count);
+  }
+
+  double getPayoff(int node) {
+    if (hasExactPayoff(node)) {
+      return getExactPayoff(node);
+    }
+    return payoffSum(node) / sumScale / getCompleteSamples(node);
+  }
+
+  /** Same as Node.getBiasedScore(). */
+  double getBiasedScore(int node, double logParentSamples, boolean reverse) {
+    int chunk = node >>> CHUNK_BITS;
+    int offset = node & CHUNK_MASK;
+    return biasedScore(samples[chunk].get(offset),
+                       payoffSums[chunk].get(offset),
+                       payoffSquares[chunk].get(offset), hasExactPayoff(node),
+                       logParentSamples, reverse);
+  }
+
+  private double biasedScore(long s, long sum, long squares, boolean exact,
+                             double logParentSamples, boolean reverse) {
+    assert logParentSamples >= 0;
+
+    int pending = (int) s;
+    double pendingSamples = virtualLoss * pending + 1;
+    double totalSamples = (s >>> 32) - pending + pendingSamples;
+
+    double coefficient = logParentSamples / totalSamples;
+
+    if (exact) {
+      int exactPayoff = (int) sum;
+      return (reverse ? -exactPayoff : exactPayoff) +
+             3 * payoffSpread * coefficient;
+    }
+
+    double mean =
+        (sum / sumScale + minPayoff * pendingSamples) / totalSamples;
+    double variance =
+        (squares / squaresScale + minPayoffSquare * pendingSamples) /
+            totalSamples -
+        mean * mean;
+
+    if (variance < 0) {
+      variance = payoffSpread * payoffSpread / 4.0;
+    }
+
+    return (reverse ? -mean : mean) + Math.sqrt(2 * variance * coefficient) +
+           3 * payoffSpread * coefficient;
+  }
+
+  /** The child with the highest biased score, see getBiasedScore(). */
+  int selectBestChild(int node, double logParentSamples, boolean reverse) {
+    int first = firstChild(node);
+    int chunk = first >>> CHUNK_BITS;
+    AtomicLongArray chunkSamples = samples[chunk];
+    AtomicLongArray chunkSums = payoffSums[chunk];
+    AtomicLongArray chunkSquares = payoffSquares[chunk];
+    short[] chunkCounts = childrenCount[chunk];
+    int begin = first & CHUNK_MASK;
+    int end = begin + childrenCount(node);
+
+    double maxScore = Double.NEGATIVE_INFINITY;
+    int best = -1;
+    for (int i = begin; i < end; i++) {
+      double score = biasedScore(
+          chunkSamples.get(i), chunkSums.get(i), chunkSquares.get(i),
+          chunkCounts[i] == TERMINAL, logParentSamples, reverse);
+      if (score > maxScore) {
+        maxScore = score;
+        best = i;
+      }
+    }
+    return best < 0 ? -1 : (chunk << CHUNK_BITS) + best;
+  }
+
+  String toString(S state, int nnodes) {
+    int samplesLo = 0;
+    int samplesHi = getTotalSamples(0);
+
+    // Find the threshold, with which about nnodes are shown.
+    while (samplesHi - samplesLo > 1) {
+      int samplesMid = (samplesHi + samplesLo) / 2;
+      int nodesAboveThreshold = countNodes(0, samplesMid, nnodes + 1);
+      if (nodesAboveThreshold >= nnodes) {
+        samplesLo = samplesMid;
+      }
+      if (nodesAboveThreshold <= nnodes) {
+        samplesHi = samplesMid;
+      }
+    }
+
+    StringBuilder builder = new StringBuilder();
+    appendNested(builder, 0, state, 0, samplesLo);
+    return builder.toString();
+  }
+
+  private int countNodes(int node, int minSamples, int limit) {
+    if (getTotalSamples(node) < minSamples) {
+      return 0;
+    }
+    int count = 1;
+    int first = firstChild(node);
+    for (int child = first; first >= 0 && child < first + childrenCount(node) &&
+                            count < limit; child++) {
+      count += countNodes(child, minSamples, limit - count);
+    }
+    return count;
+  }
+
+  private void appendNested(
+      StringBuilder builder, int node, S state, int indent, int minSamples) {
+    builder.append('\n');
+    for (int i = 0; i < indent; i++) {
+      builder.append(' ');
+    }
+    M move = getMove(node);
+    builder.append(move != null ? state.moveToString(move) : "root");
+    long s = samples(node);
+    int pending = (int) s;
+    builder.append(String.format(" %s%.3f %d",
+                                 hasExactPayoff(node) ? "=" : "",
+                                 getPayoff(node), (s >>> 32) - pending));
+    if (pending > 0) {
+      builder.append(String.format(" + %d", pending));
+    }
+
+    int first = firstChild(node);
+    if (first < 0) {
+      return;
+    }
+    List<Integer> children = new ArrayList<>();
+    for (int child = first; child < first + childrenCount(node); child++) {
+      if (getTotalSamples(child) >= minSamples) {
+        children.add(child);
+      }
+    }
+    children.sort((c1, c2) -> getTotalSamples(c2) - getTotalSamples(c1));
+
+    S nextState = state;
+    if (move != null) {
+      nextState = state.clone();
+      nextState.play(move);
+    }
+    for (int child : children) {
+      appendNested(builder, child, nextState, indent + 2, minSamples);
+    }
+  }
+
+  private void initNode(int node, S state, M move) {
+    int chunk = node >>> CHUNK_BITS;
+    int offset = node & CHUNK_MASK;
+    moves[chunk][offset] = move;
+    samples[chunk].set(offset, 0);
+    payoffSquares[chunk].set(offset, 0);
+    Solver.Result<M> result = null;
+    if (state.isTerminal()) {
+      childrenCount[chunk][offset] = TERMINAL;
+      payoffSums[chunk].set(offset, state.getPayoff(0));
+    } else if (solver != null && (result = solver.solve(state)) != null) {
+      childrenCount[chunk][offset] = TERMINAL;
+      payoffSums[chunk].set(offset, result.payoff);
+    } else {
+      childrenCount[chunk][offset] = 0;
+      payoffSums[chunk].set(offset, 0);
+    }
+    outcomeChildren[chunk][offset] = null;
+    firstChild[chunk].set(offset, LEAF);
+  }
+
+  private void copyNode(FlatTree<S, M> from, int src, int dst) {
+    int chunk = dst >>> CHUNK_BITS;
+    int offset = dst & CHUNK_MASK;
+    moves[chunk][offset] = from.getMove(src);
+    samples[chunk].set(offset, from.samples(src));
+    payoffSums[chunk].set(offset, from.payoffSum(src));
+    payoffSquares[chunk].set(
+        offset, from.payoffSquares[src >>> CHUNK_BITS].get(src & CHUNK_MASK));
+    childrenCount[chunk][offset] =
+        from.hasExactPayoff(src) ? TERMINAL : 0;
+    outcomeChildren[chunk][offset] = null;
+    firstChild[chunk].set(offset, LEAF);
+  }
+
+  private void copyChildren(FlatTree<S, M> from, int src, int dst) {
+    int first = from.firstChild(src);
+    if (first < 0) {
+      return;
+    }
+    int count = from.childrenCount(src);
+    int newFirst = allocate(count);
+    if (newFirst < 0) {
+      return;
+    }
+    for (int i = 0; i < count; i++) {
+      copyNode(from, first + i, newFirst + i);
+    }
+    childrenCount[dst >>> CHUNK_BITS][dst & CHUNK_MASK] = (short) count;
+    outcomeChildren[dst >>> CHUNK_BITS][dst & CHUNK_MASK] =
+        from.outcomeChildren[src >>> CHUNK_BITS][src & CHUNK_MASK];
+    firstChild[dst >>> CHUNK_BITS].set(dst & CHUNK_MASK, newFirst);
+    for (int i = 0; i < count; i++) {
+      copyChildren(from, first + i, newFirst + i);
+    }
+  }
+
+  /**
+   * Reserve a range of nodes within a single chunk.
+   *
+   * @return The first node of the range, or -1 if the tree is full.
+   */
+  private int allocate(int count) {
+    while (true) {
+      int current = size.get();
+      int first = current;
+      if ((first & CHUNK_MASK) + count > CHUNK_SIZE) {
+        // Skip the rest of the chunk.
+        first = (first | CHUNK_MASK) + 1;
+      }
+      if (first + count > maxNodes) {
+        return -1;
+      }
+      if (size.compareAndSet(current, first + count)) {
+        allocateChunks(first + count);
+        return first;
+      }
+    }
+  }
+
+  /** Make sure that the nodes up to the given one (exclusive) can be used. */
+  private void allocateChunks(int to) {
+    int chunks = ((to - 1) >>> CHUNK_BITS) + 1;
+    if (chunks <= allocatedChunks) {
+      return;
+    }
+    synchronized (this) {
+      for (int chunk = allocatedChunks; chunk < chunks; chunk++) {
+        firstChild[chunk] = new AtomicIntegerArray(CHUNK_SIZE);
+        childrenCount[chunk] = new short[CHUNK_SIZE];
+        moves[chunk] = new Object[CHUNK_SIZE];
+        samples[chunk] = new AtomicLongArray(CHUNK_SIZE);
+        payoffSums[chunk] = new AtomicLongArray(CHUNK_SIZE);
+        payoffSquares[chunk] = new AtomicLongArray(CHUNK_SIZE);
+        outcomeChildren[chunk] = new short[CHUNK_SIZE][];
+      }
+      // The volatile write publishes the new chunks.
+      allocatedChunks = Math.max(allocatedChunks, chunks);
+    }
+  }
+
+  private long samples(int node) {
+    return samples[node >>> CHUNK_BITS].get(node & CHUNK_MASK);
+  }
+
+  private long payoffSum(int node) {
+    return payoffSums[node >>> CHUNK_BITS].get(node & CHUNK_MASK);
+  }
+}
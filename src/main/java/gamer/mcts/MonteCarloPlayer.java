@@ -3,20 +3,40 @@ package gamer.mcts;
 import gamer.def.ComputerPlayer;
 import gamer.def.Evaluator;
 import gamer.def.Game;
+import gamer.def.HashableState;
 import gamer.def.Move;
 import gamer.def.MoveSelector;
+import gamer.def.Solver;
 import gamer.def.State;
+import gamer.util.SearchPool;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
 
 public class MonteCarloPlayer<S extends State<S, M>, M extends Move>
     implements ComputerPlayer<S, M> {
+  /** How the search is split between the worker threads. */
+  public enum Parallelization {
+    /**
+     * All the threads share one tree. The pending samples are counted as
+     * losses (virtual loss), so that the threads select different paths.
+     */
+    TREE,
+    /**
+     * Each thread searches its own tree. The statistics of the root children
+     * are merged at the end.
+     */
+    ROOT,
+    /**
+     * Each thread searches its own tree, and every syncInterval samples
+     * exchanges the statistics of the root children with the other threads.
+     */
+    HYBRID
+  }
+
   private long timeout = 1000;
   private long samplesLimit = 0;
   private int maxDepth = 0;
@@ -27,12 +47,31 @@ public class MonteCarloPlayer<S extends State<S, M>, M extends Move>
 
   private final Game<S, M> game;
   private MoveSelector<S, M> selector = null;
+  private String selectorName = "random";
   private Evaluator<S> evaluator = null;
   private int samplesBatch = 1;
   private int workers = 1;
   private int childrenThreshold = 1;
   private String report;
   private final Node.Context<S, M> nodeContext;
+  private boolean useFlatTree = false;
+  private int maxTreeNodes = 1 << 24;
+  private FlatTree<S, M> flatTree = null;
+  // The tree, into which the reused subtree is copied on the next move. The
+  // two trees are swapped, so that their chunks are allocated only once.
+  private FlatTree<S, M> spareFlatTree = null;
+  private boolean reuseTree = true;
+  private long reusedSamples = 0;
+  // The tree of the previous search, its root state and the selected move.
+  private Node<S, M> previousRoot = null;
+  private S previousState = null;
+  private M previousMove = null;
+  private SearchPool searchPool = null;
+  // Set by cancel(), and cleared only when selectMove() returns.
+  private volatile boolean cancelled = false;
+  private Parallelization parallelization = Parallelization.TREE;
+  private int syncInterval = 256;
+  private long lastSamples = 0;
 
   public MonteCarloPlayer(Game<S, M> game) {
     this.game = game;
@@ -42,6 +81,7 @@ public class MonteCarloPlayer<S extends State<S, M>, M extends Move>
 
   public void setSelector(String selectorName) {
     selector = game.getMoveSelector(selectorName);
+    this.selectorName = selectorName;
   }
 
   public void setEvaluator(Evaluator<S> evaluator) {
@@ -62,9 +102,12 @@ public class MonteCarloPlayer<S extends State<S, M>, M extends Move>
 
     String evaluatorStr = evaluator == null ? "" : " evaluator";
 
+    String selectorStr = selectorName.equals("random") ? "" : String
+        .format(" selector=%s", selectorName);
+
     return String
-        .format("MonteCarloPlayer(timeout=%01.1f%s%s%s)", timeout / 1000.0,
-                batchStr, workersStr, evaluatorStr);
+        .format("MonteCarloPlayer(timeout=%01.1f%s%s%s%s)", timeout / 1000.0,
+                batchStr, workersStr, evaluatorStr, selectorStr);
   }
 
   @Override
@@ -82,6 +125,26 @@ public class MonteCarloPlayer<S extends State<S, M>, M extends Move>
     this.timeout = timeout;
   }
 
+  @Override
+  public void setSearchPool(SearchPool pool) {
+    searchPool = pool;
+  }
+
+  /**
+   * The positions solved by the solver get exact payoffs in the tree, and
+   * the move of a solved root is returned without a search.
+   */
+  @Override
+  public void addSolver(Solver<S, M> solver) {
+    nodeContext.solver = solver;
+    forgetTree();
+  }
+
+  @Override
+  public void cancel() {
+    cancelled = true;
+  }
+
   public void setChildrenThreshold(int threshold) {
     if (threshold < 1) {
       throw new RuntimeException("Children threshold should be at least 1");
@@ -89,52 +152,370 @@ public class MonteCarloPlayer<S extends State<S, M>, M extends Move>
     childrenThreshold = threshold;
   }
 
+  /**
+   * Store the tree in preallocated primitive arrays (see FlatTree) instead of
+   * Node objects. Uses much less memory and creates almost no garbage.
+   */
+  public void setFlatTree(boolean enabled) {
+    useFlatTree = enabled;
+    forgetTree();
+  }
+
+  /**
+   * Maximum number of nodes in the flat tree. When it's full, the leaves are
+   * not expanded anymore.
+   */
+  public void setMaxTreeNodes(int maxNodes) {
+    maxTreeNodes = maxNodes;
+    flatTree = null;
+    spareFlatTree = null;
+    forgetTree();
+  }
+
+  private void forgetTree() {
+    previousRoot = null;
+    previousState = null;
+    previousMove = null;
+  }
+
+  /**
+   * Keep the subtree of the position after our previous move and the
+   * opponent's reply, and continue the search from it.
+   */
+  public void setTreeReuse(boolean enabled) {
+    reuseTree = enabled;
+    forgetTree();
+  }
+
+  public void setParallelization(Parallelization parallelization) {
+    this.parallelization = parallelization;
+  }
+
+  /**
+   * Weight of the pending samples in tree parallelization. 1 counts each
+   * pending sample as a loss, 0 disables virtual loss.
+   */
+  public void setVirtualLoss(double virtualLoss) {
+    nodeContext.virtualLoss = virtualLoss;
+  }
+
+  /**
+   * Create the children of the chance nodes only for the sampled outcomes.
+   * Has an effect only for the games that number their random moves, see
+   * State.getChanceOutcomes(), and only for the tree of Node objects.
+   */
+  public void setSparseChanceNodes(boolean enabled) {
+    nodeContext.sparseChance = enabled;
+    forgetTree();
+  }
+
+  /** Samples of each thread between exchanges in hybrid parallelization. */
+  public void setSyncInterval(int samples) {
+    syncInterval = samples;
+  }
+
+  /** Number of new samples in the last search. */
+  long getLastSamples() {
+    return lastSamples;
+  }
+
+  /** Number of samples in the reused subtree at the start of the last move. */
+  long getReusedSamples() {
+    return reusedSamples;
+  }
+
   @Override
   public M selectMove(S state) {
     assert state.getPlayer() >= 0;
     assert state.getPlayer() < 2;  // Can't yet handle games with > 2 players.
 
-    Node<S, M> root = new Node<>(nodeContext, null, state, null);
+    if (nodeContext.solver != null) {
+      Solver.Result<M> result = nodeContext.solver.solve(state);
+      if (result != null) {
+        cancelled = false;
+        forgetTree();
+        lastSamples = 0;
+        reusedSamples = 0;
+        report = String.format("Move: %s, solved, payoff: %d, moves: %d%n",
+                               state.moveToString(result.move),
+                               result.payoff, result.moves);
+        return result.move;
+      }
+    }
+    if (workers > 1 && parallelization != Parallelization.TREE) {
+      return selectMoveLocalTrees(state);
+    }
+    if (useFlatTree) {
+      return selectMoveFlat(state);
+    }
+
+    Node<S, M> reusedRoot = findReusedRoot(state);
+    Node<S, M> root;
+    if (reusedRoot != null) {
+      reusedRoot.detach();
+      root = reusedRoot;
+    } else {
+      root = new Node<>(nodeContext, null, state, null);
+    }
+    reusedSamples = root.getTotalSamples();
+    long maxSamples = samplesLimit > 0 ? reusedSamples + samplesLimit : 0;
     long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : -1;
 
     if (workers > 1) {
-      ExecutorService executor = Executors.newFixedThreadPool(workers);
-      List<Future<?>> tasks = new ArrayList<>();
+      List<Runnable> tasks = new ArrayList<>();
       for (int i = 0; i < workers; i++) {
-        tasks.add(executor.submit(() -> worker(root, state, deadline)));
+        tasks.add(() -> worker(root, state, deadline, maxSamples));
       }
-
-      for (Future<?> task : tasks) {
-        try {
-          task.get();
-        } catch (Exception ex) {
-          throw new RuntimeException(ex);
-        }
-      }
-      executor.shutdown();
+      getSearchPool().invokeAll(tasks);
     } else {
-      worker(root, state, deadline);
+      worker(root, state, deadline, maxSamples);
     }
+    cancelled = false;
 
-    assert root.hasChildren();
+    lastSamples = root.getTotalSamples() - reusedSamples;
     Node<S, M> bestChild = null;
     double bestValue =
-        state.getPlayerBool() ? state.getGame().getMinPayoff() - 1
+        state.getPlayer() == 0 ? state.getGame().getMinPayoff() - 1
                               : state.getGame().getMaxPayoff() + 1;
 
-    for (Node<S, M> node : root.getChildren()) {
-      if ((state.getPlayerBool() ? (node.getPayoff() > bestValue)
-                                 : (node.getPayoff() < bestValue))) {
-        bestChild = node;
-        bestValue = node.getPayoff();
+    if (root.hasChildren()) {
+      for (Node<S, M> node : root.getChildren()) {
+        if ((state.getPlayer() == 0 ? (node.getPayoff() > bestValue)
+                                   : (node.getPayoff() < bestValue))) {
+          bestChild = node;
+          bestValue = node.getPayoff();
+        }
       }
     }
+    // Stopped before the first sample.
+    M move = bestChild != null ? bestChild.getMove() : state.getMoves().get(0);
 
     report = String
-        .format("Move: %s%n%s%n", state.moveToString(bestChild.getMove()),
+        .format("Move: %s, reused samples: %d%n%s%n",
+                state.moveToString(move), reusedSamples,
                 root.toStringNested(state, 16));
 
-    return bestChild.getMove();
+    if (reuseTree) {
+      previousRoot = root;
+      previousState = state.clone();
+      previousMove = move;
+    }
+    return move;
+  }
+
+  private M selectMoveFlat(S state) {
+    int reusedRoot = flatTree != null ? findReusedRoot(flatTree, state) : -1;
+    if (reusedRoot > 0) {
+      // The subtree is copied to the beginning of the spare tree, the rest of
+      // the old tree is dropped and it becomes the spare one.
+      if (spareFlatTree == null) {
+        spareFlatTree = new FlatTree<>(game, maxTreeNodes);
+      }
+      FlatTree<S, M> newTree = spareFlatTree;
+      newTree.copySubtree(flatTree, reusedRoot);
+      spareFlatTree = flatTree;
+      flatTree = newTree;
+    } else {
+      if (flatTree == null) {
+        flatTree = new FlatTree<>(game, maxTreeNodes);
+      }
+      flatTree.reset(state);
+    }
+    FlatTree<S, M> tree = flatTree;
+    tree.setVirtualLoss(nodeContext.virtualLoss);
+    tree.setSolver(nodeContext.solver);
+    reusedSamples = tree.getTotalSamples(0);
+    long maxSamples = samplesLimit > 0 ? reusedSamples + samplesLimit : 0;
+    long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : -1;
+
+    if (workers > 1) {
+      List<Runnable> tasks = new ArrayList<>();
+      for (int i = 0; i < workers; i++) {
+        tasks.add(() -> flatWorker(tree, state, deadline, maxSamples));
+      }
+      getSearchPool().invokeAll(tasks);
+    } else {
+      flatWorker(tree, state, deadline, maxSamples);
+    }
+    cancelled = false;
+
+    lastSamples = tree.getTotalSamples(0) - reusedSamples;
+    int bestChild = -1;
+    double bestValue =
+        state.getPlayer() == 0 ? state.getGame().getMinPayoff() - 1
+                              : state.getGame().getMaxPayoff() + 1;
+
+    int first = tree.firstChild(0);
+    for (int child = first; child < first + tree.childrenCount(0); child++) {
+      double payoff = tree.getPayoff(child);
+      if ((state.getPlayer() == 0 ? (payoff > bestValue)
+                                 : (payoff < bestValue))) {
+        bestChild = child;
+        bestValue = payoff;
+      }
+    }
+
+    // Stopped before the first sample.
+    M move = bestChild >= 0 ? tree.getMove(bestChild) : state.getMoves().get(0);
+    report = String.format(
+        "Move: %s, tree nodes: %d, reused samples: %d%n%s%n",
+        state.moveToString(move), tree.size(), reusedSamples,
+        tree.toString(state, 16));
+    if (reuseTree) {
+      previousState = state.clone();
+      previousMove = move;
+    }
+    return move;
+  }
+
+  /**
+   * Root or hybrid parallelization: each worker searches its own tree of Node
+   * objects, even if the flat tree is enabled. The trees aren't reused.
+   */
+  private M selectMoveLocalTrees(S state) {
+    forgetTree();
+    reusedSamples = 0;
+    RootStatistics<S, M> stats = new RootStatistics<>(state.getMoves());
+    long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : -1;
+    long maxSamples = samplesLimit > 0 ? (samplesLimit + workers - 1) / workers
+                                       : 0;
+
+    List<Runnable> tasks = new ArrayList<>();
+    for (int i = 0; i < workers; i++) {
+      tasks.add(() -> localTreeWorker(state, deadline, maxSamples, stats));
+    }
+    getSearchPool().invokeAll(tasks);
+    cancelled = false;
+    lastSamples = stats.getTotalSamples();
+
+    int bestChild = -1;
+    double bestValue =
+        state.getPlayer() == 0 ? state.getGame().getMinPayoff() - 1
+                              : state.getGame().getMaxPayoff() + 1;
+    List<Integer> children = new ArrayList<>();
+    for (int i = 0; i < stats.size(); i++) {
+      if (stats.getSamples(i) == 0) {
+        continue;
+      }
+      children.add(i);
+      double payoff = stats.getPayoff(i);
+      if ((state.getPlayer() == 0 ? (payoff > bestValue)
+                                 : (payoff < bestValue))) {
+        bestChild = i;
+        bestValue = payoff;
+      }
+    }
+
+    // Stopped before the first sample.
+    M move = bestChild >= 0 ? stats.getMove(bestChild)
+                            : state.getMoves().get(0);
+    children.sort((c1, c2) -> Long.compare(stats.getSamples(c2),
+                                           stats.getSamples(c1)));
+    StringBuilder builder = new StringBuilder();
+    builder.append(String.format("Move: %s, %s parallelization, samples: %d%n",
+                                 state.moveToString(move), parallelization,
+                                 lastSamples));
+    for (int i : children.subList(0, Math.min(16, children.size()))) {
+      builder.append(String.format(
+          "  %s %.3f %d%n", state.moveToString(stats.getMove(i)),
+          stats.getPayoff(i), stats.getSamples(i)));
+    }
+    report = builder.toString();
+    return move;
+  }
+
+  private void localTreeWorker(S state, long deadline, long maxSamples,
+                               RootStatistics<S, M> stats) {
+    Node<S, M> root = new Node<>(nodeContext, null, state, null);
+    // The children are created in advance, in the same order as in stats.
+    root.initChildren(state.clone());
+    RootStatistics<S, M>.Participant participant = stats.new Participant();
+    boolean hybrid = parallelization == Parallelization.HYBRID;
+
+    while (!cancelled &&
+           (deadline <= 0 || System.currentTimeMillis() < deadline)) {
+      long ownSamples =
+          root.getTotalSamples() - participant.getImportedSamples();
+      long batch = hybrid ? syncInterval : Integer.MAX_VALUE;
+      if (maxSamples > 0) {
+        if (ownSamples >= maxSamples) break;
+        batch = Math.min(batch, maxSamples - ownSamples);
+      }
+      worker(root, state, deadline, root.getTotalSamples() + batch);
+      participant.exchange(root, hybrid);
+    }
+    participant.exchange(root, false);
+  }
+
+  /**
+   * Find the node for the state in the previous tree: the child for our
+   * previous move or one of its children.
+   *
+   * @return The node or null if the state isn't in the tree, e.g. if it's a
+   *     new game.
+   */
+  private Node<S, M> findReusedRoot(S state) {
+    if (!reuseTree || previousRoot == null || !previousRoot.hasChildren()) {
+      return null;
+    }
+    S afterMove = previousState.clone();
+    afterMove.play(previousMove);
+    Node<S, M> node = previousRoot.getChild(previousMove);
+    previousRoot = null;
+    if (sameState(afterMove, state)) {
+      return node;
+    }
+    if (afterMove.isTerminal() || !node.hasChildren()) {
+      return null;
+    }
+    for (Node<S, M> child : node.getChildren()) {
+      if (sameState(afterMove, child.getMove(), state)) {
+        return child;
+      }
+    }
+    return null;
+  }
+
+  /** Same as findReusedRoot(), returns -1 if the state isn't in the tree. */
+  private int findReusedRoot(FlatTree<S, M> tree, S state) {
+    if (!reuseTree || previousState == null || !tree.hasChildren(0)) {
+      return -1;
+    }
+    S afterMove = previousState.clone();
+    afterMove.play(previousMove);
+    int node = tree.getChild(0, previousMove);
+    previousState = null;
+    if (sameState(afterMove, state)) {
+      return node;
+    }
+    if (afterMove.isTerminal() || !tree.hasChildren(node)) {
+      return -1;
+    }
+    int first = tree.firstChild(node);
+    for (int child = first; child < first + tree.childrenCount(node);
+         child++) {
+      if (sameState(afterMove, tree.getMove(child), state)) {
+        return child;
+      }
+    }
+    return -1;
+  }
+
+  private boolean sameState(S state, M move, S other) {
+    S next = state.clone();
+    next.play(move);
+    return sameState(next, other);
+  }
+
+  private boolean sameState(S state, S other) {
+    if (state.getPlayer() != other.getPlayer()) {
+      return false;
+    }
+    if (state instanceof HashableState) {
+      return ((HashableState) state).getHash() ==
+             ((HashableState) other).getHash();
+    }
+    return state.toString().equals(other.toString());
   }
 
   @Override
@@ -142,16 +523,20 @@ public class MonteCarloPlayer<S extends State<S, M>, M extends Move>
     return report;
   }
 
+  private SearchPool getSearchPool() {
+    return searchPool != null ? searchPool : SearchPool.getDefault();
+  }
+
   private Node<S, M> selectChild(Node<S, M> node, S state) {
     assert node.hasChildren();
-    List<Node<S, M>> children = node.getChildren();
-
     if (state.isRandom()) {
-      Node<S, M> randomNode = node.getChild(state.getRandomMove());
+      Node<S, M> randomNode =
+          node.getOutcomeChild(state, state.getRandomMove());
       assert randomNode != null;
       return randomNode;
     }
 
+    List<Node<S, M>> children = node.getChildren();
     if (node.getCompleteSamples() - samplesBatch <
         children.size() * samplesBatch) {
       // Has children with 0 samples. Try 4 random children before iterating
@@ -194,21 +579,54 @@ public class MonteCarloPlayer<S extends State<S, M>, M extends Move>
     return bestChild;
   }
 
-  private static class TraversalResult<S extends State<S, M>, M extends Move> {
+  private int selectChild(FlatTree<S, M> tree, int node, S state) {
+    assert tree.hasChildren(node);
+    int first = tree.firstChild(node);
+    int count = tree.childrenCount(node);
+
+    if (state.isRandom()) {
+      return tree.getOutcomeChild(node, state, state.getRandomMove());
+    }
+
+    if (tree.getCompleteSamples(node) - samplesBatch < count * samplesBatch) {
+      // Has children with 0 samples. Try 4 random children before iterating
+      // through them.
+      Random rng = ThreadLocalRandom.current();
+      for (int i = 0; i < 4; i++) {
+        int randomChild = first + rng.nextInt(count);
+        if (tree.getTotalSamples(randomChild) == 0) {
+          return randomChild;
+        }
+      }
+      for (int child = first; child < first + count; child++) {
+        if (tree.getTotalSamples(child) == 0) {
+          return child;
+        }
+      }
+    }
+
+    double logTotalSamples =
+        1.2 * Math.log(tree.getTotalSamples(node) - childrenThreshold);
+    int bestChild =
+        tree.selectBestChild(node, logTotalSamples, state.getPlayer() > 0);
+    assert bestChild >= 0;
+    return bestChild;
+  }
+
+  /**
+   * Result of a traversal: the leaf node, its state and depth. Each worker
+   * reuses a single instance, so that the sampling loop doesn't allocate.
+   */
+  private static class Traversal<S extends State<S, M>, M extends Move> {
     Node<S, M> node;
     S state;
     int depth;
-
-    TraversalResult(Node<S, M> node, S state, int depth) {
-      this.node = node;
-      this.state = state;
-      this.depth = depth;
-    }
   }
 
-  private TraversalResult<S, M> traverse(Node<S, M> rootNode, S rootState) {
+  private void traverse(Node<S, M> rootNode, S rootState,
+                        UndoStack<S, M> undoStack, Traversal<S, M> result) {
     Node<S, M> node = rootNode;
-    S state = rootState.clone();
+    S state = undoStack != null ? undoStack.getState() : rootState.clone();
     int depth = 0;
 
     while (node.hasChildren() && !node.hasExactPayoff()) {
@@ -218,7 +636,7 @@ public class MonteCarloPlayer<S extends State<S, M>, M extends Move>
       assert state != null;
       assert !state.isTerminal();
       assert node.getMove() != null;
-      state.play(node.getMove());
+      play(state, node.getMove(), undoStack);
       depth += 1;
     }
 
@@ -230,14 +648,25 @@ public class MonteCarloPlayer<S extends State<S, M>, M extends Move>
       }
       node.addPendingSamples(samplesBatch);
       node = selectChild(node, state);
-      state.play(node.getMove());
+      play(state, node.getMove(), undoStack);
       depth += 1;
     }
 
     if (!node.hasExactPayoff()) {
       node.addPendingSamples(samplesBatch);
     }
-    return new TraversalResult<S, M>(node, state, depth);
+    result.node = node;
+    result.state = state;
+    result.depth = depth;
+  }
+
+  private static <S extends State<S, M>, M extends Move> void play(
+      S state, M move, UndoStack<S, M> undoStack) {
+    if (undoStack != null) {
+      undoStack.play(move);
+    } else {
+      state.play(move);
+    }
   }
 
   private M selectSamplingMove(S state) {
@@ -248,11 +677,18 @@ public class MonteCarloPlayer<S extends State<S, M>, M extends Move>
     }
   }
 
-  private void worker(Node<S, M> root, S rootState, long deadline) {
-    while (!root.hasExactPayoff() &&
-           (samplesLimit <= 0 || root.getTotalSamples() < samplesLimit) &&
+  private void worker(Node<S, M> root, S rootState, long deadline,
+                      long maxSamples) {
+    // With undo, all the samples of the worker are played on a single state.
+    UndoStack<S, M> undoStack =
+        rootState.supportsUndo() ? new UndoStack<>(rootState.clone()) : null;
+    double[] stats = new double[2];
+    Traversal<S, M> result = new Traversal<>();
+
+    while (!cancelled && !root.hasExactPayoff() &&
+           (maxSamples <= 0 || root.getTotalSamples() < maxSamples) &&
            (deadline <= 0 || System.currentTimeMillis() < deadline)) {
-      TraversalResult<S, M> result = traverse(root, rootState);
+      traverse(root, rootState, undoStack, result);
       Node<S, M> node = result.node;
 
       if (node.hasExactPayoff()) {
@@ -266,31 +702,125 @@ public class MonteCarloPlayer<S extends State<S, M>, M extends Move>
           }
           node = node.getParent();
         }
+        if (undoStack != null) {
+          undoStack.unwind(0);
+        }
         continue;
       }
 
-      double value = 0;
-      double valueSq = 0;
-      if (evaluator != null) {
-        value = evaluator.evaluate(result.state);
-        valueSq = value * value;
-      } else {
-        for (int i = 0; i < samplesBatch; i++) {
-          S state = i < samplesBatch - 1 ? result.state.clone() : result.state;
-          do {
-            state.play(selectSamplingMove(state));
-          } while (!state.isTerminal());
-
-          int payoff = state.getPayoff(0);
-          value += payoff;
-          valueSq += (long) payoff * payoff;
-        }
+      simulate(result.state, undoStack, stats);
+      if (undoStack != null) {
+        undoStack.unwind(0);
       }
       while (node != null) {
-        node.addSamples(samplesBatch, value, valueSq);
+        node.addSamples(samplesBatch, stats[0], stats[1]);
         node = node.getParent();
       }
     }
 
   }
+
+  private void flatWorker(FlatTree<S, M> tree, S rootState, long deadline,
+                          long maxSamples) {
+    UndoStack<S, M> undoStack =
+        rootState.supportsUndo() ? new UndoStack<>(rootState.clone()) : null;
+    double[] stats = new double[2];
+    // Nodes from the root to the current one, used instead of parent links.
+    int[] path = new int[64];
+
+    while (!cancelled && !tree.hasExactPayoff(0) &&
+           (maxSamples <= 0 || tree.getTotalSamples(0) < maxSamples) &&
+           (deadline <= 0 || System.currentTimeMillis() < deadline)) {
+      S state = undoStack != null ? undoStack.getState() : rootState.clone();
+      int node = 0;
+      int depth = 0;
+      path[0] = 0;
+
+      while (tree.hasChildren(node) && !tree.hasExactPayoff(node)) {
+        tree.addPendingSamples(node, samplesBatch);
+        node = selectChild(tree, node, state);
+        play(state, tree.getMove(node), undoStack);
+        depth++;
+        if (depth == path.length) {
+          path = Arrays.copyOf(path, 2 * depth);
+        }
+        path[depth] = node;
+      }
+
+      if (!state.isTerminal() && !tree.hasExactPayoff(node) &&
+          tree.getTotalSamples(node) >= childrenThreshold &&
+          (maxDepth <= 0 || depth < maxDepth) &&
+          tree.initChildren(node, state)) {
+        tree.addPendingSamples(node, samplesBatch);
+        node = selectChild(tree, node, state);
+        play(state, tree.getMove(node), undoStack);
+        depth++;
+        if (depth == path.length) {
+          path = Arrays.copyOf(path, 2 * depth);
+        }
+        path[depth] = node;
+      }
+
+      if (tree.hasExactPayoff(node)) {
+        int payoff = tree.getExactPayoff(node);
+        stats[0] = payoff * samplesBatch;
+        stats[1] = payoff * payoff * samplesBatch;
+      } else {
+        tree.addPendingSamples(node, samplesBatch);
+        simulate(state, undoStack, stats);
+      }
+      if (undoStack != null) {
+        undoStack.unwind(0);
+      }
+
+      for (int i = depth; i >= 0; i--) {
+        if (tree.hasExactPayoff(path[i])) {
+          tree.addExactSamples(path[i], samplesBatch);
+        } else {
+          tree.addSamples(path[i], samplesBatch, stats[0], stats[1]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Evaluate the leaf state, either with the evaluator or with random
+   * playouts.
+   *
+   * @param stats Receives the sum of the payoffs and of their squares.
+   */
+  private void simulate(S leafState, UndoStack<S, M> undoStack,
+                        double[] stats) {
+    double value = 0;
+    double valueSq = 0;
+    if (evaluator != null) {
+      value = evaluator.evaluate(leafState);
+      valueSq = value * value;
+    } else if (undoStack != null) {
+      int leafDepth = undoStack.size();
+      for (int i = 0; i < samplesBatch; i++) {
+        do {
+          undoStack.play(selectSamplingMove(leafState));
+        } while (!leafState.isTerminal());
+
+        int payoff = leafState.getPayoff(0);
+        value += payoff;
+        valueSq += (long) payoff * payoff;
+        undoStack.unwind(leafDepth);
+      }
+    } else {
+      for (int i = 0; i < samplesBatch; i++) {
+        S state = i < samplesBatch - 1 ? leafState.clone() : leafState;
+        do {
+          state.play(selectSamplingMove(state));
+        } while (!state.isTerminal());
+
+        int payoff = state.getPayoff(0);
+        value += payoff;
+        valueSq += (long) payoff * payoff;
+      }
+    }
+    stats[0] = value;
+    stats[1] = valueSq;
+  }
 }
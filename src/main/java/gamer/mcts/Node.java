@@ -2,6 +2,7 @@ package gamer.mcts;
 
 import gamer.def.Game;
 import gamer.def.Move;
+import gamer.def.Solver;
 import gamer.def.State;
 import gamer.g2048.G2048;
 
@@ -10,8 +11,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class Node<S extends State<S, M>, M extends Move> {
   static class Context<S extends State<S, M>, M extends Move> {
@@ -19,33 +20,69 @@ public class Node<S extends State<S, M>, M extends Move> {
     private final int minPayoffSquare;
     private final int maxPayoff;
     private final int payoffSpread;
+    // Fixed-point scales of the payoff sums. Powers of 2, chosen so that the
+    // sums of 2^31 samples fit into a long.
+    final double sumScale;
+    final double squaresScale;
+    /**
+     * Weight of the pending samples, that are counted as losses to spread the
+     * threads over the tree.
+     */
+    double virtualLoss = 1;
+    /**
+     * Create the children of the chance nodes only when their outcomes are
+     * sampled. Works for the states with getChanceOutcomes() > 0.
+     */
+    boolean sparseChance = false;
+    /** Gives the exact payoffs of the new nodes, that it can solve. */
+    Solver<S, M> solver = null;
 
     Context(Game<S, M> game) {
       minPayoff = game.getMinPayoff();
       minPayoffSquare = minPayoff * minPayoff;
       maxPayoff = game.getMaxPayoff();
       payoffSpread = maxPayoff - minPayoff;
+      int bits = 64 - Long.numberOfLeadingZeros(
+          Math.max(1, Math.max(Math.abs((long) minPayoff),
+                               Math.abs((long) maxPayoff))));
+      sumScale = Math.scalb(1.0, 31 - bits);
+      squaresScale = Math.scalb(1.0, 31 - 2 * bits);
     }
   }
 
   private final Context<S, M> context;
-  private final Node<S, M> parent;
+  private Node<S, M> parent;
   private volatile List<Node<S, M>> children = null;
+  // Children of a chance node, indexed by State.getChanceOutcomeIndex(), if
+  // the state supports it. Used instead of children.
+  private volatile AtomicReferenceArray<Node<S, M>> outcomes = null;
   private final M move;
   private final int player;
 
   private boolean exact = false;
   private int exactPayoff = 0;
 
-  private final AtomicInteger totalSamples = new AtomicInteger();
-  private final AtomicInteger pendingSamples = new AtomicInteger();
-
-  // Sum of the payoffs in case exact = false, or a single payoff if true.
-  // Payoff is calculated for player 0.
-  private final AtomicLong totalPayoffBits =
-      new AtomicLong(Double.doubleToLongBits(0));
-  private final AtomicLong totalPayoffSquaresBits =
-      new AtomicLong(Double.doubleToLongBits(0));
+  // The counters are volatile fields, updated with field updaters, to avoid
+  // allocating three AtomicLongs per node.
+  @SuppressWarnings("rawtypes")
+  private static final AtomicLongFieldUpdater<Node> SAMPLES =
+      AtomicLongFieldUpdater.newUpdater(Node.class, "samples");
+  @SuppressWarnings("rawtypes")
+  private static final AtomicLongFieldUpdater<Node> PAYOFF_SUM =
+      AtomicLongFieldUpdater.newUpdater(Node.class, "payoffSum");
+  @SuppressWarnings("rawtypes")
+  private static final AtomicLongFieldUpdater<Node> PAYOFF_SQUARES_SUM =
+      AtomicLongFieldUpdater.newUpdater(Node.class, "payoffSquaresSum");
+
+  // Total samples in the high 32 bits, pending samples in the low 32 bits,
+  // so that both are updated and read together.
+  private volatile long samples;
+
+  // Sums of the payoffs and their squares for player 0 as fixed-point
+  // numbers, see Context. Not used if exact = true. Each update is a single
+  // getAndAdd instead of a CAS loop over the bits of a double.
+  private volatile long payoffSum;
+  private volatile long payoffSquaresSum;
 
   Node(Context<S, M> context, Node<S, M> parent, S state, M move) {
     this.context = context;
@@ -60,33 +97,30 @@ public class Node<S extends State<S, M>, M extends Move> {
       player = -2;
     } else {
       player = state.getPlayer();
+      if (context.solver != null) {
+        Solver.Result<M> result = context.solver.solve(state);
+        if (result != null) {
+          exactPayoff = result.payoff;
+          exact = true;
+        }
+      }
     }
   }
 
   private double getTotalPayoff() {
-    return Double.longBitsToDouble(totalPayoffBits.get());
+    return payoffSum / context.sumScale;
   }
 
   private double getTotalPayoffSquares() {
-    return Double.longBitsToDouble(totalPayoffSquaresBits.get());
+    return payoffSquaresSum / context.squaresScale;
   }
 
-  private void addToPayoff(double payoff, double payoffSquares) {
-    while (true) {
-      long currentPayoffBits = totalPayoffBits.get();
-      long newTotalPayoffBits = Double.doubleToLongBits(
-          Double.longBitsToDouble(currentPayoffBits) + payoff);
-      if (totalPayoffBits.compareAndSet(
-              currentPayoffBits, newTotalPayoffBits)) break;
-    }
+  private static int total(long samples) {
+    return (int) (samples >>> 32);
+  }
 
-    while (true) {
-      long currentPayoffSquaresBits = totalPayoffSquaresBits.get();
-      long newTotalPayoffSquaresBits = Double.doubleToLongBits(
-          Double.longBitsToDouble(currentPayoffSquaresBits) + payoffSquares);
-      if (totalPayoffSquaresBits.compareAndSet(
-              currentPayoffSquaresBits, newTotalPayoffSquaresBits)) break;
-    }
+  private static int pending(long samples) {
+    return (int) samples;
   }
 
   public int getPlayer() {
@@ -97,15 +131,44 @@ public class Node<S extends State<S, M>, M extends Move> {
     return parent;
   }
 
+  /** Make the node a root, so that the samples aren't propagated upwards. */
+  final void detach() {
+    parent = null;
+  }
+
   final boolean hasChildren() {
-    return children != null;
+    return children != null || outcomes != null;
   }
 
+  /**
+   * Children of the node. For the chance nodes indexed by outcome, the list is
+   * created on each call and includes only the expanded outcomes.
+   */
   final List<Node<S, M>> getChildren() {
-    return children;
+    AtomicReferenceArray<Node<S, M>> outcomesArray = outcomes;
+    if (outcomesArray == null) {
+      return children;
+    }
+    List<Node<S, M>> list = new ArrayList<>();
+    for (int i = 0; i < outcomesArray.length(); i++) {
+      Node<S, M> child = outcomesArray.get(i);
+      if (child != null) {
+        list.add(child);
+      }
+    }
+    return list;
   }
 
   final Node<S, M> getChild(M move) {
+    if (outcomes != null) {
+      for (int i = 0; i < outcomes.length(); i++) {
+        Node<S, M> child = outcomes.get(i);
+        if (child != null && child.getMove().equals(move)) {
+          return child;
+        }
+      }
+      throw new RuntimeException("Requested a child node with unknown move.");
+    }
     for (Node<S, M> child : getChildren()) {
       if (child.getMove().equals(move)) {
         return child;
@@ -114,19 +177,63 @@ public class Node<S extends State<S, M>, M extends Move> {
     throw new RuntimeException("Requested a child node with unknown move.");
   }
 
+  /**
+   * Get the child of a chance node for the outcome, creating it if the node
+   * is sparse and the outcome hasn't been sampled yet.
+   */
+  final Node<S, M> getOutcomeChild(S state, M move) {
+    AtomicReferenceArray<Node<S, M>> outcomesArray = outcomes;
+    if (outcomesArray == null) {
+      return getChild(move);
+    }
+    int index = state.getChanceOutcomeIndex(move);
+    Node<S, M> child = outcomesArray.get(index);
+    if (child == null) {
+      child = newChild(state, move);
+      if (!outcomesArray.compareAndSet(index, null, child)) {
+        child = outcomesArray.get(index);
+      }
+    }
+    return child;
+  }
+
   final void initChildren(S state) {
     if (hasChildren()) return;
+    int outcomesCount = state.isRandom() ? state.getChanceOutcomes() : 0;
+    if (outcomesCount > 0) {
+      AtomicReferenceArray<Node<S, M>> newOutcomes =
+          new AtomicReferenceArray<>(outcomesCount);
+      if (!context.sparseChance) {
+        for (M move : state.getMoves()) {
+          newOutcomes.set(state.getChanceOutcomeIndex(move),
+                          newChild(state, move));
+        }
+      }
+      outcomes = newOutcomes;
+      return;
+    }
+
     List<M> moves = state.getMoves();
     List<Node<S, M>> newChildren = new ArrayList<>(moves.size());
     for (M move : moves) {
-      S stateClone = state.clone();
-      stateClone.play(move);
       assert move != null;
-      newChildren.add(new Node<>(this.context, this, stateClone, move));
+      newChildren.add(newChild(state, move));
     }
     children = newChildren;
   }
 
+  private Node<S, M> newChild(S state, M move) {
+    if (state.supportsUndo()) {
+      long undoToken = state.playWithUndo(move);
+      Node<S, M> child = new Node<>(this.context, this, state, move);
+      state.unplay(move, undoToken);
+      return child;
+    }
+    S stateClone = state.clone();
+    stateClone.play(move);
+    return new Node<>(this.context, this, stateClone, move);
+  }
+
   final boolean hasExactPayoff() {
     return exact;
   }
@@ -136,40 +243,42 @@ public class Node<S extends State<S, M>, M extends Move> {
   }
 
   public int getPendingSamples() {
-    return pendingSamples.get();
+    return pending(samples);
   }
 
   final int getTotalSamples() {
-    return totalSamples.get();
+    return total(samples);
   }
 
   final int getCompleteSamples() {
-    return totalSamples.get() - pendingSamples.get();
+    long s = samples;
+    return total(s) - pending(s);
   }
 
   final double getPayoffSum() {
-    return exact ? exactPayoff * (totalSamples.get() - pendingSamples.get())
+    return exact ? (double) exactPayoff * getCompleteSamples()
                  : getTotalPayoff();
   }
 
   final double getPayoffSquaresSum() {
-    return exact ? exactPayoff * exactPayoff *
-                   (totalSamples.get() - pendingSamples.get()) : getTotalPayoffSquares();
+    return exact ? (double) exactPayoff * exactPayoff * getCompleteSamples()
+                 : getTotalPayoffSquares();
   }
 
   final void addExactSamples(int count) {
-    totalSamples.addAndGet(count);
+    SAMPLES.getAndAdd(this, (long) count << 32);
   }
 
   final void addPendingSamples(int count) {
-    totalSamples.addAndGet(count);
-    pendingSamples.addAndGet(count);
+    SAMPLES.getAndAdd(this, ((long) count << 32) | count);
   }
 
   final void addSamples(int count, double payoffSum, double payoffSquaresSum) {
-    assert count <= pendingSamples.get();
-    addToPayoff(payoffSum, payoffSquaresSum);
-    pendingSamples.addAndGet(-count);
+    assert count <= getPendingSamples();
+    PAYOFF_SUM.getAndAdd(this, Math.round(payoffSum * context.sumScale));
+    PAYOFF_SQUARES_SUM.getAndAdd(
+        this, Math.round(payoffSquaresSum * context.squaresScale));
+    SAMPLES.getAndAdd(this, -count);
   }
 
   M getMove() {
@@ -177,17 +286,21 @@ public class Node<S extends State<S, M>, M extends Move> {
   }
 
   double getPayoff() {
-    return exact ? exactPayoff
-                 : getTotalPayoff() / (totalSamples.get() - pendingSamples.get());
+    return exact ? exactPayoff : getTotalPayoff() / getCompleteSamples();
   }
 
   double getBiasedScore(double logParentSamples, boolean reverse) {
     assert logParentSamples >= 0;
 
+    // The sums are added before the pending samples are completed, so they
+    // may include a few samples still counted as pending, but never miss
+    // the completed ones.
+    long s = samples;
     double totalPayoff = getTotalPayoff();
     double totalPayoffSquares = getTotalPayoffSquares();
-    long totalSamples = this.totalSamples.get() + 1;
-    long pendingSamples = this.pendingSamples.get() + 1;
+    int pending = pending(s);
+    double pendingSamples = context.virtualLoss * pending + 1;
+    double totalSamples = total(s) - pending + pendingSamples;
 
     double coefficient = logParentSamples / totalSamples;
 
@@ -222,7 +335,7 @@ public class Node<S extends State<S, M>, M extends Move> {
 
   final String toStringNested(S state, int nnodes) {
     int samplesLo = 0;
-    int samplesHi = totalSamples.get();
+    int samplesHi = getTotalSamples();
 
     while (samplesHi - samplesLo > 1) {
       int samplesMid = (samplesHi + samplesLo) / 2;
@@ -236,7 +349,7 @@ public class Node<S extends State<S, M>, M extends Move> {
         if (node == null) {
           break;
         }
-        if (node.totalSamples.get() < samplesMid) {
+        if (node.getTotalSamples() < samplesMid) {
           continue;
         }
         nodesAboveThreshold++;
@@ -265,32 +378,34 @@ public class Node<S extends State<S, M>, M extends Move> {
     for (int i = 0; i < indent; i++) {
       builder.append(' ');
     }
-    if (move != null && state != null) {
+    // A reused root still has the move, that led to it.
+    boolean root = indent == 0;
+    if (!root && state != null) {
       builder.append(state.moveToString(move));
     } else {
       builder.append("root");
     }
     builder.append(String.format(" %s%.3f %d", exact ? "=" : "", getPayoff(),
-                                 totalSamples.get() - pendingSamples.get()));
-    if (pendingSamples.get() > 0) {
-      builder.append(String.format(" + %d", pendingSamples));
+                                 getCompleteSamples()));
+    if (getPendingSamples() > 0) {
+      builder.append(String.format(" + %d", getPendingSamples()));
     }
     if (hasChildren()) {
       List<Node<S, M>> childrenAboveThreshold = new ArrayList<>();
       for (Node<S, M> child : getChildren()) {
-        if (child.totalSamples.get() >= minSamples) {
+        if (child.getTotalSamples() >= minSamples) {
           childrenAboveThreshold.add(child);
         }
       }
 
       Collections.sort(childrenAboveThreshold,
-                       (Node<S, M> n1, Node<S, M> n2) -> (n2.totalSamples.get() -
-                                                          n1.totalSamples.get()));
+                       (Node<S, M> n1, Node<S, M> n2) -> (n2.getTotalSamples() -
+                                                          n1.getTotalSamples()));
 
       for (Node<S, M> child : childrenAboveThreshold) {
         S nextState = state;
 
-        if (move != null) {
+        if (!root) {
           nextState = state.clone();
           nextState.play(move);
         }
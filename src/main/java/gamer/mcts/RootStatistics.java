@@ -0,0 +1,123 @@
+package gamer.mcts;
+
+import gamer.def.Move;
+import gamer.def.State;
+
+import java.util.List;
+
+/**
+ * Statistics of the root children, merged from the trees of several threads.
+ *
+ * Used for root and hybrid parallelization, where each thread searches its
+ * own tree. The children are identified by their index, the threads should
+ * create the root children from the same state.
+ */
+final class RootStatistics<S extends State<S, M>, M extends Move> {
+  private final List<M> moves;
+  private final long[] samples;
+  private final double[] payoffSums;
+  private final double[] payoffSquaresSums;
+
+  RootStatistics(List<M> moves) {
+    this.moves = moves;
+    samples = new long[moves.size()];
+    payoffSums = new double[moves.size()];
+    payoffSquaresSums = new double[moves.size()];
+  }
+
+  int size() {
+    return moves.size();
+  }
+
+  M getMove(int i) {
+    return moves.get(i);
+  }
+
+  synchronized long getSamples(int i) {
+    return samples[i];
+  }
+
+  synchronized long getTotalSamples() {
+    long total = 0;
+    for (long s : samples) {
+      total += s;
+    }
+    return total;
+  }
+
+  /** Average payoff of the child, NaN if it has no samples. */
+  synchronized double getPayoff(int i) {
+    return payoffSums[i] / samples[i];
+  }
+
+  /**
+   * The samples of a single thread: the ones it has already published, and
+   * the ones of the other threads it has imported into its tree.
+   */
+  final class Participant {
+    private final long[] published = new long[samples.length];
+    private final double[] publishedSums = new double[samples.length];
+    private final double[] publishedSquaresSums = new double[samples.length];
+    private final long[] imported = new long[samples.length];
+    private final double[] importedSums = new double[samples.length];
+    private final double[] importedSquaresSums = new double[samples.length];
+    private long importedTotal = 0;
+
+    /** Samples from other threads added to the tree. */
+    long getImportedSamples() {
+      return importedTotal;
+    }
+
+    /**
+     * Publish the new samples of the thread's tree. If importSamples is set,
+     * also add the samples of the other threads to the tree. Should be called
+     * when no samples in the tree are pending.
+     */
+    void exchange(Node<S, M> root, boolean importSamples) {
+      List<Node<S, M>> children = root.getChildren();
+      synchronized (RootStatistics.this) {
+        for (int i = 0; i < samples.length; i++) {
+          Node<S, M> child = children.get(i);
+          assert child.getMove().equals(moves.get(i));
+          long own = child.getCompleteSamples() - imported[i];
+          double ownSum = child.getPayoffSum() - importedSums[i];
+          double ownSquaresSum =
+              child.getPayoffSquaresSum() - importedSquaresSums[i];
+          samples[i] += own - published[i];
+          payoffSums[i] += ownSum - publishedSums[i];
+          payoffSquaresSums[i] += ownSquaresSum - publishedSquaresSums[i];
+          published[i] = own;
+          publishedSums[i] = ownSum;
+          publishedSquaresSums[i] = ownSquaresSum;
+        }
+
+        if (!importSamples) {
+          return;
+        }
+
+        for (int i = 0; i < samples.length; i++) {
+          int count = (int) (samples[i] - published[i] - imported[i]);
+          if (count <= 0) {
+            continue;
+          }
+          double sum = payoffSums[i] - publishedSums[i] - importedSums[i];
+          double squaresSum = payoffSquaresSums[i] -
+                              publishedSquaresSums[i] - importedSquaresSums[i];
+          Node<S, M> child = children.get(i);
+          if (child.hasExactPayoff()) {
+            child.addExactSamples(count);
+          } else {
+            child.addPendingSamples(count);
+            child.addSamples(count, sum, squaresSum);
+          }
+          root.addPendingSamples(count);
+          root.addSamples(count, sum, squaresSum);
+          imported[i] += count;
+          importedSums[i] += sum;
+          importedSquaresSums[i] += squaresSum;
+          importedTotal += count;
+        }
+      }
+    }
+  }
+}
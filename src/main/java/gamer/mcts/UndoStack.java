@@ -0,0 +1,49 @@
+package gamer.mcts;
+
+import gamer.def.Move;
+import gamer.def.State;
+
+import java.util.Arrays;
+
+/**
+ * A state together with the stack of moves, played on it with undo. Lets a
+ * worker reuse a single state instead of cloning the root for every sample.
+ */
+final class UndoStack<S extends State<S, M>, M extends Move> {
+  private final S state;
+  private Object[] moves = new Object[64];
+  private long[] undo = new long[64];
+  private int size = 0;
+
+  UndoStack(S state) {
+    assert state.supportsUndo();
+    this.state = state;
+  }
+
+  S getState() {
+    return state;
+  }
+
+  int size() {
+    return size;
+  }
+
+  void play(M move) {
+    if (size == moves.length) {
+      moves = Arrays.copyOf(moves, 2 * size);
+      undo = Arrays.copyOf(undo, 2 * size);
+    }
+    moves[size] = move;
+    undo[size] = state.playWithUndo(move);
+    size++;
+  }
+
+  /** Revert the moves until only the first newSize moves remain. */
+  @SuppressWarnings("unchecked")
+  void unwind(int newSize) {
+    while (size > newSize) {
+      size--;
+      state.unplay((M) moves[size], undo[size]);
+    }
+  }
+}
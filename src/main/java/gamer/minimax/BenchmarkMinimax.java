@@ -0,0 +1,116 @@
+package gamer.minimax;
+
+import gamer.benchmark.Benchmark;
+import gamer.chess.ChessCaptureGenerator;
+import gamer.chess.ChessMove;
+import gamer.chess.ChessSimpleEvaluator;
+import gamer.chess.ChessState;
+import gamer.chess.MvvLvaHeuristic;
+
+/**
+ * Time to reach a fixed depth with different numbers of threads. Comparing
+ * the results gives the speedup curve of the parallel search.
+ */
+public class BenchmarkMinimax {
+  private static final String KIWIPETE =
+      "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+
+  private static final String[] POSITIONS = {
+      "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+      KIWIPETE,
+      "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+      "r2q1rk1/pP1p2pp/Q4n2/bbp1p3/Np6/1B3NBn/pPPP1PPP/R3K2R b KQ - 0 1",
+      "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+      "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"};
+
+  private static MinimaxPlayer<ChessState, ChessMove> newPlayer(
+      int depth, int threads) {
+    MinimaxPlayer<ChessState, ChessMove> player = new MinimaxPlayer<>();
+    player.setEvaluator(ChessSimpleEvaluator.getInstance());
+    player.setMoveHeuristic(MvvLvaHeuristic.getInstance());
+    player.setMaxDepth(depth);
+    player.setMaxWorkers(threads);
+    return player;
+  }
+
+  private static ChessMove chessToDepth(int reps, int depth, int threads) {
+    return chessToDepth(reps, depth, threads, false);
+  }
+
+  private static ChessMove chessToDepth(
+      int reps, int depth, int threads, boolean quiescence) {
+    ChessState state = ChessState.fromFen(KIWIPETE);
+    ChessMove move = null;
+    for (int i = 0; i < reps; i++) {
+      // A new player for each repetition, to start with an empty table.
+      MinimaxPlayer<ChessState, ChessMove> player = newPlayer(depth, threads);
+      if (quiescence) {
+        player.setQuiescenceGenerator(ChessCaptureGenerator.getInstance());
+        player.setDeltaPruning(ChessSimpleEvaluator.getInstance(), 0.02);
+      }
+      move = player.selectMove(state);
+    }
+    return move;
+  }
+
+  private static int positionsToDepth(int reps, int depth, boolean pvs) {
+    int total = 0;
+    for (int i = 0; i < reps; i++) {
+      for (String fen : POSITIONS) {
+        ChessState state = ChessState.fromFen(fen);
+        MinimaxPlayer<ChessState, ChessMove> player = newPlayer(depth, 1);
+        player.setQuiescenceGenerator(ChessCaptureGenerator.getInstance());
+        player.setDeltaPruning(ChessSimpleEvaluator.getInstance(), 0.02);
+        if (!pvs) {
+          player.setAspirationWindow(0);
+          player.setPrincipalVariationSearch(false);
+        }
+        total += player.selectMove(state).hashCode();
+      }
+    }
+    return total;
+  }
+
+  @Benchmark
+  public static ChessMove minimaxChessDepth5Threads1(int reps) {
+    return chessToDepth(reps, 5, 1);
+  }
+
+  @Benchmark
+  public static ChessMove minimaxChessDepth5Threads2(int reps) {
+    return chessToDepth(reps, 5, 2);
+  }
+
+  @Benchmark
+  public static ChessMove minimaxChessDepth5Threads4(int reps) {
+    return chessToDepth(reps, 5, 4);
+  }
+
+  @Benchmark
+  public static ChessMove minimaxChessDepth5Threads8(int reps) {
+    return chessToDepth(reps, 5, 8);
+  }
+
+  @Benchmark
+  public static ChessMove minimaxChessDepth5ThreadsAll(int reps) {
+    return chessToDepth(
+        reps, 5, Runtime.getRuntime().availableProcessors());
+  }
+
+  @Benchmark
+  public static ChessMove minimaxChessDepth4Quiescence(int reps) {
+    return chessToDepth(reps, 4, 1, true);
+  }
+
+  /** Time to depth on several positions with plain alpha-beta windows. */
+  @Benchmark
+  public static int minimaxPositionsDepth4FullWindow(int reps) {
+    return positionsToDepth(reps, 4, false);
+  }
+
+  /** Same with aspiration windows and principal variation search. */
+  @Benchmark
+  public static int minimaxPositionsDepth4Pvs(int reps) {
+    return positionsToDepth(reps, 4, true);
+  }
+}
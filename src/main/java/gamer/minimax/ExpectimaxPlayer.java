@@ -0,0 +1,336 @@
+package gamer.minimax;
+
+import gamer.def.ComputerPlayer;
+import gamer.def.Evaluator;
+import gamer.def.HashableState;
+import gamer.def.Move;
+import gamer.def.State;
+import gamer.util.SearchPool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/**
+ * Expectimax search for games with chance moves, e.g. 2048.
+ *
+ * The first player maximizes the score, the second one minimizes it, and the
+ * chance nodes average the scores of their children weighted by
+ * State.getMoveProbability(). The depth is counted in the players' moves.
+ * Chance nodes with many outcomes can be limited to a random sample of them,
+ * and the branches with a low probability are evaluated without a search.
+ * If the state implements HashableState, the scores are cached by the hash.
+ *
+ * The top-level moves are searched in parallel, each worker with its own
+ * copy of the state and its own cache.
+ */
+public class ExpectimaxPlayer<S extends State<S, M>, M extends Move>
+    implements ComputerPlayer<S, M> {
+  /** Samples are added to the shared counter in batches of this size. */
+  private static final int SAMPLES_BATCH = 1024;
+
+  private long timeout = 0;
+  private long maxSamples = Long.MAX_VALUE;
+  private int depth = 2;
+  private ToIntFunction<S> depthFunction = null;
+  private int maxChanceSamples = Integer.MAX_VALUE;
+  private double minProbability = 0;
+  private int cacheBits = 16;
+  private int workers = 1;
+  private SearchPool searchPool = null;
+  private Evaluator<S> evaluator;
+
+  private volatile long deadline = Long.MAX_VALUE;
+  /** Set by cancel(), and cleared only when selectMove() returns. */
+  private volatile boolean cancelled = false;
+  private final AtomicLong totalSamples = new AtomicLong();
+  private final List<Searcher> searchers = new ArrayList<>();
+
+  private long samples = 0;
+  private long cacheProbes = 0;
+  private long cacheHits = 0;
+  private int lastDepth = 0;
+  private double selectedPayoff = 0;
+  private String selectedMoveStr;
+
+  public ExpectimaxPlayer() {
+  }
+
+  @Override
+  public String getName() {
+    String workersStr =
+        workers < 2 ? "" : String.format(" threads=%d", workers);
+    String depthStr = depthFunction != null ? "auto" : Integer.toString(depth);
+    return String.format("ExpectimaxPlayer(depth=%s%s)", depthStr, workersStr);
+  }
+
+  @Override
+  public void setMaxWorkers(int maxWorkers) {
+    workers = Math.max(1, maxWorkers);
+  }
+
+  @Override
+  public void setSearchPool(SearchPool pool) {
+    searchPool = pool;
+  }
+
+  /** Stops the search the same way as the timeout. */
+  @Override
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * After the samples limit or the timeout is reached, the remaining nodes
+   * are evaluated without a search.
+   */
+  @Override
+  public void setMaxSamples(long maxSamples) {
+    this.maxSamples = maxSamples;
+  }
+
+  @Override
+  public void setTimeout(long timeout) {
+    this.timeout = Math.max(timeout, 0);
+  }
+
+  public void setEvaluator(Evaluator<S> evaluator) {
+    this.evaluator = evaluator;
+  }
+
+  /** Search depth in the players' moves. */
+  public void setDepth(int depth) {
+    this.depth = depth;
+    this.depthFunction = null;
+  }
+
+  /** Choose the search depth for each position, e.g. by its complexity. */
+  public void setDepthFunction(ToIntFunction<S> depthFunction) {
+    this.depthFunction = depthFunction;
+  }
+
+  /**
+   * Search only this many random outcomes of the chance nodes with more
+   * outcomes, and average them with equal weights.
+   */
+  public void setMaxChanceSamples(int maxChanceSamples) {
+    this.maxChanceSamples = Math.max(1, maxChanceSamples);
+  }
+
+  /**
+   * Evaluate the nodes, that are reached from the root with a lower
+   * probability, without a search.
+   */
+  public void setMinProbability(double minProbability) {
+    this.minProbability = minProbability;
+  }
+
+  /** Set the size of the score cache of each worker, 0 to disable it. */
+  public void setCacheSize(int entries) {
+    cacheBits = entries <= 0
+                ? -1 : 31 - Integer.numberOfLeadingZeros(entries);
+    searchers.clear();
+  }
+
+  @Override
+  public M selectMove(S state) {
+    if (evaluator == null) {
+      throw new RuntimeException(
+          "Expectimax called with unspecified evaluator.");
+    }
+    if (state.isRandom()) {
+      throw new IllegalArgumentException(
+          "Expectimax should select a player's move.");
+    }
+    deadline = timeout > 0 ? System.currentTimeMillis() + timeout
+                           : Long.MAX_VALUE;
+    totalSamples.set(0);
+    lastDepth = depthFunction != null ? depthFunction.applyAsInt(state) : depth;
+
+    List<M> moves = state.getMoves();
+    double[] scores = new double[moves.size()];
+    int threads = Math.min(workers, moves.size());
+    while (searchers.size() < threads) {
+      searchers.add(new Searcher());
+    }
+
+    // Worker i searches the moves i, i + threads, ...
+    List<Runnable> tasks = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      Searcher searcher = searchers.get(i);
+      int first = i;
+      tasks.add(() -> {
+        searcher.newSearch();
+        for (int m = first; m < moves.size(); m += threads) {
+          S child = state.clone();
+          child.play(moves.get(m));
+          scores[m] = searcher.search(child, lastDepth - 1, 1.0);
+        }
+      });
+    }
+    if (threads > 1) {
+      (searchPool != null ? searchPool : SearchPool.getDefault())
+          .invokeAll(tasks);
+    } else {
+      tasks.get(0).run();
+    }
+    cancelled = false;
+
+    boolean maximize = state.getPlayer() == 0;
+    int best = 0;
+    for (int m = 1; m < moves.size(); m++) {
+      if (maximize ? scores[m] > scores[best] : scores[m] < scores[best]) {
+        best = m;
+      }
+    }
+
+    samples = 0;
+    cacheProbes = 0;
+    cacheHits = 0;
+    for (int i = 0; i < threads; i++) {
+      samples += searchers.get(i).samples;
+      cacheProbes += searchers.get(i).cacheProbes;
+      cacheHits += searchers.get(i).cacheHits;
+    }
+    selectedPayoff = scores[best];
+    selectedMoveStr = state.moveToString(moves.get(best));
+    return moves.get(best);
+  }
+
+  @Override
+  public String getReport() {
+    String cacheStr = cacheProbes == 0 ? "" : String
+        .format(", cache hits: %.1f%%", 100.0 * cacheHits / cacheProbes);
+    return String.format("%s depth: %d, samples: %d, score: %f%s",
+                         selectedMoveStr, lastDepth, samples, selectedPayoff,
+                         cacheStr);
+  }
+
+  /** Expected score of the state, searched to the depth. */
+  /* package */ double search(S state, int depth) {
+    Searcher searcher = new Searcher();
+    searcher.newSearch();
+    return searcher.search(state, depth, 1.0);
+  }
+
+  /** Search state of a single worker. */
+  private class Searcher {
+    private long samples = 0;
+    private long cacheProbes = 0;
+    private long cacheHits = 0;
+    // Direct-mapped cache of the scores. The depth is stored plus one, so
+    // that 0 marks an empty entry.
+    private final long[] cacheKeys;
+    private final double[] cacheScores;
+    private final byte[] cacheDepths;
+
+    Searcher() {
+      int size = cacheBits < 0 ? 0 : 1 << cacheBits;
+      cacheKeys = new long[size];
+      cacheScores = new double[size];
+      cacheDepths = new byte[size];
+    }
+
+    void newSearch() {
+      samples = 0;
+      cacheProbes = 0;
+      cacheHits = 0;
+      Arrays.fill(cacheDepths, (byte) 0);
+    }
+
+    private void addSample() {
+      samples++;
+      if ((samples & (SAMPLES_BATCH - 1)) == 0) {
+        totalSamples.addAndGet(SAMPLES_BATCH);
+      }
+    }
+
+    private boolean isStopped() {
+      return cancelled || System.currentTimeMillis() >= deadline ||
+             totalSamples.get() + (samples & (SAMPLES_BATCH - 1)) >=
+             maxSamples;
+    }
+
+    /**
+     * Expected score of the state.
+     *
+     * @param probability Probability to reach the state from the root.
+     */
+    double search(S state, int depth, double probability) {
+      if (state.isTerminal()) {
+        return state.getPayoff(0);
+      }
+      if (depth <= 0 || probability < minProbability || isStopped()) {
+        addSample();
+        return evaluator.evaluate(state);
+      }
+
+      long hash = 0;
+      int index = 0;
+      if (cacheKeys.length > 0 && state instanceof HashableState) {
+        hash = ((HashableState) state).getHash();
+        index = (int) hash & (cacheKeys.length - 1);
+        cacheProbes++;
+        if (cacheKeys[index] == hash && cacheDepths[index] > depth) {
+          cacheHits++;
+          return cacheScores[index];
+        }
+      }
+
+      double score = state.isRandom()
+                     ? searchChance(state, depth, probability)
+                     : searchPlayer(state, depth, probability);
+
+      if (hash != 0 && depth < Byte.MAX_VALUE) {
+        cacheKeys[index] = hash;
+        cacheScores[index] = score;
+        cacheDepths[index] = (byte) (depth + 1);
+      }
+      return score;
+    }
+
+    private double searchPlayer(S state, int depth, double probability) {
+      boolean maximize = state.getPlayer() == 0;
+      double best = maximize ? Double.NEGATIVE_INFINITY
+                             : Double.POSITIVE_INFINITY;
+      for (M move : state.getMoves()) {
+        double score = searchChild(state, move, depth - 1, probability);
+        best = maximize ? Math.max(best, score) : Math.min(best, score);
+      }
+      return best;
+    }
+
+    private double searchChance(S state, int depth, double probability) {
+      List<M> moves = state.getMoves();
+      double sum = 0;
+      if (moves.size() > maxChanceSamples) {
+        for (int i = 0; i < maxChanceSamples; i++) {
+          sum += searchChild(state, state.getRandomMove(), depth,
+                             probability / maxChanceSamples);
+        }
+        return sum / maxChanceSamples;
+      }
+
+      for (M move : moves) {
+        double p = state.getMoveProbability(move);
+        sum += p * searchChild(state, move, depth, probability * p);
+      }
+      return sum;
+    }
+
+    private double searchChild(
+        S state, M move, int depth, double probability) {
+      if (state.supportsUndo()) {
+        long undo = state.playWithUndo(move);
+        double score = search(state, depth, probability);
+        state.unplay(move, undo);
+        return score;
+      }
+      S child = state.clone();
+      child.play(move);
+      return search(child, depth, probability);
+    }
+  }
+}
@@ -2,11 +2,46 @@ package gamer.minimax;
 
 import gamer.def.ComputerPlayer;
 import gamer.def.Evaluator;
+import gamer.def.HashableState;
 import gamer.def.Move;
+import gamer.def.MoveGainEvaluator;
+import gamer.def.MoveGenerator;
+import gamer.def.MoveHeuristic;
+import gamer.def.Solver;
 import gamer.def.State;
+import gamer.util.SearchPool;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Alpha-beta search with iterative deepening.
+ *
+ * Each iteration starts with an aspiration window around the score of the
+ * previous one and tries the previous principal variation first. Moves after
+ * the first one are searched with a null window, and only re-searched with
+ * the full window if they turn out to be better (principal variation search).
+ *
+ * With several workers and a transposition table the search is parallelized
+ * with Lazy SMP: all threads search the same position sharing the
+ * transposition table, half of them one ply deeper than the others, and the
+ * deepest completed iteration is used.
+ */
 public class MinimaxPlayer<S extends State<S, M>, M extends Move>
     implements ComputerPlayer<S, M> {
+  /** Samples are added to the shared counter in batches of this size. */
+  private static final int SAMPLES_BATCH = 1024;
+
+  // Move ordering scores: hash move, then moves with positive heuristic
+  // scores, then killers, then quiet moves by history.
+  private static final int HASH_MOVE_SCORE = Integer.MAX_VALUE;
+  private static final int HEURISTIC_SCORE = 1 << 24;
+  private static final int KILLER_SCORE = HEURISTIC_SCORE - 2;
+  private static final int MAX_HISTORY = 1 << 22;
+  private static final int HISTORY_SIZE = 1 << 16;
 
   private double parentScoreCoefficient = 0.001;
   private double childScoreCoefficient = 0.999;
@@ -14,29 +49,72 @@ public class MinimaxPlayer<S extends State<S, M>, M extends Move>
   private long timeout = 0;
   private long maxSamples = Long.MAX_VALUE;
   private int maxDepth = Integer.MAX_VALUE;
+  private int workers = 1;
+  private SearchPool searchPool = null;
+
+  private volatile long deadline = Long.MAX_VALUE;
+  private volatile boolean stopped = false;
+  /** Set by cancel(), and cleared only when selectMove() returns. */
+  private volatile boolean cancelled = false;
+  private final AtomicLong totalSamples = new AtomicLong();
+  private SearchResult<M> bestResult;
+  private List<M> bestPv;
+  private int bestDepth;
 
   private long samples = 0;
-  private long deadline = Long.MAX_VALUE;
   private double selectedPayoff = 0;
   private int lastDepth = 0;
   private String selectedMoveStr;
+  private String pvStr = "";
 
   private Evaluator<S> evaluator;
+  private MoveHeuristic<S, M> moveHeuristic = null;
+  private boolean historyHeuristics = true;
+  private MoveGenerator<S, M> quiescenceGenerator = null;
+  private MoveGainEvaluator<S, M> gainEvaluator = null;
+  private Solver<S, M> solver = null;
+  private double deltaMargin = 0;
+  private double aspirationWindow = 0.005;
+  private boolean principalVariationSearch = true;
+  private long[] nodesPerDepth = new long[0];
+
+  private int transpositionTableSizeMb = 16;
+  private TranspositionTable transpositionTable = null;
+  private long ttProbes = 0;
+  private long ttHits = 0;
 
   public MinimaxPlayer() {
   }
 
   @Override
   public String getName() {
-    return String.format("MinimaxPlayer(timeout=%01.1f)", timeout / 1000.0);
+    String workersStr =
+        workers < 2 ? "" : String.format(" threads=%d", workers);
+    return String.format("MinimaxPlayer(timeout=%01.1f%s)", timeout / 1000.0,
+                         workersStr);
   }
 
+  /**
+   * Multithreading requires the transposition table, otherwise the search is
+   * single-threaded.
+   */
   @Override
   public void setMaxWorkers(int maxWorkers) {
-    if (maxWorkers > 1) {
-      throw new UnsupportedOperationException(
-          "MinimaxPlayer doesn't support multithreading.");
-    }
+    workers = Math.max(1, maxWorkers);
+  }
+
+  @Override
+  public void setSearchPool(SearchPool pool) {
+    searchPool = pool;
+  }
+
+  /**
+   * Stops the search the same way as the timeout. If no search is running,
+   * the next selectMove() returns without searching.
+   */
+  @Override
+  public void cancel() {
+    cancelled = true;
   }
 
   @Override
@@ -46,7 +124,7 @@ public class MinimaxPlayer<S extends State<S, M>, M extends Move>
 
   @Override
   public void setTimeout(long timeout) {
-    this.timeout = timeout <= 0 ? Long.MAX_VALUE : timeout;
+    this.timeout = Math.max(timeout, 0);
   }
 
   public void setMaxDepth(int maxDepth) {
@@ -57,36 +135,163 @@ public class MinimaxPlayer<S extends State<S, M>, M extends Move>
     this.evaluator = evaluator;
   }
 
+  /**
+   * The leaves solved by the solver get the exact payoff instead of the
+   * evaluation, discounted by the number of moves like the searched scores.
+   */
+  @Override
+  public void addSolver(Solver<S, M> solver) {
+    this.solver = solver;
+  }
+
+  /** Heuristic for ordering moves, e.g. captures in chess. */
+  public void setMoveHeuristic(MoveHeuristic<S, M> moveHeuristic) {
+    this.moveHeuristic = moveHeuristic;
+  }
+
+  /** Enable or disable the killer move and history heuristics. */
+  public void setHistoryHeuristics(boolean enabled) {
+    historyHeuristics = enabled;
+  }
+
+  /**
+   * Extend the leaves of the search with the moves from the generator, e.g.
+   * captures in chess, until the position is quiet. null disables the
+   * quiescence search.
+   */
+  public void setQuiescenceGenerator(MoveGenerator<S, M> generator) {
+    quiescenceGenerator = generator;
+  }
+
+  /**
+   * Skip the moves in quiescence search that can't raise the score above the
+   * current bound even with the maximum gain plus the margin.
+   */
+  public void setDeltaPruning(MoveGainEvaluator<S, M> gainEvaluator,
+                              double margin) {
+    this.gainEvaluator = gainEvaluator;
+    this.deltaMargin = margin;
+  }
+
+  /**
+   * Half-width of the aspiration window around the score of the previous
+   * iteration, 0 to search each iteration with the full window.
+   */
+  public void setAspirationWindow(double window) {
+    aspirationWindow = window;
+  }
+
+  /** Enable or disable null window searches of the non-first moves. */
+  public void setPrincipalVariationSearch(boolean enabled) {
+    principalVariationSearch = enabled;
+  }
+
+  /**
+   * Set the size of the transposition table in megabytes, 0 to disable it.
+   * The table is only used for states implementing HashableState.
+   */
+  public void setTranspositionTableSize(int sizeMb) {
+    transpositionTableSizeMb = sizeMb;
+    if (transpositionTable != null &&
+        transpositionTable.getSizeMb() != sizeMb) {
+      transpositionTable = null;
+    }
+  }
+
   @Override
   public M selectMove(S state) {
     if (evaluator == null) {
       throw new RuntimeException("Minimax called with unspecified evaluator.");
     }
     deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
-    samples = 0;
-    SearchResult<M> result = null;
-    for (int depth = 1;
-         depth <= maxDepth && System.currentTimeMillis() < deadline &&
-         samples < maxSamples; depth++) {
-      SearchResult<M> newResult =
-          search(state, depth, state.getGame().getMinPayoff(),
-                 state.getGame().getMaxPayoff());
-      if (newResult != null) {
-        result = newResult;
-        lastDepth = depth;
+    stopped = false;
+    totalSamples.set(0);
+    bestResult = null;
+    bestDepth = 0;
+    if (state instanceof HashableState && transpositionTableSizeMb > 0) {
+      if (transpositionTable == null) {
+        transpositionTable = new TranspositionTable(transpositionTableSizeMb);
+      }
+      transpositionTable.newSearch();
+    }
+
+    List<Searcher> searchers = new ArrayList<>();
+    for (int i = 0; i < (transpositionTable != null ? workers : 1); i++) {
+      searchers.add(new Searcher());
+    }
+
+    // The search plays and reverts moves on the state, so each thread gets
+    // its own copy.
+    if (searchers.size() > 1) {
+      List<Runnable> tasks = new ArrayList<>();
+      // The first task runs in this thread, and stops the helpers when done.
+      tasks.add(() -> {
+        searchers.get(0).iterativeDeepening(state.clone(), 1);
+        stopped = true;
+      });
+      for (int i = 1; i < searchers.size(); i++) {
+        Searcher helper = searchers.get(i);
+        S helperState = state.clone();
+        int firstDepth = 1 + i % 2;
+        tasks.add(() -> helper.iterativeDeepening(helperState, firstDepth));
       }
+      (searchPool != null ? searchPool : SearchPool.getDefault())
+          .invokeAll(tasks);
+      stopped = false;
+    } else {
+      searchers.get(0).iterativeDeepening(state.clone(), 1);
     }
+    cancelled = false;
 
-    selectedPayoff = result.score;
-    selectedMoveStr = state.moveToString(result.move);
-    return result.move;
+    if (bestResult == null) {
+      // Stopped before the first iteration completed.
+      bestResult = new SearchResult<>(
+          state.getMoves().get(0), evaluator.evaluate(state));
+      bestPv = Collections.singletonList(bestResult.move);
+    }
+
+    samples = 0;
+    ttProbes = 0;
+    ttHits = 0;
+    for (Searcher searcher : searchers) {
+      samples += searcher.samples;
+      ttProbes += searcher.ttProbes;
+      ttHits += searcher.ttHits;
+    }
+
+    Searcher main = searchers.get(0);
+    nodesPerDepth = Arrays.copyOf(main.nodesPerDepth, main.completedDepth + 1);
+    lastDepth = bestDepth;
+    selectedPayoff = bestResult.score;
+    selectedMoveStr = state.moveToString(bestResult.move);
+    StringBuilder pvBuilder = new StringBuilder();
+    S pvState = state.clone();
+    for (M move : bestPv) {
+      pvBuilder.append(' ').append(pvState.moveToString(move));
+      pvState.play(move);
+    }
+    pvStr = pvBuilder.toString();
+    return bestResult.move;
   }
 
   @Override
   public String getReport() {
+    String ttStr = ttProbes == 0 ? "" : String
+        .format(", tt hits: %.1f%%", 100.0 * ttHits / ttProbes);
+    StringBuilder nodesStr = new StringBuilder();
+    for (int depth = 1; depth < nodesPerDepth.length; depth++) {
+      nodesStr.append(' ').append(nodesPerDepth[depth]);
+    }
+    if (nodesPerDepth.length > 2) {
+      nodesStr.append(String.format(
+          ", branching factor: %.2f",
+          (double) nodesPerDepth[nodesPerDepth.length - 1] /
+          nodesPerDepth[nodesPerDepth.length - 2]));
+    }
     return String
-        .format("%s depth: %d, samples: %d, score: %f%n", selectedMoveStr,
-                lastDepth, samples, selectedPayoff);
+        .format("%s depth: %d, samples: %d, score: %f%s%n" +
+                "pv:%s%nnodes per depth:%s%n", selectedMoveStr,
+                lastDepth, samples, selectedPayoff, ttStr, pvStr, nodesStr);
   }
 
   static class SearchResult<M extends Move> {
@@ -101,61 +306,449 @@ public class MinimaxPlayer<S extends State<S, M>, M extends Move>
 
   /* package */ SearchResult<M> search(
       S state, int depth, double minScore, double maxScore) {
-    assert state.getPlayer() == 0 || state.getPlayer() == 1;
-    if (System.currentTimeMillis() >= deadline || samples >= maxSamples) {
-      return null;
-    }
-
-    if (state.isTerminal()) {
-      return new SearchResult<>(null, state.getPayoff(0));
-    }
-
-    double currentScore = evaluator.evaluate(state);
-    samples++;
-    if (depth == 0) {
-      return new SearchResult<>(null, currentScore);
-    }
-
-    double bestChildScore =
-        state.getPlayerBool() ? state.getGame().getMinPayoff() - 1
-                              : state.getGame().getMaxPayoff() + 1;
-    double minChildScore = Math.max((minScore - parentScoreCoefficient * currentScore) /
-                           childScoreCoefficient, state.getGame().getMinPayoff());
-    double maxChildScore = Math.min((maxScore - parentScoreCoefficient * currentScore) /
-                           childScoreCoefficient, state.getGame().getMaxPayoff());
-    M bestMove = null;
-
-    for (M move : state.getMoves()) {
-      S stateClone = state.clone();
-      stateClone.play(move);
-      SearchResult<M> childResult =
-          search(stateClone, depth - 1, minChildScore, maxChildScore);
-      if (childResult == null) return null;
-      if (state.getPlayerBool() ? (childResult.score > bestChildScore)
-                                : (childResult.score < bestChildScore)) {
-        bestChildScore = childResult.score;
-        bestMove = move;
-        if (state.getPlayerBool()) {
-          if (bestChildScore > minChildScore) {
-            minChildScore = bestChildScore;
-            if (bestChildScore >= maxChildScore) {
-              break;
+    return new Searcher().search(state, depth, minScore, maxScore);
+  }
+
+  private synchronized void addResult(
+      SearchResult<M> result, List<M> pv, int depth) {
+    if (depth > bestDepth) {
+      bestResult = result;
+      bestPv = pv;
+      bestDepth = depth;
+    }
+  }
+
+  /** Search state of a single thread. */
+  private class Searcher {
+    private long samples = 0;
+    private long ttProbes = 0;
+    private long ttHits = 0;
+    /** Nodes searched in each completed iteration. */
+    private long[] nodesPerDepth = new long[16];
+    private int completedDepth = 0;
+
+    /** Distance from the root of the current node. */
+    private int ply = 0;
+    // Per ply buffers for move ordering, reused to avoid allocations.
+    private int[][] orderScores = new int[16][];
+    private int[][] order = new int[16][];
+    /** Two killer moves per ply. */
+    private Object[] killers = new Object[32];
+    /** Triangular table with the principal variations from each ply. */
+    private Object[][] pv = new Object[16][];
+    private int[] pvLength = new int[16];
+    /** Principal variation of the last completed iteration. */
+    private Object[] previousPv = new Object[0];
+    /** Whether the current node is on the previous principal variation. */
+    private boolean followPv = false;
+    /** History scores of quiet moves, indexed by player and move hash. */
+    private final int[][] history = historyHeuristics
+        ? new int[2][HISTORY_SIZE] : null;
+
+    void iterativeDeepening(S state, int firstDepth) {
+      double minPayoff = state.getGame().getMinPayoff();
+      double maxPayoff = state.getGame().getMaxPayoff();
+      double lastScore = 0;
+      for (int depth = firstDepth; depth <= maxDepth && !isStopped();
+           depth++) {
+        long samplesBefore = samples;
+        double window = aspirationWindow;
+        boolean aspiration = window > 0 && completedDepth > 0;
+        double minScore =
+            aspiration ? Math.max(lastScore - window, minPayoff) : minPayoff;
+        double maxScore =
+            aspiration ? Math.min(lastScore + window, maxPayoff) : maxPayoff;
+
+        SearchResult<M> result;
+        while (true) {
+          followPv = true;
+          result = search(state, depth, minScore, maxScore);
+          if (result == null) break;
+          // Widen the window on the failed side and search again.
+          if (result.score <= minScore && minScore > minPayoff) {
+            window *= 4;
+            minScore = Math.max(lastScore - window, minPayoff);
+          } else if (result.score >= maxScore && maxScore < maxPayoff) {
+            window *= 4;
+            maxScore = Math.min(lastScore + window, maxPayoff);
+          } else {
+            break;
+          }
+        }
+
+        if (result != null) {
+          lastScore = result.score;
+          previousPv = Arrays.copyOf(pv[0], pvLength[0]);
+          addResult(result, getPv(), depth);
+          if (depth >= nodesPerDepth.length) {
+            nodesPerDepth = Arrays.copyOf(nodesPerDepth, 2 * depth);
+          }
+          nodesPerDepth[depth] = samples - samplesBefore;
+          completedDepth = depth;
+        }
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<M> getPv() {
+      List<M> result = new ArrayList<>(previousPv.length);
+      for (Object move : previousPv) {
+        result.add((M) move);
+      }
+      return result;
+    }
+
+    /** Make the move followed by the child's variation the PV of the ply. */
+    private void updatePv(M move) {
+      int childLength = pvLength[ply + 1];
+      if (pv[ply] == null || pv[ply].length <= childLength) {
+        pv[ply] = new Object[childLength + 16];
+      }
+      pv[ply][0] = move;
+      if (childLength > 0) {
+        System.arraycopy(pv[ply + 1], 0, pv[ply], 1, childLength);
+      }
+      pvLength[ply] = childLength + 1;
+    }
+
+    /**
+     * Fill the ordering buffers for the ply.
+     *
+     * @return Number of moves.
+     */
+    private int scoreMoves(S state, List<M> moves, int hashMoveIndex) {
+      int n = moves.size();
+      if (ply >= order.length) {
+        order = Arrays.copyOf(order, 2 * ply);
+        orderScores = Arrays.copyOf(orderScores, 2 * ply);
+        killers = Arrays.copyOf(killers, 4 * ply);
+      }
+      if (order[ply] == null || order[ply].length < n) {
+        order[ply] = new int[Math.max(n, 64)];
+        orderScores[ply] = new int[Math.max(n, 64)];
+      }
+
+      int[] plyOrder = order[ply];
+      int[] scores = orderScores[ply];
+      Object killer1 = killers[2 * ply];
+      Object killer2 = killers[2 * ply + 1];
+      int[] playerHistory = history == null ? null
+                            : history[state.getPlayerBool() ? 0 : 1];
+
+      for (int i = 0; i < n; i++) {
+        M move = moves.get(i);
+        int score = 0;
+        if (i == hashMoveIndex) {
+          score = HASH_MOVE_SCORE;
+        } else if (moveHeuristic != null &&
+                   (score = moveHeuristic.score(state, move)) > 0) {
+          score += HEURISTIC_SCORE;
+        } else if (move.equals(killer1)) {
+          score = KILLER_SCORE + 1;
+        } else if (move.equals(killer2)) {
+          score = KILLER_SCORE;
+        } else if (playerHistory != null) {
+          score = playerHistory[move.hashCode() & (HISTORY_SIZE - 1)];
+        }
+        plyOrder[i] = i;
+        scores[i] = score;
+      }
+
+      return n;
+    }
+
+    /** Select the move to search next (selection sort step). */
+    private int nextMove(int i, int n) {
+      int[] plyOrder = order[ply];
+      int[] scores = orderScores[ply];
+      int best = i;
+      for (int j = i + 1; j < n; j++) {
+        if (scores[j] > scores[best]) {
+          best = j;
+        }
+      }
+      int score = scores[best];
+      scores[best] = scores[i];
+      scores[i] = score;
+      int moveIndex = plyOrder[best];
+      plyOrder[best] = plyOrder[i];
+      plyOrder[i] = moveIndex;
+      return moveIndex;
+    }
+
+    /** Update killers and history after a cutoff by a quiet move. */
+    private void addCutoff(S state, M move, int depth) {
+      if (history == null ||
+          moveHeuristic != null && moveHeuristic.score(state, move) > 0) {
+        return;
+      }
+
+      if (!move.equals(killers[2 * ply])) {
+        killers[2 * ply + 1] = killers[2 * ply];
+        killers[2 * ply] = move;
+      }
+
+      int[] playerHistory = history[state.getPlayerBool() ? 0 : 1];
+      int index = move.hashCode() & (HISTORY_SIZE - 1);
+      playerHistory[index] += depth * depth;
+      if (playerHistory[index] > MAX_HISTORY) {
+        for (int[] h : history) {
+          for (int j = 0; j < HISTORY_SIZE; j++) {
+            h[j] /= 2;
+          }
+        }
+      }
+    }
+
+    private void addSample() {
+      samples++;
+      if ((samples & (SAMPLES_BATCH - 1)) == 0) {
+        totalSamples.addAndGet(SAMPLES_BATCH);
+      }
+    }
+
+    private boolean isStopped() {
+      return stopped || cancelled || System.currentTimeMillis() >= deadline ||
+             totalSamples.get() + (samples & (SAMPLES_BATCH - 1)) >=
+             maxSamples;
+    }
+
+    private SearchResult<M> searchChild(
+        S state, M move, boolean undo, int depth, double minScore,
+        double maxScore) {
+      SearchResult<M> result;
+      ply++;
+      if (undo) {
+        long undoToken = state.playWithUndo(move);
+        result = search(state, depth, minScore, maxScore);
+        state.unplay(move, undoToken);
+      } else {
+        S stateClone = state.clone();
+        stateClone.play(move);
+        result = search(stateClone, depth, minScore, maxScore);
+      }
+      ply--;
+      return result;
+    }
+
+    SearchResult<M> search(
+        S state, int depth, double minScore, double maxScore) {
+      assert state.getPlayer() == 0 || state.getPlayer() == 1;
+      boolean onPv = followPv;
+      followPv = false;
+      if (ply + 1 >= pvLength.length) {
+        pvLength = Arrays.copyOf(pvLength, 2 * (ply + 1));
+        pv = Arrays.copyOf(pv, 2 * (ply + 1));
+      }
+      pvLength[ply] = 0;
+      if (isStopped()) {
+        return null;
+      }
+
+      if (state.isTerminal()) {
+        return new SearchResult<>(null, state.getPayoff(0));
+      }
+
+      List<M> moves = null;
+      boolean useTable = transpositionTable != null && depth > 0 &&
+                         state instanceof HashableState;
+      long hash = 0;
+      int hashMoveIndex = -1;
+      if (useTable) {
+        hash = ((HashableState) state).getHash();
+        long entry = transpositionTable.probe(hash);
+        ttProbes++;
+        if (entry != 0) {
+          ttHits++;
+          moves = state.getMoves();
+          hashMoveIndex = TranspositionTable.moveIndex(entry);
+          if (hashMoveIndex >= moves.size()) {
+            hashMoveIndex = -1;
+          }
+          if (TranspositionTable.depth(entry) >= depth && hashMoveIndex >= 0) {
+            double score = TranspositionTable.score(entry);
+            int bound = TranspositionTable.bound(entry);
+            if (bound == TranspositionTable.EXACT ||
+                bound == TranspositionTable.LOWER && score >= maxScore ||
+                bound == TranspositionTable.UPPER && score <= minScore) {
+              pvLength[ply + 1] = 0;
+              updatePv(moves.get(hashMoveIndex));
+              return new SearchResult<>(moves.get(hashMoveIndex), score);
             }
           }
+        }
+      }
+
+      if (depth == 0 && solver != null) {
+        Solver.Result<M> solved = solver.solve(state);
+        if (solved != null) {
+          addSample();
+          return new SearchResult<>(null, solved.payoff *
+              Math.pow(childScoreCoefficient, solved.moves));
+        }
+      }
+
+      if (depth == 0 && quiescenceGenerator != null) {
+        return new SearchResult<>(null, quiesce(state, minScore, maxScore));
+      }
+
+      double currentScore = evaluator.evaluate(state);
+      addSample();
+      if (depth == 0) {
+        return new SearchResult<>(null, currentScore);
+      }
+      if (moves == null) {
+        moves = state.getMoves();
+      }
+      int pvMoveIndex = -1;
+      if (onPv && ply < previousPv.length) {
+        pvMoveIndex = moves.indexOf(previousPv[ply]);
+      }
+
+      double bestChildScore =
+          state.getPlayerBool() ? state.getGame().getMinPayoff() - 1
+                                : state.getGame().getMaxPayoff() + 1;
+      double minChildScore = Math.max((minScore - parentScoreCoefficient * currentScore) /
+                             childScoreCoefficient, state.getGame().getMinPayoff());
+      double maxChildScore = Math.min((maxScore - parentScoreCoefficient * currentScore) /
+                             childScoreCoefficient, state.getGame().getMaxPayoff());
+      M bestMove = null;
+      int bestMoveIndex = -1;
+
+      boolean undo = state.supportsUndo();
+      int movesCount = scoreMoves(
+          state, moves, hashMoveIndex >= 0 ? hashMoveIndex : pvMoveIndex);
+      for (int i = 0; i < movesCount; i++) {
+        int moveIndex = nextMove(i, movesCount);
+        M move = moves.get(moveIndex);
+        SearchResult<M> childResult;
+        if (principalVariationSearch && bestMove != null) {
+          // Only check whether the move is better than the best one so far.
+          double bound =
+              state.getPlayerBool() ? minChildScore : maxChildScore;
+          childResult = searchChild(state, move, undo, depth - 1, bound, bound);
+          if (childResult != null &&
+              childResult.score > minChildScore &&
+              childResult.score < maxChildScore) {
+            childResult = searchChild(
+                state, move, undo, depth - 1, minChildScore, maxChildScore);
+          }
         } else {
-          if (bestChildScore < maxChildScore) {
-            maxChildScore = bestChildScore;
-            if (bestChildScore <= minChildScore) {
-              break;
+          followPv = onPv && moveIndex == pvMoveIndex;
+          childResult = searchChild(
+              state, move, undo, depth - 1, minChildScore, maxChildScore);
+        }
+        if (childResult == null) return null;
+        if (state.getPlayerBool() ? (childResult.score > bestChildScore)
+                                  : (childResult.score < bestChildScore)) {
+          bestChildScore = childResult.score;
+          bestMove = move;
+          bestMoveIndex = moveIndex;
+          updatePv(move);
+          if (state.getPlayerBool()) {
+            if (bestChildScore > minChildScore) {
+              minChildScore = bestChildScore;
+              if (bestChildScore >= maxChildScore) {
+                addCutoff(state, move, depth);
+                break;
+              }
+            }
+          } else {
+            if (bestChildScore < maxChildScore) {
+              maxChildScore = bestChildScore;
+              if (bestChildScore <= minChildScore) {
+                addCutoff(state, move, depth);
+                break;
+              }
             }
           }
         }
       }
+
+      if (bestMove == null) return null;
+
+      double score = childScoreCoefficient * bestChildScore +
+                     parentScoreCoefficient * currentScore;
+      if (useTable) {
+        int bound = score <= minScore ? TranspositionTable.UPPER
+                    : score >= maxScore ? TranspositionTable.LOWER
+                    : TranspositionTable.EXACT;
+        transpositionTable.store(hash, depth, bound, score, bestMoveIndex);
+      }
+
+      return new SearchResult<>(bestMove, score);
     }
 
-    if (bestMove == null) return null;
+    /**
+     * Search only the moves from the quiescence generator. The player to move
+     * can also stop and take the static evaluation (stand pat), unless the
+     * moves are forced, e.g. the check evasions.
+     */
+    private double quiesce(S state, double minScore, double maxScore) {
+      if (state.isTerminal()) {
+        return state.getPayoff(0);
+      }
 
-    return new SearchResult<>(bestMove, childScoreCoefficient * bestChildScore +
-                                        parentScoreCoefficient * currentScore);
+      boolean player = state.getPlayerBool();
+      boolean forced = quiescenceGenerator.isForced(state);
+      double standPat;
+      if (forced) {
+        standPat = player ? state.getGame().getMinPayoff() - 1
+                          : state.getGame().getMaxPayoff() + 1;
+      } else {
+        standPat = evaluator.evaluate(state);
+        addSample();
+        if (player ? standPat >= maxScore : standPat <= minScore) {
+          return standPat;
+        }
+        if (player) {
+          minScore = Math.max(minScore, standPat);
+        } else {
+          maxScore = Math.min(maxScore, standPat);
+        }
+      }
+
+      List<M> moves = quiescenceGenerator.generate(state);
+      double bestScore = standPat;
+      boolean undo = state.supportsUndo();
+      int movesCount = scoreMoves(state, moves, -1);
+      for (int i = 0; i < movesCount; i++) {
+        M move = moves.get(nextMove(i, movesCount));
+        if (gainEvaluator != null && !forced) {
+          double gain = gainEvaluator.maxGain(state, move) + deltaMargin;
+          if (player ? standPat + gain <= minScore
+                     : standPat - gain >= maxScore) {
+            continue;
+          }
+        }
+
+        double score;
+        ply++;
+        if (undo) {
+          long undoToken = state.playWithUndo(move);
+          score = quiesce(state, minScore, maxScore);
+          state.unplay(move, undoToken);
+        } else {
+          S stateClone = state.clone();
+          stateClone.play(move);
+          score = quiesce(stateClone, minScore, maxScore);
+        }
+        ply--;
+
+        if (player ? score > bestScore : score < bestScore) {
+          bestScore = score;
+          if (player) {
+            minScore = Math.max(minScore, score);
+          } else {
+            maxScore = Math.min(maxScore, score);
+          }
+          if (minScore >= maxScore) {
+            break;
+          }
+        }
+      }
+
+      return bestScore;
+    }
   }
 }
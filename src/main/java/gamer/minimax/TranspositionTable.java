@@ -0,0 +1,107 @@
+package gamer.minimax;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size lock-free transposition table.
+ *
+ * Each entry takes two longs: the packed data and the position hash XORed
+ * with the data. An entry that was torn by concurrent writes doesn't pass
+ * the key check and is treated as a miss, so no locking is needed.
+ *
+ * Data layout: score as float bits (bits 0-31), depth (32-39), bound (40-41),
+ * move index + 1 (42-57) and search generation (58-63).
+ */
+final class TranspositionTable {
+  static final int EXACT = 1;
+  /** The score is a lower bound (fail high). */
+  static final int LOWER = 2;
+  /** The score is an upper bound (fail low). */
+  static final int UPPER = 3;
+
+  private static final int MAX_DEPTH = 0xFF;
+  private static final int NO_MOVE = 0xFFFF;
+
+  private final long[] table;
+  private final int mask;
+  private int generation = 0;
+
+  TranspositionTable(int sizeMb) {
+    long entries = Long.highestOneBit(Math.max(1, sizeMb) * (1L << 20) / 16);
+    // Two longs per entry, the array length must fit in an int.
+    entries = Math.min(entries, 1 << 29);
+    table = new long[(int) (2 * entries)];
+    mask = (int) entries - 1;
+  }
+
+  int getSizeMb() {
+    return (int) (table.length * 8L >> 20);
+  }
+
+  /** Should be called before each new search to age the old entries. */
+  void newSearch() {
+    generation = (generation + 1) & 0x3F;
+  }
+
+  void clear() {
+    Arrays.fill(table, 0);
+  }
+
+  /**
+   * Look up the position.
+   *
+   * @return Packed entry data, or 0 if the position is not in the table.
+   */
+  long probe(long hash) {
+    int i = index(hash);
+    long data = table[i + 1];
+    if (data == 0 || (table[i] ^ data) != hash)
+      return 0;
+    return data;
+  }
+
+  void store(long hash, int depth, int bound, double score, int moveIndex) {
+    int i = index(hash);
+    long oldData = table[i + 1];
+    if (oldData != 0 && (table[i] ^ oldData) != hash &&
+        generation(oldData) == generation && depth(oldData) > depth) {
+      // Keep the deeper entry from the current search.
+      return;
+    }
+
+    long data = (Float.floatToRawIntBits((float) score) & 0xFFFFFFFFL) |
+                ((long) Math.min(depth, MAX_DEPTH) << 32) |
+                ((long) bound << 40) |
+                ((long) (moveIndex < 0 || moveIndex >= NO_MOVE
+                         ? NO_MOVE : moveIndex) << 42) |
+                ((long) generation << 58);
+    table[i] = hash ^ data;
+    table[i + 1] = data;
+  }
+
+  static double score(long data) {
+    return Float.intBitsToFloat((int) data);
+  }
+
+  static int depth(long data) {
+    return (int) (data >>> 32) & MAX_DEPTH;
+  }
+
+  static int bound(long data) {
+    return (int) (data >>> 40) & 3;
+  }
+
+  /** Index of the best move in getMoves(), or -1. */
+  static int moveIndex(long data) {
+    int index = (int) (data >>> 42) & 0xFFFF;
+    return index == NO_MOVE ? -1 : index;
+  }
+
+  private static int generation(long data) {
+    return (int) (data >>> 58);
+  }
+
+  private int index(long hash) {
+    return 2 * ((int) (hash ^ (hash >>> 32)) & mask);
+  }
+}
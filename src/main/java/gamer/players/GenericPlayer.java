@@ -6,12 +6,11 @@ import gamer.def.Move;
 import gamer.def.MoveSelector;
 import gamer.def.State;
 import gamer.def.Solver;
+import gamer.util.SearchPool;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 abstract class GenericPlayer<S extends State<S, M>, M extends Move>
     implements ComputerPlayer<S, M> {
@@ -24,6 +23,8 @@ abstract class GenericPlayer<S extends State<S, M>, M extends Move>
   private MoveSelector<S, M> selector = null;
   private Solver<S, M> solver = null;
   private String report;
+  private SearchPool searchPool = null;
+  private final AtomicBoolean cancelled = new AtomicBoolean();
 
   GenericPlayer(Game<S, M> game) {
     nodeContext = new NodeContext<>(true, null, game);
@@ -60,27 +61,20 @@ abstract class GenericPlayer<S extends State<S, M>, M extends Move>
         return result.move;
     }
 
+    cancelled.set(false);
     Node<S, M> root = getRoot(state);
 
     long finishTime = timeout > 0 ? getCurrentTime() + timeout : -1;
 
     if (workers > 0) {
-      ExecutorService executor = Executors.newFixedThreadPool(workers);
-      List<Future<?>> tasks = new ArrayList<>();
+      List<Runnable> tasks = new ArrayList<>();
       for (int i = 0; i < workers; i++) {
-        tasks.add(executor.submit(
+        tasks.add(
             newSampler(root, state, finishTime, samplesLimit, samplesBatch,
-                       selector)));
+                       selector));
       }
-
-      for (Future<?> task : tasks) {
-        try {
-          task.get();
-        } catch (Exception ex) {
-          throw new RuntimeException(ex);
-        }
-      }
-      executor.shutdown();
+      (searchPool != null ? searchPool : SearchPool.getDefault())
+          .invokeAll(tasks);
     } else {
       newSampler(root, state, finishTime, samplesLimit, samplesBatch, selector)
           .run();
@@ -131,6 +125,16 @@ abstract class GenericPlayer<S extends State<S, M>, M extends Move>
     this.nodeContext.solver = solver;
   }
 
+  @Override
+  public void setSearchPool(SearchPool pool) {
+    searchPool = pool;
+  }
+
+  @Override
+  public void cancel() {
+    cancelled.set(true);
+  }
+
   public void setSelector(MoveSelector<S, M> selector) {
     this.selector = selector;
   }
@@ -158,6 +162,7 @@ abstract class GenericPlayer<S extends State<S, M>, M extends Move>
         root, state, finishTime, samplesLimit, samplesBatch, selector);
     if (solver != null)
       sampler.setSolver(solver);
+    sampler.setCancelled(cancelled);
     return sampler;
   }
 
@@ -5,6 +5,8 @@ import gamer.def.MoveSelector;
 import gamer.def.State;
 import gamer.def.Solver;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 class Sampler<S extends State<S, M>, M extends Move> implements Runnable {
   static final double PAYOFF_SCALE_FACTOR = 1 - 1E-9;
 
@@ -15,6 +17,7 @@ class Sampler<S extends State<S, M>, M extends Move> implements Runnable {
   private final int samplesBatch;
   private final MoveSelector<S, M> selector;
   private Solver<S, M> solver = null;
+  private AtomicBoolean cancelled = null;
 
   Sampler(Node<S, M> root,
           S startingState,
@@ -34,9 +37,14 @@ class Sampler<S extends State<S, M>, M extends Move> implements Runnable {
     this.solver = solver;
   }
 
+  /** Stop sampling when the flag is set. */
+  void setCancelled(AtomicBoolean cancelled) {
+    this.cancelled = cancelled;
+  }
+
   @Override
   public void run() {
-    while (!root.knowExact() &&
+    while ((cancelled == null || !cancelled.get()) && !root.knowExact() &&
         (maxSamples <= 0 || root.getSamples() < maxSamples) &&
         (finishTime <= 0 || System.currentTimeMillis() < finishTime)) {
       S state = startingState.clone();
@@ -3,6 +3,7 @@ package gamer.tournament;
 import gamer.def.ComputerPlayer;
 import gamer.def.Move;
 import gamer.def.State;
+import gamer.util.SearchPool;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -28,6 +29,7 @@ public final class Tournament<P extends State<P, M>, M extends Move> {
   private Queue<Match<P, M>> gamesQueue;
   private BlockingQueue<Match<P, M>> resultsQueue;
   private int rounds = 1;
+  private SearchPool searchPool = null;
 
   public Tournament(P startPosition) {
     this(startPosition, false);
@@ -60,6 +62,14 @@ public final class Tournament<P extends State<P, M>, M extends Move> {
     this.rounds = rounds;
   }
 
+  /**
+   * Pool for the search threads of all the players. If not set, the
+   * tournament creates one with enough threads for all the game threads.
+   */
+  public void setSearchPool(SearchPool pool) {
+    searchPool = pool;
+  }
+
   public void play() {
     if (players.size() < 2) {
       throw new RuntimeException("Not enough players for the tournament.");
@@ -67,9 +77,15 @@ public final class Tournament<P extends State<P, M>, M extends Move> {
 
     System.out.format("Starting a tournament with %d players:\n", players.size());
 
+    SearchPool pool = searchPool;
+    if (pool == null) {
+      pool = new SearchPool(gameThreads * Math.max(1, threadsPerPlayer - 1));
+    }
+
     for (ComputerPlayer<P, M> p : players) {
       System.out.println(p.getName());
       initPlayer(p);
+      p.setSearchPool(pool);
     }
 
     initResults();
@@ -99,6 +115,12 @@ public final class Tournament<P extends State<P, M>, M extends Move> {
 
     collectResults();
     executor.shutdown();
+    if (pool != searchPool) {
+      pool.shutdown();
+      for (ComputerPlayer<P, M> p : players) {
+        p.setSearchPool(null);
+      }
+    }
   }
 
   private void collectResults() {
@@ -3,13 +3,13 @@ package gamer.util;
 import gamer.def.TerminalPositionException;
 
 public final class GameStatusInt {
-  private static int PAYOFF_MASK = 3;
-  private static int TERMINAL_MASK = 4;
-  private static int PLAYER_MASK = 8;
+  private static final int PAYOFF_MASK = 3;
+  private static final int TERMINAL_MASK = 4;
+  private static final int PLAYER_MASK = 8;
   // Last move was pass (in Go)
-  private static int PASS_MASK = 16;
-  public static int WIN = 2 | TERMINAL_MASK;
-  public static int LOSS = TERMINAL_MASK | PLAYER_MASK;
+  private static final int PASS_MASK = 16;
+  public static final int WIN = 2 | TERMINAL_MASK;
+  public static final int LOSS = TERMINAL_MASK | PLAYER_MASK;
 
   public static boolean isTerminal(int status) {
     return (status & TERMINAL_MASK) != 0;
@@ -0,0 +1,110 @@
+package gamer.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived pool of threads for parallel searches.
+ *
+ * Players run their search threads in a pool instead of creating a new one
+ * for each move. The pool can be shared by several players, e.g. by all the
+ * players in a tournament. The threads are daemons, and the pool is shut
+ * down by a shutdown hook when the JVM exits.
+ */
+public final class SearchPool {
+  private static SearchPool defaultPool = null;
+
+  private final ExecutorService executor;
+  private final Thread shutdownHook;
+
+  /**
+   * A pool, that creates threads on demand and reuses them between
+   * searches. Idle threads are stopped after a minute.
+   */
+  public SearchPool() {
+    this(Executors.newCachedThreadPool(newThreadFactory()));
+  }
+
+  /** A pool with a fixed number of threads. */
+  public SearchPool(int threads) {
+    this(Executors.newFixedThreadPool(threads, newThreadFactory()));
+  }
+
+  /** Run the searches in the given executor, e.g. a ForkJoinPool. */
+  public SearchPool(ExecutorService executor) {
+    this.executor = executor;
+    shutdownHook = new Thread(executor::shutdownNow);
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  /** The pool used by the players, for which no pool was set. */
+  public static synchronized SearchPool getDefault() {
+    if (defaultPool == null) {
+      defaultPool = new SearchPool();
+    }
+    return defaultPool;
+  }
+
+  /**
+   * Run the tasks in parallel and wait until all of them are finished. The
+   * first task is run in the calling thread.
+   */
+  public void invokeAll(List<? extends Runnable> tasks) {
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 1; i < tasks.size(); i++) {
+      futures.add(executor.submit(tasks.get(i)));
+    }
+
+    RuntimeException exception = null;
+    try {
+      if (!tasks.isEmpty()) {
+        tasks.get(0).run();
+      }
+    } catch (RuntimeException ex) {
+      exception = ex;
+    }
+
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(ex);
+      } catch (ExecutionException ex) {
+        if (exception == null) {
+          exception = new RuntimeException(ex.getCause());
+        }
+      }
+    }
+
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  /** Stop the threads. Searches, that are still running, are interrupted. */
+  public void shutdown() {
+    executor.shutdownNow();
+    try {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    } catch (IllegalStateException ex) {
+      // The JVM is already shutting down.
+    }
+  }
+
+  private static ThreadFactory newThreadFactory() {
+    AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable);
+      thread.setName("search-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
@@ -0,0 +1,20 @@
+package gamer.util;
+
+import java.util.SplittableRandom;
+
+/**
+ * Random keys for Zobrist hashing. The keys are generated from a fixed seed,
+ * so the hashes are the same between the runs.
+ */
+public final class Zobrist {
+  private Zobrist() {}
+
+  public static long[] generateKeys(int count, long seed) {
+    SplittableRandom random = new SplittableRandom(seed);
+    long[] keys = new long[count];
+    for (int i = 0; i < count; i++) {
+      keys[i] = random.nextLong();
+    }
+    return keys;
+  }
+}
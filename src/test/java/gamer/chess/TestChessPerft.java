@@ -39,6 +39,22 @@ public class TestChessPerft {
     return total;
   }
 
+  private long perftUndo(ChessState state, int depth) {
+    if (depth == 1)
+      return state.getMoves().size();
+
+    long total = 0;
+    for (ChessMove move : state.getMoves()) {
+      String fen = Fen.toFen(state);
+      long undo = state.playWithUndo(move);
+      total += perftUndo(state, depth - 1);
+      state.unplay(move, undo);
+      assertEquals(fen, Fen.toFen(state));
+    }
+
+    return total;
+  }
+
   @Test
   public void initial1() {
     assertEquals(20, perft(INITIAL, 1));
@@ -196,4 +212,18 @@ public class TestChessPerft {
    assertEquals(3894594, perft(POSITION6, 4));
   }
 
+  @Test
+  public void undoKiwi3() {
+    assertEquals(97862, perftUndo(KIWIPETE.clone(), 3));
+  }
+
+  @Test
+  public void undoPos43() {
+    assertEquals(9467, perftUndo(POSITION4.clone(), 3));
+  }
+
+  @Test
+  public void undoPos53() {
+    assertEquals(53392, perftUndo(POSITION5.clone(), 3));
+  }
 }
@@ -2,10 +2,12 @@ package gamer.chess;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 public class TestChessState {
@@ -46,4 +48,117 @@ public class TestChessState {
     assertEquals(Pieces.EMPTY, stateClone.get("e4"));
     stateClone.play("e4");
   }
+
+  @Test
+  public void hashTransposition() {
+    ChessState state1 = Chess.getInstance().newGame();
+    for (String move : Arrays.asList("e4", "e5", "Nf3", "Nc6")) {
+      state1.play(move);
+    }
+    ChessState state2 = Chess.getInstance().newGame();
+    for (String move : Arrays.asList("Nf3", "Nc6", "e4", "e5")) {
+      state2.play(move);
+    }
+    assertEquals(state1.getHash(), state2.getHash());
+    assertEquals(
+        ChessState.fromFen(
+            "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3")
+            .getHash(),
+        state1.getHash());
+
+    state1.play("Bc4");
+    assertNotEquals(state1.getHash(), state2.getHash());
+  }
+
+  @Test
+  public void hashSideAndCastlings() {
+    ChessState initial = Chess.getInstance().newGame();
+    ChessState state = Chess.getInstance().newGame();
+    for (String move : Arrays.asList("Nf3", "Nf6", "Ng1", "Ng8")) {
+      state.play(move);
+    }
+    assertEquals(initial.getHash(), state.getHash());
+
+    state.play("Nf3");
+    assertNotEquals(initial.getHash(), state.getHash());
+
+    assertNotEquals(
+        ChessState.fromFen("r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1").getHash(),
+        ChessState.fromFen("r3k2r/8/8/8/8/8/8/R3K2R w Kkq - 0 1").getHash());
+    assertNotEquals(
+        ChessState.fromFen("4k3/8/8/3pP3/8/8/8/4K3 w - d6 0 1").getHash(),
+        ChessState.fromFen("4k3/8/8/3pP3/8/8/8/4K3 w - - 0 1").getHash());
+  }
+
+  @Test
+  public void hashUndo() {
+    ChessState state = ChessState.fromFen(
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq -");
+    long hash = state.getHash();
+    for (ChessMove move : state.getMoves()) {
+      long undo = state.playWithUndo(move);
+      assertNotEquals(hash, state.getHash());
+      state.unplay(move, undo);
+      assertEquals(hash, state.getHash());
+    }
+  }
+
+  @Test
+  public void movesAfterUndo() {
+    ChessState state = ChessState.fromFen(
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq -");
+    List<ChessMove> rootMoves = new ArrayList<>(state.getMoves());
+    ChessState clone = null;
+    List<ChessMove> cloneMoves = null;
+    for (ChessMove move : state.getMoves()) {
+      long undo = state.playWithUndo(move);
+      List<ChessMove> childMoves = new ArrayList<>(state.getMoves());
+      if (clone == null) {
+        clone = state.clone();
+        cloneMoves = childMoves;
+      }
+      for (ChessMove reply : state.getMoves()) {
+        long replyUndo = state.playWithUndo(reply);
+        state.getMoves();
+        state.unplay(reply, replyUndo);
+      }
+      assertEquals(childMoves, state.getMoves());
+      state.unplay(move, undo);
+    }
+    assertEquals(rootMoves, state.getMoves());
+    // The clone doesn't share the reused move buffers.
+    assertEquals(cloneMoves, clone.getMoves());
+  }
+
+  @Test
+  public void captures() {
+    String[] fens = {
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq -",
+        "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+        "4k3/8/8/3pP3/8/8/8/4K3 w - d6 0 1",
+        "4k3/8/8/8/1b6/8/3P4/4K3 w - - 0 1"};
+
+    for (String fen : fens) {
+      ChessState state = ChessState.fromFen(fen);
+      List<ChessMove> moves = ChessState.fromFen(fen).getMoves();
+      List<ChessMove> expected = new ArrayList<>();
+      for (ChessMove move : moves) {
+        if (state.get(move.to) != Pieces.EMPTY ||
+            move.promote != Pieces.EMPTY ||
+            move.to == state.getEnPassant() &&
+            Pieces.piece(state.get(move.from)) == Pieces.PAWN) {
+          expected.add(move);
+        }
+      }
+
+      assertEquals(fen, expected, state.getCaptures());
+      state.getMoves();
+      assertEquals(fen, expected, state.getCaptures());
+    }
+
+    ChessState check = ChessState.fromFen("4k3/8/8/8/1b6/8/8/4K3 w - - 0 1");
+    assertEquals(ChessState.fromFen("4k3/8/8/8/1b6/8/8/4K3 w - - 0 1")
+                     .getMoves(),
+                 check.getCaptures());
+  }
 }
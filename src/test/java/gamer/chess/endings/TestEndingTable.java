@@ -0,0 +1,174 @@
+package gamer.chess.endings;
+
+import gamer.chess.ChessMove;
+import gamer.chess.ChessState;
+import gamer.chess.endings.EndingTable.EndingStatus;
+import gamer.chess.endings.EndingTable.EndingValue;
+import gamer.chess.Chess;
+import gamer.def.Solver;
+import gamer.mcts.MonteCarloPlayer;
+import gamer.minimax.MinimaxPlayer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestEndingTable {
+
+  @Test
+  public void material() {
+    Material material = Material.parse("KvKRP");
+    assertFalse(material.isCanonical());
+    assertEquals("KRPvK", material.canonical().toString());
+    assertTrue(material.hasPawns());
+    assertEquals(2, material.count());
+    assertTrue(Material.parse("KRvK").successors().isEmpty());
+    assertEquals(4, Material.parse("KPvK").successors().size());
+  }
+
+  @Test
+  public void indexLength() {
+    assertEquals(462 * 64 * 2,
+                 new EndingIndex(Material.parse("KQvK")).length());
+    assertEquals(1806 * 48 * 2,
+                 new EndingIndex(Material.parse("KPvK")).length());
+  }
+
+  @Test
+  public void indexSymmetry() {
+    EndingIndex index = new EndingIndex(Material.parse("KRvK"));
+    ChessState state = ChessState.fromFen("8/8/8/8/8/2k5/8/K6R w - - 0 1");
+    ChessState mirrored = ChessState.fromFen("8/8/8/8/8/5k2/8/R6K w - - 0 1");
+    assertEquals(index.encode(state, false), index.encode(mirrored, false));
+  }
+
+  @Test
+  public void longestWins() {
+    Map<Material, EndingTable> tables = GenerateEndingTables.generate(
+        Arrays.asList(Material.parse("KQvK"), Material.parse("KRvK")));
+    assertEquals(10, longestWin(tables.get(Material.parse("KQvK"))));
+    assertEquals(16, longestWin(tables.get(Material.parse("KRvK"))));
+  }
+
+  @Test
+  public void mateInOne() {
+    ChessEndingSolver solver = ChessEndingSolver.generate("KQvK");
+    ChessState state = ChessState.fromFen("7k/Q7/6K1/8/8/8/8/8 w - - 0 1");
+    Solver.Result<ChessMove> result = solver.solve(state);
+    assertNotNull(result);
+    assertEquals(1, result.payoff);
+    assertEquals(1, result.moves);
+    assertEquals("Qa8", state.moveToString(result.move));
+  }
+
+  @Test
+  public void flippedMaterial() {
+    ChessEndingSolver solver = ChessEndingSolver.generate("KRvK");
+    ChessState state = ChessState.fromFen("8/8/8/8/8/8/7K/kr6 b - - 0 1");
+    Solver.Result<ChessMove> result = solver.solve(state);
+    assertNotNull(result);
+    assertEquals(-1, result.payoff);
+  }
+
+  @Test
+  public void pawnEnding() {
+    ChessEndingSolver solver = ChessEndingSolver.generate("KPvK");
+    Solver.Result<ChessMove> win =
+        solver.solve(ChessState.fromFen("4k3/8/4K3/4P3/8/8/8/8 w - - 0 1"));
+    assertEquals(1, win.payoff);
+    Solver.Result<ChessMove> draw =
+        solver.solve(ChessState.fromFen("4k3/8/8/4K3/4P3/8/8/8 b - - 0 1"));
+    assertEquals(0, draw.payoff);
+  }
+
+  @Test
+  public void parallelGeneration() {
+    Material material = Material.parse("KPvK");
+    EndingTable sequential = GenerateEndingTables
+        .generate(Arrays.asList(material), 1).get(material);
+    EndingTable parallel = GenerateEndingTables
+        .generate(Arrays.asList(material), 4).get(material);
+    for (long i = 0; i < sequential.length(); i++) {
+      assertEquals(sequential.get(i), parallel.get(i));
+    }
+  }
+
+  @Test
+  public void saveAndLoad() throws IOException {
+    Path directory = Files.createTempDirectory("endings");
+    try {
+      Material material = Material.parse("KPvK");
+      EndingTable generated = GenerateEndingTables.generate(
+          Arrays.asList(material), 1, directory).get(material);
+      EndingTable loaded = EndingTable.load(
+          EndingTableManager.tableFile(directory, material));
+      assertEquals(material, loaded.getMaterial());
+      assertEquals(generated.length(), loaded.length());
+      for (long i = 0; i < generated.length(); i++) {
+        assertEquals(generated.get(i), loaded.get(i));
+      }
+
+      ChessEndingSolver solver = ChessEndingSolver.load(directory);
+      Solver.Result<ChessMove> result =
+          solver.solve(ChessState.fromFen("8/8/8/8/8/8/7K/kr6 b - - 0 1"));
+      assertEquals(-1, result.payoff);
+      assertNull(solver.solve(
+          ChessState.fromFen("8/8/8/8/8/2n5/7K/kr6 b - - 0 1")));
+    } finally {
+      for (Path file : Files.newDirectoryStream(directory)) {
+        Files.delete(file);
+      }
+      Files.delete(directory);
+    }
+  }
+
+  @Test
+  public void playersUseSolver() {
+    ChessEndingSolver solver = ChessEndingSolver.generate("KQvK");
+    // There is no table for KQvKN, but taking the knight wins.
+    ChessState state = ChessState.fromFen("7k/8/8/3n4/8/8/8/K2Q4 w - - 0 1");
+    assertNull(solver.solve(state));
+
+    MinimaxPlayer<ChessState, ChessMove> minimax = new MinimaxPlayer<>();
+    minimax.setEvaluator(position -> 0);
+    minimax.setMaxDepth(1);
+    minimax.addSolver(solver);
+    assertEquals("Qxd5", state.moveToString(minimax.selectMove(state)));
+
+    for (boolean flat : new boolean[] {false, true}) {
+      MonteCarloPlayer<ChessState, ChessMove> mcts =
+          new MonteCarloPlayer<>(Chess.getInstance());
+      mcts.setFlatTree(flat);
+      mcts.setMaxSamples(2000);
+      mcts.setTimeout(-1);
+      mcts.addSolver(solver);
+      assertEquals("Qxd5", state.moveToString(mcts.selectMove(state)));
+
+      // The solved position is not searched.
+      ChessState solved = state.clone();
+      solved.play("Qxd5");
+      solved.play("Kg7");
+      assertEquals(solver.solve(solved).move, mcts.selectMove(solved));
+      assertTrue(mcts.getReport().contains("solved"));
+    }
+  }
+
+  private static int longestWin(EndingTable table) {
+    int longest = 0;
+    for (long i = 0; i < table.length(); i++) {
+      EndingValue value = table.get(i);
+      if (value.status == EndingStatus.WIN)
+        longest = Math.max(longest, value.moves);
+    }
+    return longest;
+  }
+}
@@ -2,9 +2,12 @@ package gamer.g2048;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -105,4 +108,120 @@ public class TestG2048 {
     assertTrue(i >= 32);
     assertTrue(state.getPayoff(0) >= i);
   }
+
+  @Test
+  public void undoRandomGame() {
+    G2048State state = G2048.getInstance().newGame();
+    List<String> positions = new ArrayList<>();
+    List<G2048Move> moves = new ArrayList<>();
+    List<Long> undos = new ArrayList<>();
+
+    while (!state.isTerminal()) {
+      positions.add(state.toString());
+      G2048Move move = state.getRandomMove();
+      moves.add(move);
+      undos.add(state.playWithUndo(move));
+    }
+
+    for (int i = moves.size() - 1; i >= 0; i--) {
+      state.unplay(moves.get(i), undos.get(i));
+      assertEquals(positions.get(i), state.toString());
+    }
+    assertEquals(-1, state.getPlayer());
+    assertEquals(32, state.getMoves().size());
+  }
+
+  @Test
+  public void hash() {
+    G2048State state1 = G2048.getInstance().newGame();
+    state1.play("A1 2");
+    state1.play("B2 4");
+    G2048State state2 = G2048.getInstance().newGame();
+    state2.play("B2 4");
+    state2.play("A1 2");
+    assertEquals(state1.getHash(), state2.getHash());
+
+    long undo = state1.playWithUndo(G2048Move.parse("right"));
+    assertNotEquals(state2.getHash(), state1.getHash());
+    state2.play("right");
+    assertEquals(state2.getHash(), state1.getHash());
+
+    state1.unplay(G2048Move.parse("right"), undo);
+    G2048State state3 = G2048.getInstance().newGame();
+    state3.play("A1 2");
+    state3.play("B2 4");
+    assertEquals(state3.getHash(), state1.getHash());
+
+    // The same board with a different score.
+    state1 = G2048.getInstance().newGame();
+    state1.play("A1 2");
+    state1.play("A2 2");
+    state1.play("down");
+    state1.play("D4 2");
+    state2 = G2048.getInstance().newGame();
+    state2.play("A1 4");
+    state2.play("D4 2");
+    assertEquals(state2.toString().replaceFirst("Score: \\d+", ""),
+                 state1.toString().replaceFirst("Score: \\d+", ""));
+    assertNotEquals(state2.getHash(), state1.getHash());
+  }
+
+  /** Cell by cell shift, the same as in the byte array implementation. */
+  private static int shiftReference(int[] board, int startTile, int deltaRow,
+                                    int deltaTile) {
+    int score = 0;
+    for (int i = 0; i < 4; i++) {
+      int toTile = startTile;
+      int fromTile = startTile;
+      int lastTileValue = 0;
+
+      for (int j = 0; j < 4; j++) {
+        int value = board[fromTile];
+        if (value != 0) {
+          board[fromTile] = 0;
+          if (value == lastTileValue) {
+            board[toTile - deltaTile] = value + 1;
+            score += 1 << (value + 1);
+            lastTileValue = 0;
+          } else {
+            board[toTile] = value;
+            lastTileValue = value;
+            toTile += deltaTile;
+          }
+        }
+
+        fromTile += deltaTile;
+      }
+
+      startTile += deltaRow;
+    }
+    return score;
+  }
+
+  @Test
+  public void movesMatchReference() {
+    int[][] params = {{3, 4, -1}, {12, 1, -4}, {0, 4, 1}, {0, 1, 4}};
+
+    for (int game = 0; game < 100; game++) {
+      G2048State state = G2048.getInstance().newGame();
+      int[] board = new int[16];
+      int score = 0;
+      while (!state.isTerminal()) {
+        G2048Move move = state.getRandomMove();
+        if (move.isRandom()) {
+          board[move.tile] = move.value;
+        } else {
+          int d = G2048Move.PLAYER_MOVES.indexOf(move);
+          score += shiftReference(board, params[d][0], params[d][1],
+                                  params[d][2]);
+        }
+        state.play(move);
+
+        for (int tile = 0; tile < 16; tile++) {
+          assertEquals(board[tile], state.get(tile));
+        }
+        assertEquals(score, state.score);
+      }
+    }
+  }
 }
@@ -0,0 +1,67 @@
+package gamer.go;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class TestGoMoveSelectors {
+  @Test
+  public void lightDoesNotFillOwnEye() {
+    Go go = Go.getInstance(9);
+    GoState state = go.newGame();
+    for (String move : "b1 e5 a2 e6".split(" ")) {
+      state.play(move);
+    }
+    GoMove a1 = state.parseMove("a1");
+    for (int i = 0; i < 1000; i++) {
+      assertNotEquals(a1, go.getLightSelector().select(state));
+    }
+  }
+
+  @Test
+  public void lightPassesWithOnlyEyesLeft() {
+    Go go = Go.getInstance(9);
+    GoState state = go.newGame();
+    // Black fills the board except for two eyes in the corner.
+    for (int point = 0; point < go.points; point++) {
+      if (point != 0 && point != 2) {
+        state.play(GoMove.of(point));
+        state.play(GoMove.pass());
+      }
+    }
+    assertEquals(GoMove.pass(), go.getLightSelector().select(state));
+  }
+
+  @Test(timeout = 1000)
+  public void lightGamesEndByPasses() {
+    Go go = Go.getInstance(9);
+    GoState.LightSelector selector = go.getLightSelector();
+    // The light moves don't take a ko right after another ko was taken, so
+    // several kos don't make the games cycle until the move limit.
+    int limited = 0;
+    for (int igame = 0; igame < 100; igame++) {
+      GoState state = go.newGame();
+      int moves = 0;
+      while (!state.isTerminal()) {
+        state.play(selector.select(state));
+        moves++;
+      }
+      if (moves >= go.maxMoves) {
+        limited++;
+      }
+    }
+    assertEquals(0, limited);
+  }
+
+  @Test(timeout = 1000)
+  public void lightGame19() {
+    Go go = Go.getInstance(19);
+    GoState state = go.newGame();
+    while (!state.isTerminal()) {
+      state.play(go.getLightSelector().select(state));
+    }
+    int score = state.getAreaScore();
+    assertEquals(score > go.komi ? 1 : -1, state.getPayoff(0));
+  }
+}
@@ -3,18 +3,273 @@ package gamer.go;
 import gamer.def.GameException;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class TestGoState {
-  // @Test(timeout=500)
+  private static GoState playGame(int size, String gameStr) {
+    GoState state = Go.getInstance(size).newGame();
+    for (String moveStr : gameStr.split(" ")) {
+      state.play(moveStr);
+    }
+    return state;
+  }
+
+  private static int point(GoState state, String pointStr) {
+    return state.parseMove(pointStr).point;
+  }
+
+  /** Whether the chain of the stone has a liberty, found by a flood fill. */
+  private static boolean hasLiberty(byte[] board, int[][] neighbors,
+                                    int point) {
+    boolean[] visited = new boolean[board.length];
+    int[] stack = new int[board.length];
+    int size = 0;
+    stack[size++] = point;
+    visited[point] = true;
+    while (size > 0) {
+      int p = stack[--size];
+      for (int n : neighbors[p]) {
+        if (board[n] == 0) {
+          return true;
+        }
+        if (board[n] == board[point] && !visited[n]) {
+          visited[n] = true;
+          stack[size++] = n;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean isValidMoveSlow(GoState state, int point) {
+    if (state.board[point] != 0 || state.isKoBanned(point)) {
+      return false;
+    }
+    byte[] board = state.board.clone();
+    int[][] neighbors = state.getGame().neighbors;
+    byte color = state.getPlayerBool() ? GoState.BLACK : GoState.WHITE;
+    board[point] = color;
+    for (int n : neighbors[point]) {
+      if (board[n] != 0 && board[n] != color &&
+          !hasLiberty(board, neighbors, n)) {
+        return true;
+      }
+    }
+    return hasLiberty(board, neighbors, point);
+  }
+
+  private static void checkState(GoState state) {
+    Go game = state.getGame();
+    long hash = 0;
+    for (int point = 0; point < game.points; point++) {
+      if (state.board[point] != 0) {
+        assertTrue(hasLiberty(state.board, game.neighbors, point));
+        hash ^= game.zobristKeys[(state.board[point] - 1) * game.points + point];
+      }
+      if (!state.isTerminal()) {
+        assertEquals(isValidMoveSlow(state, point), state.isValidMove(point));
+      }
+    }
+    if (!state.getPlayerBool()) {
+      hash ^= game.whiteToMoveKey;
+    }
+    assertEquals(hash, state.getHash());
+  }
+
+  @Test(timeout=1000)
   public void playRandomGame() {
     GoState state = Go.getInstance().newGame();
     while (!state.isTerminal()) {
       state.play(state.getRandomMove());
     }
   }
+
+  @Test
+  public void capture() {
+    GoState state = playGame(9, "a2 a1 b1");
+    assertEquals(0, state.board[point(state, "a1")]);
+    // Playing back into the corner would be a suicide for white.
+    assertFalse(state.isValidMove(point(state, "a1")));
+  }
+
+  @Test(expected = GameException.class)
+  public void suicide() {
+    GoState state = playGame(9, "a2 e5 b1");
+    assertFalse(state.isValidMove(point(state, "a1")));
+    state.play("a1");
+  }
+
+  @Test
+  public void suicideOfChain() {
+    GoState state = playGame(9, "a3 a1 b2 e5 c1 a2");
+    // The two white stones have a single liberty at B1.
+    int b1 = point(state, "b1");
+    assertTrue(state.isValidMove(b1));
+    state.play("e6");
+    assertFalse(state.isValidMove(b1));
+    state.play("e4");
+    state.play("b1");
+    assertEquals(0, state.board[point(state, "a1")]);
+    assertEquals(0, state.board[point(state, "a2")]);
+  }
+
+  @Test
+  public void ko() {
+    GoState state = playGame(9, "d5 e5 c4 f4 d3 e3 a1 d4 e4");
+    int d4 = point(state, "d4");
+    assertEquals(0, state.board[d4]);
+    assertFalse(state.isValidMove(d4));
+    assertFalse(state.getMoves().contains(GoMove.of(d4)));
+
+    // After the opponent passes the player who took the ko can connect.
+    state.play("pass");
+    assertTrue(state.isValidMove(d4));
+    assertTrue(state.getMoves().contains(GoMove.of(d4)));
+    state.play("d4");
+    assertEquals(GoState.BLACK, state.board[d4]);
+
+    state = playGame(9, "b3 c3 a2 b2 b1 c1 j9 d2 c2 pass");
+    assertTrue(state.isValidMove(point(state, "b2")));
+
+    state = playGame(9, "d5 e5 c4 f4 d3 e3 a1 d4 e4");
+    state.play("j9");
+    state.play("a9");
+    assertTrue(state.isValidMove(d4));
+    state.play("d4");
+    assertEquals(0, state.board[point(state, "e4")]);
+    // Taking back a single stone, that captured a single stone, is a ko again.
+    assertFalse(state.isValidMove(point(state, "e4")));
+  }
+
+  @Test
+  public void passes() {
+    GoState state = playGame(9, "pass e5 pass");
+    assertFalse(state.isTerminal());
+    state.play("pass");
+    assertTrue(state.isTerminal());
+  }
+
+  @Test
+  public void areaScoring() {
+    StringBuilder game = new StringBuilder();
+    for (int row = 1; row <= 9; row++) {
+      game.append("c").append(row).append(" g").append(row).append(" ");
+    }
+    game.append("pass pass");
+    GoState state = playGame(9, game.toString());
+
+    assertTrue(state.isTerminal());
+    assertEquals(0, state.getAreaScore());
+    // White wins by komi.
+    assertEquals(-1, state.getPayoff(0));
+    assertEquals(1, state.getPayoff(1));
+  }
+
+  @Test
+  public void emptyBoardScore() {
+    GoState state = playGame(9, "e5 pass pass");
+    assertEquals(81, state.getAreaScore());
+    assertEquals(1, state.getPayoff(0));
+  }
+
+  @Test
+  public void moveToString() {
+    GoState state = Go.getInstance(9).newGame();
+    assertEquals("J9", state.moveToString(state.parseMove("j9")));
+    assertEquals("PASS", state.moveToString(state.parseMove("pass")));
+  }
+
+  @Test
+  public void randomGames() {
+    Random random = new Random(1);
+    for (int game = 0; game < 10; game++) {
+      GoState state = Go.getInstance(9).newGame();
+      while (!state.isTerminal()) {
+        // Rarely pass, so that the games get to the captures.
+        GoMove move = state.getRandomMove();
+        if (move.pass && random.nextInt(10) != 0) {
+          continue;
+        }
+        state.play(move);
+        checkState(state);
+      }
+    }
+  }
+
+  @Test
+  public void randomGame19() {
+    GoState state = Go.getInstance(19).newGame();
+    int moves = 0;
+    while (!state.isTerminal()) {
+      state.play(state.getRandomMove());
+      if (++moves % 20 == 0) {
+        checkState(state);
+      }
+    }
+    checkState(state);
+  }
+
+  @Test
+  public void cloneIsIndependent() {
+    GoState state = playGame(9, "a2 a1");
+    GoState copy = state.clone();
+    copy.play("b1");
+    assertEquals(0, copy.board[point(copy, "a1")]);
+    assertEquals(GoState.WHITE, state.board[point(state, "a1")]);
+    assertTrue(state.isValidMove(point(state, "b1")));
+  }
+
+  @Test
+  public void undoRandomGames() {
+    Random random = new Random(1);
+    for (int game = 0; game < 10; game++) {
+      GoState state = Go.getInstance(9).newGame();
+      List<GoState> positions = new ArrayList<>();
+      List<GoMove> moves = new ArrayList<>();
+      List<Long> undos = new ArrayList<>();
+      while (!state.isTerminal()) {
+        GoMove move = state.getRandomMove();
+        if (move.pass && random.nextInt(10) != 0) {
+          continue;
+        }
+        positions.add(state.clone());
+        moves.add(move);
+        undos.add(state.playWithUndo(move));
+
+        // Sometimes take back a few moves and compare with the positions
+        // before them.
+        if (random.nextInt(8) == 0) {
+          int count = Math.min(1 + random.nextInt(6), moves.size());
+          for (int i = 0; i < count; i++) {
+            int last = moves.size() - 1;
+            state.unplay(moves.remove(last), undos.remove(last));
+            checkSame(positions.remove(last), state);
+          }
+          checkState(state);
+        }
+      }
+      while (!moves.isEmpty()) {
+        int last = moves.size() - 1;
+        state.unplay(moves.remove(last), undos.remove(last));
+        checkSame(positions.remove(last), state);
+      }
+    }
+  }
+
+  private static void checkSame(GoState expected, GoState state) {
+    assertArrayEquals(expected.board, state.board);
+    assertEquals(expected.koPoint, state.koPoint);
+    assertEquals(expected.getPlayerBool(), state.getPlayerBool());
+    assertEquals(expected.isTerminal(), state.isTerminal());
+    assertEquals(expected.getHash(), state.getHash());
+    assertEquals(expected.getMoves(), state.getMoves());
+    assertEquals(expected.toString(), state.toString());
+  }
 }
@@ -0,0 +1,102 @@
+package gamer.gomoku;
+
+import gamer.mcts.MonteCarloPlayer;
+import gamer.minimax.MinimaxPlayer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestGomokuEvaluator {
+  private static GomokuState playGame(String gameStr) {
+    GomokuState state = Gomoku.getInstance(19).newGame();
+    for (String moveStr : gameStr.split(" ")) {
+      state.play(moveStr);
+    }
+    return state;
+  }
+
+  @Test
+  public void emptyBoard() {
+    GomokuState state = Gomoku.getInstance(19).newGame();
+    assertEquals(0, GomokuEvaluator.getInstance().evaluate(state), 1e-9);
+  }
+
+  @Test
+  public void symmetric() {
+    GomokuEvaluator evaluator = GomokuEvaluator.getInstance();
+    double x = evaluator.evaluate(playGame("k10 a1 k11 a3 k12 a5"));
+    double o = evaluator.evaluate(playGame("a1 k10 a3 k11 a5 k12"));
+    assertTrue(x > 0);
+    assertEquals(x, -o, 1e-9);
+  }
+
+  @Test
+  public void fourToMove() {
+    GomokuEvaluator evaluator = GomokuEvaluator.getInstance();
+    // X is to move and has a four.
+    assertEquals(0.9, evaluator.evaluate(playGame("a1 k10 b1 k12 c1 m5 d1 o7")),
+                 1e-9);
+    // O is to move and blocks X's four.
+    double blocked = evaluator.evaluate(playGame("a1 k10 b1 k12 c1 m5 d1"));
+    assertTrue(blocked > 0);
+    assertTrue(blocked < 0.9);
+  }
+
+  @Test
+  public void incrementalScore() {
+    Gomoku gomoku = Gomoku.getInstance(19);
+    GomokuState state = gomoku.newGame();
+    state.getPatterns();
+    List<GomokuMove> moves = new ArrayList<>();
+    List<Long> undos = new ArrayList<>();
+    Random random = new Random(1);
+
+    for (int step = 0; step < 1000; step++) {
+      if (state.isTerminal() || !moves.isEmpty() && random.nextInt(3) == 0) {
+        int last = moves.size() - 1;
+        state.unplay(moves.remove(last), undos.remove(last));
+      } else {
+        GomokuMove move = gomoku.getRandomNeighborSelector().select(state);
+        moves.add(move);
+        undos.add(state.playWithUndo(move));
+      }
+
+      GomokuState fresh = gomoku.newGame();
+      for (GomokuMove m : moves) {
+        fresh.play(m);
+      }
+      assertEquals(fresh.getPatterns().getScore(),
+                   state.getPatterns().getScore());
+      for (int player = 0; player < 2; player++) {
+        assertEquals(fresh.getPatterns().hasFour(player),
+                     state.getPatterns().hasFour(player));
+      }
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void minimaxBlocksFour() {
+    MinimaxPlayer<GomokuState, GomokuMove> player = new MinimaxPlayer<>();
+    player.setEvaluator(GomokuEvaluator.getInstance());
+    player.setMaxDepth(2);
+    player.setTimeout(-1);
+    GomokuState state = playGame("a1 a2 b1 b2 c1 c2 m10 d2");
+    assertEquals("E2", state.moveToString(player.selectMove(state)));
+  }
+
+  @Test(timeout = 10000)
+  public void mctsWithEvaluator() {
+    MonteCarloPlayer<GomokuState, GomokuMove> player =
+        new MonteCarloPlayer<>(Gomoku.getInstance(19));
+    player.setEvaluator(GomokuEvaluator.getInstance());
+    player.setMaxSamples(10000);
+    player.setTimeout(-1);
+    GomokuState state = playGame("a1 k10 b1 k12 c1 m5 d1 o7");
+    assertEquals("E1", state.moveToString(player.selectMove(state)));
+  }
+}
@@ -106,4 +106,76 @@ public class TestGomokuMoveSelectors {
     assertTrue(moves <= gomoku.getSize() * gomoku.getSize());
   }
 
+  private static GomokuState playGame(String gameStr) {
+    GomokuState state = Gomoku.getInstance(19).newGame();
+    for (String moveStr : gameStr.split(" ")) {
+      state.play(moveStr);
+    }
+    return state;
+  }
+
+  @Test(timeout = 100)
+  public void threatPlaysFive() {
+    // Both players have a four, X is to move.
+    GomokuState state = playGame("a1 a2 b1 b2 c1 c2 d1 d2");
+    GomokuState.ThreatSelector selector =
+        Gomoku.getInstance(19).getThreatSelector();
+    assertEquals("E1", state.moveToString(selector.select(state)));
+  }
+
+  @Test(timeout = 100)
+  public void threatBlocksFive() {
+    GomokuState state = playGame("a1 a2 b1 b2 c1 c2 m10 d2");
+    GomokuState.ThreatSelector selector =
+        Gomoku.getInstance(19).getThreatSelector();
+    assertEquals("E2", state.moveToString(selector.select(state)));
+  }
+
+  @Test(timeout = 100)
+  public void threatFillsBrokenFour() {
+    GomokuState state = playGame("a1 k10 b1 k12 d1 k14 e1 k16");
+    GomokuState.ThreatSelector selector =
+        Gomoku.getInstance(19).getThreatSelector();
+    assertEquals("C1", state.moveToString(selector.select(state)));
+  }
+
+  @Test(timeout = 100)
+  public void threatDiagonalAtEdge() {
+    // X has four on a diagonal, that ends at the top right corner.
+    GomokuState state = playGame("q16 a1 r17 a3 s18 a5 t19 a7");
+    GomokuState.ThreatSelector selector =
+        Gomoku.getInstance(19).getThreatSelector();
+    assertEquals("P15", state.moveToString(selector.select(state)));
+  }
+
+  @Test(timeout = 1000)
+  public void playThreatMoves() {
+    Gomoku gomoku = Gomoku.getInstance();
+    GomokuState.ThreatSelector selector = gomoku.getThreatSelector();
+    int size = gomoku.getSize();
+
+    for (int igame = 0; igame < 20; igame++) {
+      GomokuState state = gomoku.newGame();
+      GomokuMove first = selector.select(state);
+      assertEquals(size * size / 2, first.point);
+      state.play(first);
+
+      while (!state.isTerminal()) {
+        GomokuMove move = selector.select(state);
+        int x = move.point % size;
+        int y = move.point / size;
+        boolean nextToStone = false;
+        for (int dy = -1; dy <= 1; dy++) {
+          for (int dx = -1; dx <= 1; dx++) {
+            if (x + dx >= 0 && x + dx < size && y + dy >= 0 && y + dy < size &&
+                state.get(move.point + dy * size + dx) != 0) {
+              nextToStone = true;
+            }
+          }
+        }
+        assertTrue(nextToStone);
+        state.play(move);
+      }
+    }
+  }
 }
@@ -3,9 +3,12 @@ package gamer.gomoku;
 import gamer.def.GameException;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -65,6 +68,12 @@ public class TestGomokuState {
     assertFalse(state.isTerminal());
   }
 
+  @Test(timeout = 50)
+  public void playDiagonalOverlap() {
+    GomokuState state = playGame("s1 k10 t2 k12 a4 k14 b5 k16 c6");
+    assertFalse(state.isTerminal());
+  }
+
   @Test(expected = GameException.class, timeout = 50)
   public void playNoMoveAfterEnd() {
     GomokuState state = playGame("c4 g6 e4 f7 b4 e8 a4 d9 m11 c10");
@@ -122,4 +131,109 @@ public class TestGomokuState {
     assertEquals(2, state.get("a3"));
     assertEquals(1, stateClone.get("a3"));
   }
+
+  @Test
+  public void undoRandomGame() {
+    GomokuState state = Gomoku.getInstance(19).newGame();
+    List<String> positions = new ArrayList<>();
+    List<GomokuMove> moves = new ArrayList<>();
+    List<Long> undos = new ArrayList<>();
+
+    while (!state.isTerminal()) {
+      positions.add(state.toString());
+      GomokuMove move = state.getRandomMove();
+      moves.add(move);
+      undos.add(state.playWithUndo(move));
+    }
+    int payoff = state.getPayoff(0);
+
+    for (int i = moves.size() - 1; i >= 0; i--) {
+      state.unplay(moves.get(i), undos.get(i));
+      assertEquals(positions.get(i), state.toString());
+      assertFalse(state.isTerminal());
+    }
+    assertTrue(state.getPlayerBool());
+
+    for (GomokuMove move : moves) {
+      state.play(move);
+    }
+    assertTrue(state.isTerminal());
+    assertEquals(payoff, state.getPayoff(0));
+  }
+
+  @Test
+  public void randomMovesAfterUndo() {
+    // No five in a row fits on the board, so all the games are draws.
+    GomokuState state = Gomoku.getInstance(4).newGame();
+    List<GomokuMove> moves = new ArrayList<>();
+    List<Long> undos = new ArrayList<>();
+    Random random = new Random(1);
+    for (int game = 0; game < 100; game++) {
+      while (!state.isTerminal()) {
+        GomokuMove move = state.getRandomMove();
+        assertEquals(0, state.get(move.point));
+        moves.add(move);
+        undos.add(state.playWithUndo(move));
+      }
+      assertEquals(16, moves.size());
+      assertEquals(0, state.getPayoff(0));
+
+      int keep = random.nextInt(16);
+      while (moves.size() > keep) {
+        int last = moves.size() - 1;
+        state.unplay(moves.remove(last), undos.remove(last));
+      }
+      assertEquals(16 - keep, state.getMoves().size());
+    }
+  }
+
+  @Test
+  public void threatsAfterUndo() {
+    Gomoku gomoku = Gomoku.getInstance(19);
+    GomokuState.ThreatSelector selector = gomoku.getThreatSelector();
+    GomokuState state = gomoku.newGame();
+    List<GomokuMove> moves = new ArrayList<>();
+    List<Long> undos = new ArrayList<>();
+    Random random = new Random(1);
+
+    for (int step = 0; step < 2000; step++) {
+      if (state.isTerminal() || !moves.isEmpty() && random.nextInt(3) == 0) {
+        int last = moves.size() - 1;
+        state.unplay(moves.remove(last), undos.remove(last));
+        continue;
+      }
+      GomokuMove move = selector.select(state);
+      moves.add(move);
+      undos.add(state.playWithUndo(move));
+
+      GomokuState fresh = gomoku.newGame();
+      for (GomokuMove m : moves) {
+        fresh.play(m);
+      }
+      ThreatTracker tracker = state.getTracker();
+      ThreatTracker freshTracker = fresh.getTracker();
+      assertEquals(freshTracker.getCandidates(), tracker.getCandidates());
+      for (int player = 0; player < 2; player++) {
+        assertEquals(freshTracker.getFivePoint(player) >= 0,
+                     tracker.getFivePoint(player) >= 0);
+      }
+    }
+  }
+
+  @Test
+  public void hashTransposition() {
+    GomokuState state1 = playGame("a1 b1 c1 d1");
+    GomokuState state2 = playGame("c1 d1 a1 b1");
+    GomokuState state3 = playGame("a1 d1 c1 b1");
+    assertEquals(state1.getHash(), state2.getHash());
+    assertEquals(state1.getHash(), state3.getHash());
+
+    GomokuState state4 = playGame("b1 a1 c1 d1");
+    assertNotEquals(state1.getHash(), state4.getHash());
+
+    long undo = state1.playWithUndo(state1.parseMove("e1"));
+    assertNotEquals(state2.getHash(), state1.getHash());
+    state1.unplay(state1.parseMove("e1"), undo);
+    assertEquals(state2.getHash(), state1.getHash());
+  }
 }
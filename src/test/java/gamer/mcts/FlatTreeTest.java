@@ -0,0 +1,164 @@
+package gamer.mcts;
+
+import gamer.g2048.G2048;
+import gamer.g2048.G2048Move;
+import gamer.g2048.G2048State;
+import gamer.treegame.TreeGameInstances;
+import gamer.treegame.TreeGameMove;
+import gamer.treegame.TreeGameState;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class FlatTreeTest {
+  @Test
+  public void samplesBeyondFloatPrecision() {
+    TreeGameState state0 = TreeGameInstances.GAME0.newGame();
+    FlatTree<TreeGameState, TreeGameMove> tree =
+        new FlatTree<>(TreeGameInstances.GAME0, 100);
+    tree.reset(state0);
+    tree.addPendingSamples(0, 1 << 24);
+    tree.addSamples(0, 1 << 24, 1 << 24, 1 << 24);
+    for (int i = 0; i < 1000; i++) {
+      tree.addPendingSamples(0, 1);
+      tree.addSamples(0, 1, 1, 1);
+    }
+    assertEquals((1 << 24) + 1000, tree.getCompleteSamples(0));
+    assertEquals(1, tree.getPayoff(0), 1E-10);
+  }
+
+  @Test
+  public void samples() {
+    TreeGameState state0 = TreeGameInstances.GAME0.newGame();
+    FlatTree<TreeGameState, TreeGameMove> tree =
+        new FlatTree<>(TreeGameInstances.GAME0, 100);
+    tree.reset(state0);
+    assertFalse(tree.hasChildren(0));
+    assertFalse(tree.hasExactPayoff(0));
+    assertEquals(0, tree.getTotalSamples(0));
+    assertNotNull(tree.toString(state0, 16));
+
+    // Add 2 samples to root: -1, 1
+    tree.addPendingSamples(0, 2);
+    assertEquals(2, tree.getTotalSamples(0));
+    tree.addSamples(0, 2, 0, 2);
+    assertEquals(0, tree.getPayoff(0), 1E-10);
+
+    assertTrue(tree.initChildren(0, state0));
+    assertEquals(2, tree.childrenCount(0));
+    assertEquals(3, tree.size());
+    assertEquals(4, tree.toString(state0, 16).split("\n").length);
+
+    int node1 = tree.getChild(0, TreeGameInstances.GAME0.getMove(1));
+    assertEquals(TreeGameInstances.GAME0.getMove(1), tree.getMove(node1));
+    assertFalse(tree.hasChildren(node1));
+    assertTrue(tree.hasExactPayoff(node1));
+    assertEquals(1, tree.getExactPayoff(node1));
+    assertEquals(1, tree.getPayoff(node1), 1E-10);
+
+    int node2 = tree.getChild(0, TreeGameInstances.GAME0.getMove(2));
+    assertFalse(tree.hasChildren(node2));
+    assertFalse(tree.hasExactPayoff(node2));
+
+    // Add 2 samples to node 1: exact 1, 1
+    tree.addPendingSamples(0, 2);
+    tree.addSamples(0, 2, 2, 2);
+    tree.addExactSamples(node1, 2);
+    assertEquals(4, tree.getTotalSamples(0));
+    assertEquals(4, tree.getCompleteSamples(0));
+    assertEquals(2, tree.getTotalSamples(node1));
+
+    // Add 2 samples to node 2: -1, -1
+    tree.addPendingSamples(0, 2);
+    tree.addSamples(0, 2, -2, 2);
+    tree.addPendingSamples(node2, 2);
+    tree.addSamples(node2, 2, -2, 2);
+    assertEquals(6, tree.getTotalSamples(0));
+    assertEquals(6, tree.getCompleteSamples(0));
+    assertEquals(-1, tree.getPayoff(node2), 1E-10);
+
+    assertTrue(tree.getBiasedScore(node1, 2, false) >
+               tree.getBiasedScore(node2, 2, false) + 0.001);
+
+    tree.reset(state0);
+    assertEquals(1, tree.size());
+    assertFalse(tree.hasChildren(0));
+    assertEquals(0, tree.getTotalSamples(0));
+  }
+
+  @Test
+  public void full() {
+    TreeGameState state0 = TreeGameInstances.GAME0.newGame();
+    FlatTree<TreeGameState, TreeGameMove> tree =
+        new FlatTree<>(TreeGameInstances.GAME0, 2);
+    tree.reset(state0);
+    assertFalse(tree.initChildren(0, state0));
+    assertFalse(tree.hasChildren(0));
+  }
+
+  @Test
+  public void concurrency() {
+    TreeGameState state0 = TreeGameInstances.GAME0.newGame();
+    FlatTree<TreeGameState, TreeGameMove> tree =
+        new FlatTree<>(TreeGameInstances.GAME0, 100);
+    tree.reset(state0);
+
+    ExecutorService executor = Executors.newFixedThreadPool(128);
+    List<Future<?>> tasks = new ArrayList<>();
+    for (int i = 0; i < 128; i++) {
+      tasks.add(executor.submit(() -> {
+        tree.addPendingSamples(0, 2);
+        tree.addSamples(0, 2, 0, 2);
+        tree.initChildren(0, state0.clone());
+        tree.addPendingSamples(0, 2);
+        tree.addSamples(0, 2, 0, 2);
+      }));
+    }
+
+    for (Future<?> task : tasks) {
+      try {
+        task.get();
+      } catch (Exception ex) {
+        throw new RuntimeException(ex);
+      }
+    }
+    executor.shutdown();
+
+    // Only one thread has expanded the root.
+    assertTrue(tree.hasChildren(0));
+    assertEquals(3, tree.size());
+    assertEquals(512, tree.getTotalSamples(0));
+    assertEquals(512, tree.getCompleteSamples(0));
+    assertEquals(0, tree.getPayoff(0), 1E-10);
+  }
+
+  @Test
+  public void chanceChildren() {
+    G2048State state = G2048.getInstance().newGame();
+    state.play("a1 2");
+    FlatTree<G2048State, G2048Move> tree =
+        new FlatTree<>(G2048.getInstance(), 100);
+    tree.reset(state);
+    assertTrue(tree.initChildren(0, state));
+    assertEquals(30, tree.childrenCount(0));
+    for (G2048Move move : state.getMoves()) {
+      assertEquals(move, tree.getMove(tree.getOutcomeChild(0, state, move)));
+    }
+
+    // The copied subtree keeps the table.
+    FlatTree<G2048State, G2048Move> copy =
+        new FlatTree<>(G2048.getInstance(), 100);
+    copy.copySubtree(tree, 0);
+    G2048Move move = state.parseMove("b2 4");
+    assertEquals(move, copy.getMove(copy.getOutcomeChild(0, state, move)));
+  }
+}
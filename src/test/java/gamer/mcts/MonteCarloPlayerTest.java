@@ -1,5 +1,8 @@
 package gamer.mcts;
 
+import gamer.g2048.G2048;
+import gamer.g2048.G2048Move;
+import gamer.g2048.G2048State;
 import gamer.treegame.TreeGameInstances;
 import gamer.treegame.TreeGameMove;
 import gamer.treegame.TreeGameState;
@@ -9,6 +12,7 @@ import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public class MonteCarloPlayerTest {
 
@@ -78,4 +82,167 @@ public class MonteCarloPlayerTest {
 
     assertFalse(TreeGameInstances.GAME4.getMove(3) == move);
   }
+
+  @Test
+  public void flatTree() {
+    TreeGameState state0 = TreeGameInstances.GAME0.newGame();
+    MonteCarloPlayer<TreeGameState, TreeGameMove> player =
+        new MonteCarloPlayer<>(TreeGameInstances.GAME0);
+    player.setFlatTree(true);
+    player.setMaxSamples(50);
+    assertEquals(TreeGameInstances.GAME0.getMove(1), player.selectMove(state0));
+
+    TreeGameState state3 = TreeGameInstances.GAME3.newGame();
+    player = new MonteCarloPlayer<>(TreeGameInstances.GAME3);
+    player.setFlatTree(true);
+    player.setMaxSamples(100);
+    assertEquals(TreeGameInstances.GAME3.getMove(2), player.selectMove(state3));
+    // The tree is reused for the next move.
+    assertEquals(TreeGameInstances.GAME3.getMove(2), player.selectMove(state3));
+  }
+
+  @Test
+  public void flatTreeMultithreaded() {
+    TreeGameState state2 = TreeGameInstances.GAME2.newGame();
+    MonteCarloPlayer<TreeGameState, TreeGameMove> player =
+        new MonteCarloPlayer<>(TreeGameInstances.GAME2);
+    player.setFlatTree(true);
+    player.setMaxWorkers(4);
+    player.setMaxSamples(400);
+    assertEquals(TreeGameInstances.GAME2.getMove(1), player.selectMove(state2));
+  }
+
+  @Test
+  public void treeReuse() {
+    checkTreeReuse(false);
+  }
+
+  @Test
+  public void flatTreeReuse() {
+    checkTreeReuse(true);
+  }
+
+  private static void checkTreeReuse(boolean flat) {
+    TreeGameState state = TreeGameInstances.GAME3.newGame();
+    MonteCarloPlayer<TreeGameState, TreeGameMove> player =
+        new MonteCarloPlayer<>(TreeGameInstances.GAME3);
+    player.setFlatTree(flat);
+    player.setMaxSamples(100);
+    assertEquals(TreeGameInstances.GAME3.getMove(2), player.selectMove(state));
+    assertEquals(0, player.getReusedSamples());
+
+    state.play(TreeGameInstances.GAME3.getMove(2));
+    state.play(TreeGameInstances.GAME3.getMove(5));
+    assertEquals(TreeGameInstances.GAME3.getMove(8), player.selectMove(state));
+    assertTrue(player.getReusedSamples() > 0);
+    assertTrue(player.getReport().contains(
+        "reused samples: " + player.getReusedSamples()));
+
+    // A new game doesn't match the previous tree.
+    player.selectMove(TreeGameInstances.GAME3.newGame());
+    assertEquals(0, player.getReusedSamples());
+
+    player.setTreeReuse(false);
+    player.selectMove(TreeGameInstances.GAME3.newGame());
+    state = TreeGameInstances.GAME3.newGame();
+    state.play(TreeGameInstances.GAME3.getMove(2));
+    state.play(TreeGameInstances.GAME3.getMove(5));
+    player.selectMove(state);
+    assertEquals(0, player.getReusedSamples());
+  }
+
+  @Test(timeout=5000)
+  public void cancel() throws InterruptedException {
+    TreeGameState state = TreeGameInstances.GAME2.newGame();
+    MonteCarloPlayer<TreeGameState, TreeGameMove> player =
+        new MonteCarloPlayer<>(TreeGameInstances.GAME2);
+    player.setTimeout(0);
+    player.setMaxWorkers(2);
+    Thread canceller = new Thread(() -> {
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException ex) {
+        throw new RuntimeException(ex);
+      }
+      player.cancel();
+    });
+    canceller.start();
+    assertEquals(TreeGameInstances.GAME2.getMove(1), player.selectMove(state));
+    canceller.join();
+  }
+
+  @Test
+  public void cancelledBeforeFirstSample() {
+    checkCancelledBeforeFirstSample(
+        false, MonteCarloPlayer.Parallelization.TREE);
+    checkCancelledBeforeFirstSample(
+        true, MonteCarloPlayer.Parallelization.TREE);
+    checkCancelledBeforeFirstSample(
+        false, MonteCarloPlayer.Parallelization.ROOT);
+  }
+
+  private static void checkCancelledBeforeFirstSample(
+      boolean flat, MonteCarloPlayer.Parallelization parallelization) {
+    TreeGameState state = TreeGameInstances.GAME3.newGame();
+    MonteCarloPlayer<TreeGameState, TreeGameMove> player =
+        new MonteCarloPlayer<>(TreeGameInstances.GAME3);
+    player.setFlatTree(flat);
+    player.setMaxWorkers(2);
+    player.setParallelization(parallelization);
+    player.setMaxSamples(100);
+
+    // A cancel before the search stops the next search only.
+    player.cancel();
+    assertEquals(state.getMoves().get(0), player.selectMove(state));
+    assertEquals(TreeGameInstances.GAME3.getMove(2), player.selectMove(state));
+  }
+
+  @Test
+  public void rootParallelization() {
+    checkParallelization(MonteCarloPlayer.Parallelization.ROOT);
+  }
+
+  @Test
+  public void hybridParallelization() {
+    checkParallelization(MonteCarloPlayer.Parallelization.HYBRID);
+  }
+
+  private static void checkParallelization(
+      MonteCarloPlayer.Parallelization parallelization) {
+    TreeGameState state2 = TreeGameInstances.GAME2.newGame();
+    MonteCarloPlayer<TreeGameState, TreeGameMove> player =
+        new MonteCarloPlayer<>(TreeGameInstances.GAME2);
+    player.setParallelization(parallelization);
+    player.setSyncInterval(16);
+    player.setMaxWorkers(4);
+    // Each thread needs enough samples in its own tree.
+    player.setMaxSamples(2000);
+    assertEquals(TreeGameInstances.GAME2.getMove(1), player.selectMove(state2));
+    assertTrue(player.getLastSamples() >= 2000);
+    assertTrue(player.getLastSamples() < 2020);
+  }
+
+  @Test
+  public void noVirtualLoss() {
+    TreeGameState state2 = TreeGameInstances.GAME2.newGame();
+    MonteCarloPlayer<TreeGameState, TreeGameMove> player =
+        new MonteCarloPlayer<>(TreeGameInstances.GAME2);
+    player.setVirtualLoss(0);
+    player.setMaxWorkers(4);
+    player.setMaxSamples(400);
+    assertEquals(TreeGameInstances.GAME2.getMove(1), player.selectMove(state2));
+  }
+
+  @Test
+  public void sparseChanceNodes() {
+    G2048State state = G2048.getInstance().newGame();
+    state.play("a1 2");
+    state.play("b1 2");
+    MonteCarloPlayer<G2048State, G2048Move> player =
+        new MonteCarloPlayer<>(G2048.getInstance());
+    player.setSparseChanceNodes(true);
+    player.setMaxSamples(500);
+    assertTrue(state.getMoves().contains(player.selectMove(state)));
+    assertTrue(player.getLastSamples() >= 500);
+  }
 }
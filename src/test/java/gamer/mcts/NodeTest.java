@@ -1,5 +1,8 @@
 package gamer.mcts;
 
+import gamer.g2048.G2048;
+import gamer.g2048.G2048Move;
+import gamer.g2048.G2048State;
 import gamer.treegame.TreeGameInstances;
 import gamer.treegame.TreeGameMove;
 import gamer.treegame.TreeGameState;
@@ -138,4 +141,49 @@ public class NodeTest {
     assertEquals(0, node0.getPayoffSum(), 0.1);
     assertEquals(512, node0.getPayoffSquaresSum(), 0.1);
   }
+
+  @Test
+  public void fixedPointSums() {
+    // Payoffs up to 65536, large sums of squares must not overflow.
+    G2048State state = G2048.getInstance().newGame();
+    Node<G2048State, G2048Move> node =
+        new Node<>(new Node.Context<>(G2048.getInstance()), null, state, null);
+    for (int i = 0; i < 1000; i++) {
+      node.addPendingSamples(1000);
+      node.addSamples(1000, 1000 * 65536.0, 1000 * 65536.0 * 65536.0);
+    }
+    assertEquals(1000000, node.getCompleteSamples());
+    assertEquals(65536, node.getPayoff(), 1E-6);
+    assertEquals(1E6 * 65536.0 * 65536.0, node.getPayoffSquaresSum(), 1);
+
+    node.addPendingSamples(1);
+    node.addSamples(1, 0.123456, 0.123456 * 0.123456);
+    assertEquals(1E6 * 65536 + 0.123456, node.getPayoffSum(), 1E-3);
+  }
+
+  @Test
+  public void chanceChildren() {
+    G2048State state = G2048.getInstance().newGame();
+    state.play("a1 2");
+    Node.Context<G2048State, G2048Move> context =
+        new Node.Context<>(G2048.getInstance());
+    Node<G2048State, G2048Move> node = new Node<>(context, null, state, null);
+    node.initChildren(state);
+    assertEquals(30, node.getChildren().size());
+    G2048Move move = state.parseMove("b2 4");
+    assertEquals(move, node.getOutcomeChild(state, move).getMove());
+    assertEquals(move, node.getChild(move).getMove());
+
+    context.sparseChance = true;
+    Node<G2048State, G2048Move> sparse =
+        new Node<>(context, null, state, null);
+    sparse.initChildren(state);
+    assertTrue(sparse.hasChildren());
+    assertEquals(0, sparse.getChildren().size());
+    Node<G2048State, G2048Move> child = sparse.getOutcomeChild(state, move);
+    assertEquals(move, child.getMove());
+    assertEquals(0, child.getPlayer());
+    assertTrue(child == sparse.getOutcomeChild(state, move));
+    assertEquals(1, sparse.getChildren().size());
+  }
 }
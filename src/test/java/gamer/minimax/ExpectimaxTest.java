@@ -0,0 +1,115 @@
+package gamer.minimax;
+
+import gamer.g2048.G2048;
+import gamer.g2048.G2048Evaluator;
+import gamer.g2048.G2048Move;
+import gamer.g2048.G2048State;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExpectimaxTest {
+
+  private static int playGame(
+      ExpectimaxPlayer<G2048State, G2048Move> player, int moves) {
+    G2048State state = G2048.getInstance().newGame();
+    for (int i = 0; i < moves && !state.isTerminal(); i++) {
+      while (state.isRandom()) {
+        state.play(state.getRandomMove());
+      }
+      if (!state.isTerminal()) {
+        state.play(player == null ? state.getRandomMove()
+                                  : player.selectMove(state));
+      }
+    }
+    return state.getScore();
+  }
+
+  @Test
+  public void testAttributes() {
+    ExpectimaxPlayer<G2048State, G2048Move> player = new ExpectimaxPlayer<>();
+    assertNotNull(player.getName());
+  }
+
+  @Test
+  public void probabilitiesSumToOne() {
+    G2048State state = G2048.getInstance().newGame();
+    state.play("A1 2");
+    double sum = 0;
+    for (G2048Move move : state.getMoves()) {
+      sum += state.getMoveProbability(move);
+    }
+    assertEquals(1.0, sum, 1e-9);
+  }
+
+  @Test
+  public void chanceNodeAverage() {
+    G2048State state = G2048.getInstance().newGame();
+    state.play("A1 2");
+    ExpectimaxPlayer<G2048State, G2048Move> player = new ExpectimaxPlayer<>();
+    player.setEvaluator(G2048State::getScore);
+    // A 2 in the same row or column as A1 is merged into 4.
+    assertEquals(0.9 * 6 / 15 * 4, player.search(state, 1), 1e-9);
+
+    player.setCacheSize(0);
+    assertEquals(0.9 * 6 / 15 * 4, player.search(state, 1), 1e-9);
+  }
+
+  @Test
+  public void chanceSamplesLimit() {
+    G2048State state = G2048.getInstance().newGame();
+    state.play("A1 2");
+    ExpectimaxPlayer<G2048State, G2048Move> player = new ExpectimaxPlayer<>();
+    player.setEvaluator(G2048State::getScore);
+    player.setMaxChanceSamples(4);
+    double score = player.search(state, 1);
+    assertTrue(score >= 0 && score <= 4);
+  }
+
+  @Test
+  public void minProbabilityStopsSearch() {
+    G2048State state = G2048.getInstance().newGame();
+    state.play("A1 2");
+    ExpectimaxPlayer<G2048State, G2048Move> player = new ExpectimaxPlayer<>();
+    player.setEvaluator(G2048State::getScore);
+    player.setMinProbability(0.5);
+    assertEquals(0, player.search(state, 1), 1e-9);
+  }
+
+  @Test
+  public void cancelBeforeSearch() {
+    G2048State state = G2048.getInstance().newGame();
+    state.play("A1 2");
+    state.play("B2 4");
+    ExpectimaxPlayer<G2048State, G2048Move> player = new ExpectimaxPlayer<>();
+    player.setEvaluator(G2048State::getScore);
+    String stopped = "samples: " + state.getMoves().size() + ",";
+
+    // A cancel before the search stops the next search only, the moves are
+    // evaluated without a search.
+    player.cancel();
+    assertNotNull(player.selectMove(state));
+    assertTrue(player.getReport().contains(stopped));
+    assertNotNull(player.selectMove(state));
+    assertFalse(player.getReport().contains(stopped));
+  }
+
+  @Test(timeout=20000)
+  public void betterThanRandom() {
+    ExpectimaxPlayer<G2048State, G2048Move> player = new ExpectimaxPlayer<>();
+    player.setEvaluator(G2048Evaluator.getInstance());
+    player.setDepth(2);
+    player.setMaxWorkers(2);
+    int expectimaxScore = 0;
+    int randomScore = 0;
+    for (int i = 0; i < 3; i++) {
+      expectimaxScore += playGame(player, 200);
+      randomScore += playGame(null, 200);
+    }
+    assertTrue(expectimaxScore > randomScore);
+  }
+}
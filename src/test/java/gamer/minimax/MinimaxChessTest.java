@@ -1,12 +1,15 @@
 package gamer.minimax;
 
+import gamer.chess.ChessCaptureGenerator;
 import gamer.chess.ChessMove;
 import gamer.chess.ChessSimpleEvaluator;
 import gamer.chess.ChessState;
+import gamer.chess.MvvLvaHeuristic;
 import org.junit.Test;
 
 import static org.hamcrest.Matchers.isOneOf;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
@@ -101,4 +104,149 @@ public class MinimaxChessTest {
         "Expected a move that would prevent checkmate, got: %s", moveStr),
                moveStr, isOneOf("d5", "d6", "e6", "g6"));
   }
+
+  @Test
+  public void transpositionTableSameMove() {
+    ChessState state = ChessState.fromFen(
+        "1nbqkbnr/r1p1pppp/pp6/3B3Q/4P3/8/PPPP1PPP/RNB1K1NR w KQk - 0 1");
+
+    MinimaxPlayer<ChessState, ChessMove> player = new MinimaxPlayer<>();
+    player.setMaxDepth(3);
+    player.setEvaluator(ChessSimpleEvaluator.getInstance());
+    player.setTranspositionTableSize(0);
+    ChessMove move = player.selectMove(state);
+
+    player.setTranspositionTableSize(1);
+    assertEquals(move, player.selectMove(state));
+    assertTrue(player.getReport().contains("tt hits"));
+  }
+
+  @Test(timeout=2000)
+  public void moveInOneMultithreaded() {
+    MinimaxPlayer<ChessState, ChessMove> player = new MinimaxPlayer<>();
+    player.setMaxDepth(4);
+    player.setMaxWorkers(4);
+    player.setTranspositionTableSize(1);
+    player.setEvaluator(ChessSimpleEvaluator.getInstance());
+
+    ChessState state = ChessState.fromFen(
+        "1nbqkbnr/r1p1pppp/pp6/3B3Q/4P3/8/PPPP1PPP/RNB1K1NR w KQk - 0 1");
+    ChessMove move = player.selectMove(state);
+    assertEquals(state.parseMove("Bxf7"), move);
+    assertTrue(player.getReport().contains("depth: 4"));
+  }
+
+  @Test(timeout=5000)
+  public void moveOrderingSameMoveFewerNodes() {
+    ChessState state = ChessState.fromFen(
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10");
+
+    MinimaxPlayer<ChessState, ChessMove> plain = new MinimaxPlayer<>();
+    plain.setMaxDepth(3);
+    plain.setEvaluator(ChessSimpleEvaluator.getInstance());
+    plain.setTranspositionTableSize(0);
+    plain.setHistoryHeuristics(false);
+    ChessMove plainMove = plain.selectMove(state);
+
+    MinimaxPlayer<ChessState, ChessMove> ordered = new MinimaxPlayer<>();
+    ordered.setMaxDepth(3);
+    ordered.setEvaluator(ChessSimpleEvaluator.getInstance());
+    ordered.setTranspositionTableSize(0);
+    ordered.setMoveHeuristic(MvvLvaHeuristic.getInstance());
+    ChessMove orderedMove = ordered.selectMove(state);
+
+    assertEquals(plainMove, orderedMove);
+    assertTrue(samples(ordered) < samples(plain));
+  }
+
+  @Test(timeout=2000)
+  public void quiescenceAvoidsDefendedPawn() {
+    // The pawn on d5 is defended by the pawn on e6.
+    ChessState state =
+        ChessState.fromFen("4k3/8/4p3/3p4/8/8/8/3QK3 w - - 0 1");
+
+    MinimaxPlayer<ChessState, ChessMove> player = new MinimaxPlayer<>();
+    player.setMaxDepth(1);
+    player.setEvaluator(ChessSimpleEvaluator.getInstance());
+    player.setTranspositionTableSize(0);
+    assertEquals(state.parseMove("Qxd5"), player.selectMove(state));
+
+    player.setQuiescenceGenerator(ChessCaptureGenerator.getInstance());
+    assertNotEquals(state.parseMove("Qxd5"), player.selectMove(state));
+  }
+
+  @Test(timeout=1000)
+  public void quiescenceNoStandPatInCheck() {
+    // Black is a queen up, but has to leave the check by the knight, after
+    // which the knight takes the queen.
+    ChessState state =
+        ChessState.fromFen("3q3k/p4N2/8/8/8/8/PP6/6K1 b - - 0 1");
+
+    MinimaxPlayer<ChessState, ChessMove> player = new MinimaxPlayer<>();
+    player.setEvaluator(ChessSimpleEvaluator.getInstance());
+    player.setQuiescenceGenerator(ChessCaptureGenerator.getInstance());
+    player.setTranspositionTableSize(0);
+    MinimaxPlayer.SearchResult<ChessMove> result =
+        player.search(state, 0, -1.0, 1.0);
+    assertTrue(String.format("Expected white advantage, got %f", result.score),
+               result.score > 0);
+  }
+
+  @Test(timeout=5000)
+  public void deltaPruningSameScoreFewerNodes() {
+    ChessState state = ChessState.fromFen(
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq -");
+
+    MinimaxPlayer<ChessState, ChessMove> player = new MinimaxPlayer<>();
+    player.setEvaluator(ChessSimpleEvaluator.getInstance());
+    player.setMoveHeuristic(MvvLvaHeuristic.getInstance());
+    player.setQuiescenceGenerator(ChessCaptureGenerator.getInstance());
+    player.setTranspositionTableSize(0);
+    MinimaxPlayer.SearchResult<ChessMove> full =
+        player.search(state, 2, -1.0, 1.0);
+    player.setMaxDepth(2);
+    player.selectMove(state);
+    long fullSamples = samples(player);
+
+    // The gain bound is exact for the simple evaluator, so pruning with zero
+    // margin doesn't change the result.
+    player.setDeltaPruning(ChessSimpleEvaluator.getInstance(), 0);
+    MinimaxPlayer.SearchResult<ChessMove> pruned =
+        player.search(state, 2, -1.0, 1.0);
+    assertEquals(full.score, pruned.score, 1e-6);
+    player.selectMove(state);
+    assertTrue(samples(player) < fullSamples);
+  }
+
+  @Test(timeout=5000)
+  public void principalVariationSearchSameMove() {
+    ChessState state = ChessState.fromFen(
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10");
+
+    MinimaxPlayer<ChessState, ChessMove> plain = new MinimaxPlayer<>();
+    plain.setMaxDepth(4);
+    plain.setEvaluator(ChessSimpleEvaluator.getInstance());
+    plain.setMoveHeuristic(MvvLvaHeuristic.getInstance());
+    plain.setTranspositionTableSize(0);
+    plain.setAspirationWindow(0);
+    plain.setPrincipalVariationSearch(false);
+    ChessMove plainMove = plain.selectMove(state);
+
+    MinimaxPlayer<ChessState, ChessMove> pvs = new MinimaxPlayer<>();
+    pvs.setMaxDepth(4);
+    pvs.setEvaluator(ChessSimpleEvaluator.getInstance());
+    pvs.setMoveHeuristic(MvvLvaHeuristic.getInstance());
+    pvs.setTranspositionTableSize(0);
+    ChessMove pvsMove = pvs.selectMove(state);
+
+    assertEquals(plainMove, pvsMove);
+    String pvPrefix = "pv: " + state.moveToString(pvsMove) + " ";
+    assertTrue(pvs.getReport(), pvs.getReport().contains(pvPrefix));
+  }
+
+  private static long samples(MinimaxPlayer<?, ?> player) {
+    String report = player.getReport();
+    int start = report.indexOf("samples: ") + "samples: ".length();
+    return Long.parseLong(report.substring(start, report.indexOf(',', start)));
+  }
 }
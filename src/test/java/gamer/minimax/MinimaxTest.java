@@ -103,4 +103,20 @@ public class MinimaxTest {
     state.play(TreeGameInstances.GAME4.getMove(4));
     assertEquals(TreeGameInstances.GAME4.getMove(7), player.selectMove(state));
   }
+
+  @Test
+  public void testStoppedBeforeFirstDepth() {
+    TreeGameState state = TreeGameInstances.GAME4.newGame();
+    MinimaxPlayer<TreeGameState, TreeGameMove> player = new MinimaxPlayer<>();
+    player.setEvaluator(new TerminalEvaluator<>());
+    player.setMaxDepth(5);
+
+    // A cancel before the search stops the next search only.
+    player.cancel();
+    assertEquals(state.getMoves().get(0), player.selectMove(state));
+    assertEquals(TreeGameInstances.GAME4.getMove(2), player.selectMove(state));
+
+    player.setMaxSamples(1);
+    assertEquals(state.getMoves().get(0), player.selectMove(state));
+  }
 }
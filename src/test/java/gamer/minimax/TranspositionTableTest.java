@@ -0,0 +1,55 @@
+package gamer.minimax;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TranspositionTableTest {
+  @Test
+  public void storeAndProbe() {
+    TranspositionTable table = new TranspositionTable(1);
+    assertEquals(0, table.probe(12345));
+
+    table.store(12345, 7, TranspositionTable.LOWER, 0.25, 42);
+    long entry = table.probe(12345);
+    assertEquals(7, TranspositionTable.depth(entry));
+    assertEquals(TranspositionTable.LOWER, TranspositionTable.bound(entry));
+    assertEquals(0.25, TranspositionTable.score(entry), 1e-7);
+    assertEquals(42, TranspositionTable.moveIndex(entry));
+
+    table.store(54321, 3, TranspositionTable.EXACT, -0.5, -1);
+    entry = table.probe(54321);
+    assertEquals(-0.5, TranspositionTable.score(entry), 1e-7);
+    assertEquals(-1, TranspositionTable.moveIndex(entry));
+  }
+
+  @Test
+  public void zeroHash() {
+    TranspositionTable table = new TranspositionTable(1);
+    assertEquals(0, table.probe(0));
+    table.store(0, 1, TranspositionTable.EXACT, 0, 0);
+    assertEquals(1, TranspositionTable.depth(table.probe(0)));
+  }
+
+  @Test
+  public void collisions() {
+    TranspositionTable table = new TranspositionTable(1);
+    long entries = (1 << 20) / 16;
+    long hash1 = 1;
+    long hash2 = 1 + entries;
+
+    table.store(hash1, 5, TranspositionTable.EXACT, 0.5, 1);
+    assertEquals(0, table.probe(hash2));
+
+    // Shallower entry doesn't replace a deeper one from the same search.
+    table.store(hash2, 4, TranspositionTable.EXACT, 0.5, 1);
+    assertEquals(0, table.probe(hash2));
+    assertEquals(5, TranspositionTable.depth(table.probe(hash1)));
+
+    // But it does after a new search was started.
+    table.newSearch();
+    table.store(hash2, 4, TranspositionTable.EXACT, 0.5, 1);
+    assertEquals(4, TranspositionTable.depth(table.probe(hash2)));
+    assertEquals(0, table.probe(hash1));
+  }
+}
@@ -0,0 +1,83 @@
+package gamer.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public final class TestSearchPool {
+
+  @Test(timeout=1000)
+  public void invokeAll() {
+    SearchPool pool = new SearchPool(2);
+    checkInvokeAll(pool);
+    // Threads are reused for the next search.
+    checkInvokeAll(pool);
+    pool.shutdown();
+  }
+
+  @Test(timeout=1000)
+  public void forkJoin() {
+    SearchPool pool = new SearchPool(new ForkJoinPool(2));
+    checkInvokeAll(pool);
+    pool.shutdown();
+  }
+
+  @Test(timeout=1000)
+  public void moreTasksThanThreads() {
+    SearchPool pool = new SearchPool(1);
+    AtomicInteger count = new AtomicInteger();
+    List<Runnable> tasks = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      tasks.add(count::incrementAndGet);
+    }
+    pool.invokeAll(tasks);
+    assertEquals(8, count.get());
+    pool.shutdown();
+  }
+
+  @Test(timeout=1000, expected=IllegalStateException.class)
+  public void exception() {
+    SearchPool pool = new SearchPool(1);
+    List<Runnable> tasks = new ArrayList<>();
+    tasks.add(() -> {});
+    tasks.add(() -> { throw new IllegalStateException(); });
+    try {
+      pool.invokeAll(tasks);
+    } catch (RuntimeException ex) {
+      throw (RuntimeException) ex.getCause();
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void defaultPool() {
+    assertSame(SearchPool.getDefault(), SearchPool.getDefault());
+  }
+
+  private static void checkInvokeAll(SearchPool pool) {
+    Thread caller = Thread.currentThread();
+    List<Thread> threads = new ArrayList<>();
+    List<Runnable> tasks = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      tasks.add(() -> {
+        synchronized (threads) {
+          threads.add(Thread.currentThread());
+        }
+      });
+    }
+    tasks.set(0, () -> {
+      assertSame(caller, Thread.currentThread());
+      synchronized (threads) {
+        threads.add(Thread.currentThread());
+      }
+    });
+    pool.invokeAll(tasks);
+    assertEquals(3, threads.size());
+  }
+}